@@ -10,7 +10,10 @@ import static net.bytebuddy.matcher.ElementMatchers.not;
 
 import datadog.trace.bootstrap.WeakMap;
 import java.lang.instrument.Instrumentation;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.ServiceLoader;
+import java.util.concurrent.TimeUnit;
 import lombok.extern.slf4j.Slf4j;
 import net.bytebuddy.agent.builder.AgentBuilder;
 import net.bytebuddy.agent.builder.ResettableClassFileTransformer;
@@ -46,8 +49,14 @@ public class AgentInstaller {
   public static ResettableClassFileTransformer installBytebuddyAgent(
       final Instrumentation inst, final AgentBuilder.Listener... listeners) {
     INSTRUMENTATION = inst;
+    final long startNanos = System.nanoTime();
 
-    AgentBuilder agentBuilder =
+    final List<Instrumenter> instrumenters = new ArrayList<>();
+    for (final Instrumenter instrumenter : ServiceLoader.load(Instrumenter.class)) {
+      instrumenters.add(instrumenter);
+    }
+
+    final AgentBuilder.Ignored ignoredAgentBuilder =
         new AgentBuilder.Default()
             .disableClassFormatChanges()
             .with(AgentBuilder.RedefinitionStrategy.RETRANSFORMATION)
@@ -96,18 +105,26 @@ public class AgentInstaller {
             .or(nameContains("javassist"))
             .or(nameContains(".asm."))
             .or(nameMatches("com\\.mchange\\.v2\\.c3p0\\..*Proxy"));
+    final TransformationCache transformationCache = TransformationCache.open(instrumenters);
+    AgentBuilder agentBuilder =
+        transformationCache == null
+            ? ignoredAgentBuilder
+            : transformationCache.installOn(ignoredAgentBuilder);
     for (final AgentBuilder.Listener listener : listeners) {
       agentBuilder = agentBuilder.with(listener);
     }
     int numInstrumenters = 0;
-    for (final Instrumenter instrumenter : ServiceLoader.load(Instrumenter.class)) {
+    for (final Instrumenter instrumenter : instrumenters) {
       log.debug("Loading instrumentation {}", instrumenter.getClass().getName());
       agentBuilder = instrumenter.instrument(agentBuilder);
       numInstrumenters++;
     }
-    log.debug("Installed {} instrumenter(s)", numInstrumenters);
-
-    return agentBuilder.installOn(inst);
+    final ResettableClassFileTransformer transformer = agentBuilder.installOn(inst);
+    log.debug(
+        "Installed {} instrumenter(s) in {} ms",
+        numInstrumenters,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    return transformer;
   }
 
   private static void registerWeakMapProvider() {
@@ -5,10 +5,15 @@ import static net.bytebuddy.agent.builder.AgentBuilder.PoolStrategy;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
 import datadog.trace.bootstrap.WeakMap;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.net.URL;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import net.bytebuddy.description.type.TypeDescription;
 import net.bytebuddy.dynamic.ClassFileLocator;
 import net.bytebuddy.pool.TypePool;
@@ -16,91 +21,333 @@ import net.bytebuddy.pool.TypePool;
 /**
  * Custom Pool strategy.
  *
- * <p>Here we are using WeakMap.Provider as the backing ClassLoader -> CacheProvider lookup.
+ * <p>The type descriptions of all the class loaders are kept in a single cache, each against the
+ * class loader defining the type: the class loader highest in the hierarchy which locates the same
+ * class file. A type defined by a parent class loader, such as a JDK or a container type, is then
+ * parsed once, by a pool of the parent, and shared by all the child class loaders: a lookup checks
+ * the class loader, then its parents. The cached types only reference their class loader weakly:
+ * they do not keep a redeployed application alive.
  *
- * <p>We also use our bootstrap proxy when matching against the bootstrap loader.
+ * <p>The cache is bounded by the total size of the class files parsed, whatever the number of class
+ * loaders. Types are evicted by least recent use or a minute after their last use: the bursts of
+ * types matched at startup do not stay in memory, the types shared by all the class loaders do.
  *
- * <p>The CacheProvider is also a custom implementation that uses guava's cache to evict.
- *
- * <p>By eviciting from the cache we are able to reduce the memory overhead of the agent for apps
- * that have many classes.
- *
- * <p>See eviction policy below.
+ * <p>Here we are using WeakMap.Provider as the backing ClassLoader -> identifier lookup. We also
+ * use our bootstrap proxy when matching against the bootstrap loader.
  */
 public class DDCachingPoolStrategy implements PoolStrategy {
-  private static final WeakMap<ClassLoader, TypePool.CacheProvider> typePoolCache =
-      WeakMap.Provider.newWeakMap();
+  /** Bound of the sum of the class file sizes of the cached types */
+  static final long MAX_WEIGHT = 16 * 1024 * 1024;
+  /** Weight of the types missing or not parsed from a class file */
+  private static final int MIN_WEIGHT = 64;
+
+  private static final TypePool.Resolution OBJECT_RESOLUTION =
+      new TypePool.Resolution.Simple(TypeDescription.OBJECT);
+
+  private static final LoaderEntry BOOTSTRAP_ENTRY = new LoaderEntry(0, null, null);
+
+  /** Packages always defined by the bootstrap class loader, the platform one on Java 9+ excluded */
+  private static final String[] BOOTSTRAP_PACKAGE_PREFIXES = {
+    "java.lang.", "java.util.", "java.io."
+  };
+
+  private static final DDLocationStrategy LOCATION_STRATEGY = new DDLocationStrategy();
+
+  private final AtomicLong loaderIds = new AtomicLong();
+  private final WeakMap<ClassLoader, LoaderEntry> loaderEntries = WeakMap.Provider.newWeakMap();
+
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong parentHitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong evictionCount = new AtomicLong();
+
+  private final Cache<TypeKey, CachedResolution> cache =
+      CacheBuilder.newBuilder()
+          .initialCapacity(1000)
+          .concurrencyLevel(Math.max(4, Runtime.getRuntime().availableProcessors()))
+          .maximumWeight(MAX_WEIGHT)
+          .weigher(
+              new Weigher<TypeKey, CachedResolution>() {
+                @Override
+                public int weigh(final TypeKey key, final CachedResolution value) {
+                  return value.weight;
+                }
+              })
+          .expireAfterAccess(1, TimeUnit.MINUTES)
+          .removalListener(
+              new RemovalListener<TypeKey, CachedResolution>() {
+                @Override
+                public void onRemoval(
+                    final RemovalNotification<TypeKey, CachedResolution> notification) {
+                  if (notification.wasEvicted()) {
+                    evictionCount.incrementAndGet();
+                  }
+                }
+              })
+          .build();
 
   @Override
   public TypePool typePool(final ClassFileLocator classFileLocator, final ClassLoader classLoader) {
-    final ClassLoader key =
-        BOOTSTRAP_CLASSLOADER == classLoader ? Utils.getBootstrapProxy() : classLoader;
-    TypePool.CacheProvider cache = typePoolCache.get(key);
-    if (null == cache) {
-      synchronized (key) {
-        cache = typePoolCache.get(key);
-        if (null == cache) {
-          cache = EvictingCacheProvider.withObjectType();
-          typePoolCache.put(key, cache);
+    return sharedTypePool(classFileLocator, loaderEntry(classLoader));
+  }
+
+  /** @return the lookups of types found in the cache */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /** @return the lookups of types found in the cache against a parent class loader */
+  public long getParentHitCount() {
+    return parentHitCount.get();
+  }
+
+  /** @return the types not found in the cache, located and parsed */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /** @return the types evicted from the cache, by size or by expiry */
+  public long getEvictionCount() {
+    return evictionCount.get();
+  }
+
+  private LoaderEntry loaderEntry(final ClassLoader classLoader) {
+    if (BOOTSTRAP_CLASSLOADER == classLoader) {
+      return BOOTSTRAP_ENTRY;
+    }
+    LoaderEntry entry = loaderEntries.get(classLoader);
+    if (null == entry) {
+      final LoaderEntry parent = loaderEntry(classLoader.getParent());
+      synchronized (classLoader) {
+        entry = loaderEntries.get(classLoader);
+        if (null == entry) {
+          entry = new LoaderEntry(loaderIds.incrementAndGet(), classLoader, parent);
+          loaderEntries.put(classLoader, entry);
         }
       }
     }
-    return new TypePool.Default.WithLazyResolution(
-        cache, classFileLocator, TypePool.Default.ReaderMode.FAST);
+    return entry;
   }
 
-  private static class EvictingCacheProvider implements TypePool.CacheProvider {
+  private SharedTypePool sharedTypePool(
+      final ClassFileLocator classFileLocator, final LoaderEntry loaderEntry) {
+    final SizeRecordingLocator locator = new SizeRecordingLocator(classFileLocator);
+    return new SharedTypePool(new SharedCacheProvider(loaderEntry, locator), locator, loaderEntry);
+  }
+
+  /** A class loader and its parents, only weakly referencing the class loaders */
+  private static final class LoaderEntry {
+    private final long id;
+    private final WeakReference<ClassLoader> classLoader;
+    private final LoaderEntry parent;
+
+    private LoaderEntry(final long id, final ClassLoader classLoader, final LoaderEntry parent) {
+      this.id = id;
+      this.classLoader = new WeakReference<>(classLoader);
+      this.parent = parent;
+    }
+  }
 
-    /** A map containing all cached resolutions by their names. */
-    private final Cache<String, TypePool.Resolution> cache;
+  private static final class TypeKey {
+    private final long loaderId;
+    private final String name;
 
-    /** Creates a new simple cache. */
-    private EvictingCacheProvider() {
-      cache =
-          CacheBuilder.newBuilder()
-              .initialCapacity(100)
-              .maximumSize(1000)
-              .expireAfterAccess(1, TimeUnit.MINUTES)
-              .build();
+    private TypeKey(final long loaderId, final String name) {
+      this.loaderId = loaderId;
+      this.name = name;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof TypeKey)) {
+        return false;
+      }
+      final TypeKey other = (TypeKey) o;
+      return loaderId == other.loaderId && name.equals(other.name);
     }
 
-    private static TypePool.CacheProvider withObjectType() {
-      final TypePool.CacheProvider cacheProvider = new EvictingCacheProvider();
-      cacheProvider.register(
-          Object.class.getName(), new TypePool.Resolution.Simple(TypeDescription.OBJECT));
-      return cacheProvider;
+    @Override
+    public int hashCode() {
+      return 31 * (int) (loaderId ^ (loaderId >>> 32)) + name.hashCode();
+    }
+  }
+
+  private static final class CachedResolution {
+    private final TypePool.Resolution resolution;
+    private final int weight;
+
+    private CachedResolution(final TypePool.Resolution resolution, final int weight) {
+      this.resolution = resolution;
+      this.weight = weight;
+    }
+  }
+
+  /**
+   * Pool of a class loader, parsing the types defined by the class loader only: the types defined
+   * by a parent are parsed by a pool of the parent, to be shared with the other children.
+   */
+  private final class SharedTypePool extends TypePool.Default.WithLazyResolution {
+    private final LoaderEntry loaderEntry;
+
+    private SharedTypePool(
+        final SharedCacheProvider cacheProvider,
+        final ClassFileLocator classFileLocator,
+        final LoaderEntry loaderEntry) {
+      super(cacheProvider, classFileLocator, TypePool.Default.ReaderMode.FAST);
+      this.loaderEntry = loaderEntry;
+    }
+
+    @Override
+    protected TypePool.Resolution doResolve(final String name) {
+      final TypePool.Resolution cached = cacheProvider.find(name);
+      if (cached != null) {
+        return cached;
+      }
+      final LoaderEntry owner = definingEntry(name);
+      if (owner != loaderEntry) {
+        final SharedTypePool ownerPool = ownerPool(owner);
+        if (ownerPool != null) {
+          return ownerPool.doResolve(name);
+        }
+      }
+      return super.doResolve(name);
+    }
+
+    /**
+     * @return the class loader highest in the hierarchy locating the same class file, walking up
+     *     the parents until one locates another class file or none
+     */
+    private LoaderEntry definingEntry(final String name) {
+      if (loaderEntry == BOOTSTRAP_ENTRY) {
+        return BOOTSTRAP_ENTRY;
+      }
+      for (final String prefix : BOOTSTRAP_PACKAGE_PREFIXES) {
+        if (name.startsWith(prefix)) {
+          return BOOTSTRAP_ENTRY;
+        }
+      }
+      final ClassLoader classLoader = loaderEntry.classLoader.get();
+      if (classLoader == null) {
+        return loaderEntry;
+      }
+      final String resourceName = Utils.getResourceName(name);
+      final URL url = classLoader.getResource(resourceName);
+      if (url == null) {
+        // Not a class file of the class loader, such as a generated type
+        return loaderEntry;
+      }
+      final String location = url.toExternalForm();
+
+      LoaderEntry entry = loaderEntry;
+      for (ClassLoader parent = classLoader.getParent();
+          parent != null;
+          parent = parent.getParent()) {
+        if (!sameLocation(location, parent.getResource(resourceName))) {
+          return entry;
+        }
+        entry = entry.parent;
+      }
+      return sameLocation(location, Utils.getBootstrapProxy().getResource(resourceName))
+          ? BOOTSTRAP_ENTRY
+          : entry;
+    }
+
+    /** @return a pool of the class loader, null if collected */
+    private SharedTypePool ownerPool(final LoaderEntry owner) {
+      if (owner == BOOTSTRAP_ENTRY) {
+        return sharedTypePool(
+            ClassFileLocator.ForClassLoader.of(Utils.getBootstrapProxy()), BOOTSTRAP_ENTRY);
+      }
+      final ClassLoader ownerClassLoader = owner.classLoader.get();
+      return ownerClassLoader == null
+          ? null
+          : sharedTypePool(LOCATION_STRATEGY.classFileLocator(ownerClassLoader), owner);
+    }
+  }
+
+  private static boolean sameLocation(final String location, final URL url) {
+    return url != null && location.equals(url.toExternalForm());
+  }
+
+  /** The cache seen from a class loader */
+  private final class SharedCacheProvider implements TypePool.CacheProvider {
+    private final LoaderEntry loaderEntry;
+    private final SizeRecordingLocator locator;
+
+    private SharedCacheProvider(final LoaderEntry loaderEntry, final SizeRecordingLocator locator) {
+      this.loaderEntry = loaderEntry;
+      this.locator = locator;
     }
 
     @Override
     public TypePool.Resolution find(final String name) {
-      return cache.getIfPresent(name);
+      if (Object.class.getName().equals(name)) {
+        return OBJECT_RESOLUTION;
+      }
+      for (LoaderEntry entry = loaderEntry; entry != null; entry = entry.parent) {
+        final CachedResolution cached = cache.getIfPresent(new TypeKey(entry.id, name));
+        // A type missing for a parent class loader may be defined by its child
+        if (cached != null && (entry == loaderEntry || cached.resolution.isResolved())) {
+          hitCount.incrementAndGet();
+          if (entry != loaderEntry) {
+            parentHitCount.incrementAndGet();
+          }
+          return cached.resolution;
+        }
+      }
+      return null;
     }
 
     @Override
     public TypePool.Resolution register(final String name, final TypePool.Resolution resolution) {
-      try {
-        return cache.get(name, new ResolutionProvider(resolution));
-      } catch (final ExecutionException e) {
-        return resolution;
-      }
+      missCount.incrementAndGet();
+      // Parsed by the pool of the class loader defining the type, or missing for this one only
+      final int weight =
+          resolution.isResolved() ? Math.max(MIN_WEIGHT, locator.sizeOf(name)) : MIN_WEIGHT;
+      final CachedResolution cached =
+          cache
+              .asMap()
+              .putIfAbsent(
+                  new TypeKey(loaderEntry.id, name), new CachedResolution(resolution, weight));
+      return cached == null ? resolution : cached.resolution;
     }
 
     @Override
     public void clear() {
       cache.invalidateAll();
     }
+  }
 
-    private static class ResolutionProvider implements Callable<TypePool.Resolution> {
-      private final TypePool.Resolution value;
+  /** Remembers the size of the last class file located, to weigh its type description */
+  private static final class SizeRecordingLocator implements ClassFileLocator {
+    private final ClassFileLocator delegate;
+    private String lastName;
+    private int lastSize;
 
-      private ResolutionProvider(final TypePool.Resolution value) {
-        this.value = value;
-      }
+    private SizeRecordingLocator(final ClassFileLocator delegate) {
+      this.delegate = delegate;
+    }
 
-      @Override
-      public TypePool.Resolution call() {
-        return value;
+    @Override
+    public Resolution locate(final String name) throws IOException {
+      final Resolution resolution = delegate.locate(name);
+      if (resolution.isResolved()) {
+        lastSize = resolution.resolve().length;
+        lastName = name;
       }
+      return resolution;
+    }
+
+    int sizeOf(final String name) {
+      return name.equals(lastName) ? lastSize : 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+      delegate.close();
     }
   }
 }
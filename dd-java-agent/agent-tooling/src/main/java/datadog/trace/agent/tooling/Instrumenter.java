@@ -52,7 +52,6 @@ public interface Instrumenter {
   abstract class Default implements Instrumenter {
     private final Set<String> instrumentationNames;
     private final String instrumentationPrimaryName;
-    private final InstrumentationContextProvider contextProvider;
     protected final boolean enabled;
 
     protected final String packageName =
@@ -77,7 +76,6 @@ public interface Instrumenter {
         }
       }
       enabled = anyEnabled;
-      contextProvider = new FieldBackedProvider(this);
     }
 
     @Override
@@ -87,9 +85,12 @@ public interface Instrumenter {
         return parentAgentBuilder;
       }
 
+      // Cheap until a type matches: the context stores are generated then
+      final InstrumentationContextProvider contextProvider = new FieldBackedProvider(this);
       AgentBuilder.Identified.Extendable agentBuilder =
           parentAgentBuilder
-              .type(
+              .type(TypeIndex.get().filter(this))
+              .and(
                   failSafe(
                       typeMatcher(),
                       "Instrumentation type matcher unexpected exception: " + getClass().getName()),
@@ -0,0 +1,638 @@
+package datadog.trace.agent.tooling;
+
+import static datadog.trace.agent.tooling.ClassLoaderMatcher.BOOTSTRAP_CLASSLOADER;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import datadog.trace.bootstrap.WeakMap;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import lombok.extern.slf4j.Slf4j;
+import net.bytebuddy.agent.builder.AgentBuilder;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.dynamic.ClassFileLocator;
+import net.bytebuddy.utility.JavaModule;
+
+/**
+ * Cache of the types no instrumentation applies to, kept on disk across the runs of an application.
+ *
+ * <p>Most of the types an application loads are matched against all the instrumentations and left
+ * unchanged. The cache records them in a memory-mapped file, keyed by a hash of their name, of
+ * their class file and of the class path of their class loader, and later runs ignore them before
+ * they are parsed and matched. The file is named after a hash of the agent jars, of the
+ * instrumentations, of the JVM and of the {@code dd.} configuration: a change to any of them starts
+ * from a new file, and the files left unused for a week are deleted.
+ *
+ * <p>Only the types of the class loaders whose class path is known are cached: the JDK class
+ * loaders and the {@link URLClassLoader}s, over jar files. The jars visible from a class loader,
+ * with the jars listed in their manifest {@code Class-Path} and their sizes and modification times,
+ * decide the super types and the classes a type is matched against, so they are part of its key.
+ *
+ * <p>The types an instrumentation applies to are not cached: applying an instrumentation also
+ * injects its helper classes and sets up its context stores in the class loader, which the
+ * transformed class file alone would not do.
+ *
+ * <p>The cache is enabled by setting {@code dd.trace.transformation.cache.dir} to a writable
+ * directory.
+ */
+@Slf4j
+public final class TransformationCache {
+  static final String DIRECTORY_CONFIG = "dd.trace.transformation.cache.dir";
+  static final int DEFAULT_SLOTS = 1 << 17;
+
+  private static final long MAGIC = 0x6464547261436163L;
+  private static final int FORMAT = 1;
+  private static final int HEADER_SIZE = 32;
+  private static final int SLOT_SIZE = 16;
+  /** Slots looked at for a key before giving up */
+  private static final int MAX_PROBES = 8;
+  private static final String FILE_PREFIX = "transformations-";
+  private static final String FILE_SUFFIX = ".cache";
+  private static final String TEMP_FILE_SUFFIX = ".tmp";
+  private static final long STALE_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+  private static final HashFunction HASH = Hashing.murmur3_128();
+  /** The key of the class loaders whose class path is unknown */
+  private static final byte[] UNKNOWN = new byte[0];
+
+  private final File file;
+  private final MappedByteBuffer buffer;
+  private final int mask;
+
+  private final ClassLoader systemClassLoader = ClassLoader.getSystemClassLoader();
+  private final List<ClassLoader> jdkClassLoaders = new ArrayList<>();
+  private final byte[] bootstrapKey = bootstrapKey();
+  private final WeakMap<ClassLoader, LoaderKey> loaderKeys = WeakMap.Provider.newWeakMap();
+
+  private final ThreadLocal<Lookup> lookups =
+      new ThreadLocal<Lookup>() {
+        @Override
+        protected Lookup initialValue() {
+          return new Lookup();
+        }
+      };
+
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong recordCount = new AtomicLong();
+
+  private TransformationCache(final File file, final MappedByteBuffer buffer, final int slots) {
+    this.file = file;
+    this.buffer = buffer;
+    mask = slots - 1;
+    for (ClassLoader loader = systemClassLoader; loader != null; loader = loader.getParent()) {
+      jdkClassLoaders.add(loader);
+    }
+  }
+
+  /**
+   * Open the cache configured for the agent.
+   *
+   * @param instrumenters the instrumentations of the agent
+   * @return the cache, or null if it is disabled or cannot be used
+   */
+  static TransformationCache open(final Iterable<Instrumenter> instrumenters) {
+    final String directory = Utils.getConfigValue(DIRECTORY_CONFIG);
+    if (directory == null) {
+      return null;
+    }
+    try {
+      final byte[] context = agentContext(instrumenters);
+      if (context == null) {
+        log.debug("Transformation cache disabled: agent jars not found");
+        return null;
+      }
+      return open(new File(directory), context, DEFAULT_SLOTS);
+    } catch (final IOException | RuntimeException e) {
+      log.warn("Transformation cache disabled: {}", e.toString());
+      return null;
+    }
+  }
+
+  /**
+   * Open the cache file of a context, creating it if it does not exist or is not valid.
+   *
+   * @param directory the directory of the cache files
+   * @param context the hash of everything the types cached depend on, besides their class loader
+   * @param slots the capacity of the cache, a power of two
+   */
+  static TransformationCache open(final File directory, final byte[] context, final int slots)
+      throws IOException {
+    if (Integer.bitCount(slots) != 1 || context.length != HEADER_SIZE - 16) {
+      throw new IllegalArgumentException("Invalid slots or context");
+    }
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Cannot create directory " + directory);
+    }
+    final File file =
+        new File(
+            directory,
+            FILE_PREFIX + BaseEncoding.base16().lowerCase().encode(context) + FILE_SUFFIX);
+    final long size = HEADER_SIZE + (long) SLOT_SIZE * slots;
+
+    MappedByteBuffer buffer = file.exists() ? map(file, size) : null;
+    if (buffer == null || !hasHeader(buffer, context, slots)) {
+      // Files are replaced, never rewritten: other processes may have the previous one mapped
+      create(file, context, slots, size);
+      buffer = map(file, size);
+      if (buffer == null || !hasHeader(buffer, context, slots)) {
+        throw new IOException("Invalid transformation cache " + file);
+      }
+    }
+    file.setLastModified(System.currentTimeMillis());
+    deleteStaleFiles(directory, file);
+    log.debug("Transformation cache {} opened", file);
+    return new TransformationCache(file, buffer, slots);
+  }
+
+  /**
+   * Add the cache to an agent: the types recorded are ignored and the types left unchanged are
+   * recorded.
+   *
+   * @param agentBuilder the agent with the types it ignores
+   * @return the agent with the cache
+   */
+  AgentBuilder installOn(final AgentBuilder.Ignored agentBuilder) {
+    return agentBuilder
+        .or(new CachedTypeMatcher())
+        .with(new RecordingBufferStrategy())
+        .with(new RecordingListener());
+  }
+
+  /** @return the types ignored, found in the cache */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /** @return the types not found in the cache, matched against the instrumentations */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /** @return the types recorded in the cache */
+  public long getRecordCount() {
+    return recordCount.get();
+  }
+
+  File getFile() {
+    return file;
+  }
+
+  private boolean contains(final long high, final long low) {
+    int slot = (int) low & mask;
+    for (int probe = 0; probe < MAX_PROBES; probe++) {
+      final int offset = HEADER_SIZE + SLOT_SIZE * slot;
+      final long slotHigh = buffer.getLong(offset);
+      final long slotLow = buffer.getLong(offset + 8);
+      if (slotHigh == high && slotLow == low) {
+        return true;
+      }
+      if (slotHigh == 0 && slotLow == 0) {
+        return false;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return false;
+  }
+
+  private synchronized void record(final long high, final long low) {
+    int slot = (int) low & mask;
+    for (int probe = 0; probe < MAX_PROBES; probe++) {
+      final int offset = HEADER_SIZE + SLOT_SIZE * slot;
+      final long slotHigh = buffer.getLong(offset);
+      final long slotLow = buffer.getLong(offset + 8);
+      if (slotHigh == high && slotLow == low) {
+        return;
+      }
+      if (slotHigh == 0 && slotLow == 0) {
+        // The low half last and never 0: a slot half written matches no key
+        buffer.putLong(offset, high);
+        buffer.putLong(offset + 8, low);
+        recordCount.incrementAndGet();
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  /** @return the hash of the class path of a class loader and its parents, or UNKNOWN */
+  private byte[] loaderKey(final ClassLoader classLoader) {
+    if (classLoader == BOOTSTRAP_CLASSLOADER) {
+      return bootstrapKey;
+    }
+    if (classLoader.getClass().getClassLoader() != null) {
+      // Not a JDK class loader: the types it defines are not known from its class path
+      return UNKNOWN;
+    }
+    final byte[] parentKey = loaderKey(classLoader.getParent());
+    final Object classPath = classPathVersion(classLoader);
+    LoaderKey loaderKey = loaderKeys.get(classLoader);
+    if (loaderKey == null
+        || loaderKey.parentKey != parentKey
+        || !loaderKey.classPath.equals(classPath)) {
+      loaderKey =
+          new LoaderKey(
+              parentKey, classPath, parentKey == UNKNOWN ? UNKNOWN : key(classLoader, parentKey));
+      loaderKeys.put(classLoader, loaderKey);
+    }
+    return loaderKey.key;
+  }
+
+  /** @return a value changing with the class path of a class loader, which can only grow */
+  private Object classPathVersion(final ClassLoader classLoader) {
+    if (classLoader instanceof URLClassLoader) {
+      return ((URLClassLoader) classLoader).getURLs().length;
+    }
+    if (classLoader == systemClassLoader) {
+      return String.valueOf(System.getProperty("java.class.path"));
+    }
+    return "";
+  }
+
+  private byte[] key(final ClassLoader classLoader, final byte[] parentKey) {
+    final Hasher hasher = HASH.newHasher().putBytes(parentKey);
+    putString(hasher, classLoader.getClass().getName());
+    if (classLoader instanceof URLClassLoader) {
+      for (final URL url : ((URLClassLoader) classLoader).getURLs()) {
+        if (!putFile(hasher, toFile(url))) {
+          return UNKNOWN;
+        }
+      }
+    } else if (classLoader == systemClassLoader) {
+      if (System.getProperty("jdk.module.path") != null) {
+        return UNKNOWN;
+      }
+      final String classPath = System.getProperty("java.class.path", "");
+      for (final String path : classPath.split(File.pathSeparator)) {
+        if (!putFile(hasher, new File(path))) {
+          return UNKNOWN;
+        }
+      }
+    } else if (!jdkClassLoaders.contains(classLoader)) {
+      // The platform class loader defines JDK types only, the JDK is part of the context
+      return UNKNOWN;
+    }
+    return hasher.hash().asBytes();
+  }
+
+  private static byte[] bootstrapKey() {
+    final Hasher hasher = HASH.newHasher();
+    for (final String property :
+        new String[] {"sun.boot.class.path", "jdk.boot.class.path.append"}) {
+      final String classPath = System.getProperty(property);
+      if (classPath != null) {
+        for (final String path : classPath.split(File.pathSeparator)) {
+          if (!putFile(hasher, new File(path))) {
+            return UNKNOWN;
+          }
+        }
+      }
+    }
+    return hasher.hash().asBytes();
+  }
+
+  /**
+   * @return the hash of the agent classes, of its instrumentations, of the JVM and of the agent
+   *     configuration, or null if the agent jars are not found
+   */
+  static byte[] agentContext(final Iterable<Instrumenter> instrumenters) throws IOException {
+    final Hasher hasher = HASH.newHasher().putInt(FORMAT);
+    for (final String property :
+        new String[] {"java.vm.name", "java.vm.version", "java.runtime.version", "java.home"}) {
+      putString(hasher, System.getProperty(property));
+    }
+    // The agent jars are extracted to new files on each run: their contents are hashed instead
+    if (!putJarContents(hasher, Utils.getAgentClassLoader())
+        || !putJarContents(hasher, Utils.getBootstrapProxy())) {
+      return null;
+    }
+    for (final Instrumenter instrumenter : instrumenters) {
+      putString(hasher, instrumenter.getClass().getName());
+    }
+    for (final String name : new TreeSet<>(System.getProperties().stringPropertyNames())) {
+      if (name.startsWith("dd.")) {
+        putString(hasher, name);
+        putString(hasher, System.getProperty(name));
+      }
+    }
+    for (final Map.Entry<String, String> variable : new TreeMap<>(System.getenv()).entrySet()) {
+      if (variable.getKey().startsWith("DD_")) {
+        putString(hasher, variable.getKey());
+        putString(hasher, variable.getValue());
+      }
+    }
+    return hasher.hash().asBytes();
+  }
+
+  private static boolean putJarContents(final Hasher hasher, final ClassLoader classLoader)
+      throws IOException {
+    if (!(classLoader instanceof URLClassLoader)) {
+      return false;
+    }
+    for (final URL url : ((URLClassLoader) classLoader).getURLs()) {
+      final File file = toFile(url);
+      if (file == null || !file.isFile()) {
+        return false;
+      }
+      // The checksums in the central directory: the entries are not read
+      try (final JarFile jar = new JarFile(file)) {
+        final Enumeration<JarEntry> entries = jar.entries();
+        while (entries.hasMoreElements()) {
+          final JarEntry entry = entries.nextElement();
+          putString(hasher, entry.getName());
+          hasher.putLong(entry.getCrc()).putLong(entry.getSize());
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return false if the file, or a jar listed in its manifest class path, is a directory, whose
+   *     contents may change without a trace
+   */
+  private static boolean putFile(final Hasher hasher, final File file) {
+    return putFile(hasher, file, new HashSet<File>());
+  }
+
+  private static boolean putFile(final Hasher hasher, final File file, final Set<File> visited) {
+    if (file == null || file.isDirectory()) {
+      return false;
+    }
+    putString(hasher, file.getPath());
+    hasher.putLong(file.length()).putLong(file.lastModified());
+    if (!visited.add(file) || !file.isFile()) {
+      return true;
+    }
+    // The class loaders also load the classes of the jars listed in the manifest
+    for (final URL url : manifestClassPath(file)) {
+      if (!putFile(hasher, toFile(url), visited)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static List<URL> manifestClassPath(final File file) {
+    final String classPath;
+    try (final JarFile jar = new JarFile(file)) {
+      final Manifest manifest = jar.getManifest();
+      classPath =
+          manifest == null
+              ? null
+              : manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH);
+    } catch (final IOException e) {
+      // Not a jar: the class loaders ignore it as well
+      return Collections.emptyList();
+    }
+    if (classPath == null) {
+      return Collections.emptyList();
+    }
+    final List<URL> urls = new ArrayList<>();
+    for (final String entry : classPath.trim().split("\\s+")) {
+      if (entry.isEmpty()) {
+        continue;
+      }
+      try {
+        urls.add(new URL(file.toURI().toURL(), entry));
+      } catch (final MalformedURLException e) {
+        // Skipped by the class loaders as well
+      }
+    }
+    return urls;
+  }
+
+  private static void putString(final Hasher hasher, final String value) {
+    if (value == null) {
+      hasher.putInt(-1);
+    } else {
+      hasher.putInt(value.length()).putUnencodedChars(value);
+    }
+  }
+
+  private static File toFile(final URL url) {
+    if (!"file".equals(url.getProtocol())) {
+      return null;
+    }
+    try {
+      return new File(url.toURI());
+    } catch (final URISyntaxException | IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  private static MappedByteBuffer map(final File file, final long size) throws IOException {
+    try (final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        final FileChannel channel = randomAccessFile.getChannel()) {
+      // The mapping outlives the channel
+      return channel.size() == size ? channel.map(FileChannel.MapMode.READ_WRITE, 0, size) : null;
+    }
+  }
+
+  private static boolean hasHeader(
+      final ByteBuffer buffer, final byte[] context, final int slots) {
+    if (buffer.getLong(0) != MAGIC || buffer.getInt(8) != FORMAT || buffer.getInt(12) != slots) {
+      return false;
+    }
+    for (int i = 0; i < context.length; i++) {
+      if (buffer.get(16 + i) != context[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void create(
+      final File file, final byte[] context, final int slots, final long size)
+      throws IOException {
+    final File temp = File.createTempFile(FILE_PREFIX, TEMP_FILE_SUFFIX, file.getParentFile());
+    try {
+      try (final RandomAccessFile out = new RandomAccessFile(temp, "rw")) {
+        out.setLength(size);
+        out.writeLong(MAGIC);
+        out.writeInt(FORMAT);
+        out.writeInt(slots);
+        out.write(context);
+      }
+      try {
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      } catch (final AtomicMoveNotSupportedException e) {
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      temp.delete();
+    }
+  }
+
+  private static void deleteStaleFiles(final File directory, final File file) {
+    final File[] files = directory.listFiles();
+    if (files == null) {
+      return;
+    }
+    final long staleBefore = System.currentTimeMillis() - STALE_MILLIS;
+    for (final File other : files) {
+      final String name = other.getName();
+      if (name.startsWith(FILE_PREFIX)
+          && (name.endsWith(FILE_SUFFIX) || name.endsWith(TEMP_FILE_SUFFIX))
+          && !other.equals(file)
+          && other.lastModified() < staleBefore) {
+        other.delete();
+      }
+    }
+  }
+
+  private static final class LoaderKey {
+    private final byte[] parentKey;
+    private final Object classPath;
+    private final byte[] key;
+
+    private LoaderKey(final byte[] parentKey, final Object classPath, final byte[] key) {
+      this.parentKey = parentKey;
+      this.classPath = classPath;
+      this.key = key;
+    }
+  }
+
+  /** The type being transformed by the current thread */
+  private static final class Lookup {
+    private String name;
+    private ClassLoader classLoader;
+    private byte[] classFile;
+    private long high;
+    private long low;
+    /** Matched against the instrumentations: to record if none applies */
+    private boolean pending;
+
+    private boolean isFor(final String name, final ClassLoader classLoader) {
+      return classFile != null && classLoader == this.classLoader && name.equals(this.name);
+    }
+
+    private void clear() {
+      name = null;
+      classLoader = null;
+      classFile = null;
+      pending = false;
+    }
+  }
+
+  /** Captures the class file of the type being transformed */
+  private final class RecordingBufferStrategy implements AgentBuilder.ClassFileBufferStrategy {
+    @Override
+    public ClassFileLocator resolve(
+        final String name,
+        final byte[] binaryRepresentation,
+        final ClassLoader classLoader,
+        final JavaModule module,
+        final ProtectionDomain protectionDomain) {
+      final Lookup lookup = lookups.get();
+      lookup.clear();
+      lookup.name = name;
+      lookup.classLoader = classLoader;
+      lookup.classFile = binaryRepresentation;
+      return AgentBuilder.ClassFileBufferStrategy.Default.RETAINING.resolve(
+          name, binaryRepresentation, classLoader, module, protectionDomain);
+    }
+  }
+
+  /** Ignores the types recorded, after the other ignored types */
+  private final class CachedTypeMatcher implements AgentBuilder.RawMatcher {
+    @Override
+    public boolean matches(
+        final TypeDescription typeDescription,
+        final ClassLoader classLoader,
+        final JavaModule module,
+        final Class<?> classBeingRedefined,
+        final ProtectionDomain protectionDomain) {
+      final Lookup lookup = lookups.get();
+      // Types loaded already are retransformed with the class file of the JVM, which may differ
+      if (classBeingRedefined != null || !lookup.isFor(typeDescription.getName(), classLoader)) {
+        return false;
+      }
+      final byte[] loaderKey = loaderKey(classLoader);
+      if (loaderKey == UNKNOWN) {
+        return false;
+      }
+      final ByteBuffer key =
+          ByteBuffer.wrap(
+              HASH.newHasher()
+                  .putBytes(loaderKey)
+                  .putUnencodedChars(lookup.name)
+                  .putBytes(lookup.classFile)
+                  .hash()
+                  .asBytes());
+      lookup.high = key.getLong(0);
+      lookup.low = key.getLong(8) == 0 ? 1 : key.getLong(8);
+      if (contains(lookup.high, lookup.low)) {
+        hitCount.incrementAndGet();
+        return true;
+      }
+      missCount.incrementAndGet();
+      lookup.pending = true;
+      return false;
+    }
+  }
+
+  /** Records the types matched against the instrumentations and left unchanged */
+  private final class RecordingListener extends AgentBuilder.Listener.Adapter {
+    @Override
+    public void onIgnored(
+        final TypeDescription typeDescription,
+        final ClassLoader classLoader,
+        final JavaModule module,
+        final boolean loaded) {
+      final Lookup lookup = lookups.get();
+      if (lookup.pending && lookup.isFor(typeDescription.getName(), classLoader)) {
+        record(lookup.high, lookup.low);
+      }
+      lookup.pending = false;
+    }
+
+    @Override
+    public void onError(
+        final String typeName,
+        final ClassLoader classLoader,
+        final JavaModule module,
+        final boolean loaded,
+        final Throwable throwable) {
+      lookups.get().pending = false;
+    }
+
+    @Override
+    public void onComplete(
+        final String typeName,
+        final ClassLoader classLoader,
+        final JavaModule module,
+        final boolean loaded) {
+      lookups.get().clear();
+    }
+  }
+}
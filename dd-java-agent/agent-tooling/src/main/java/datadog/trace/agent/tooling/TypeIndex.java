@@ -0,0 +1,405 @@
+package datadog.trace.agent.tooling;
+
+import static datadog.trace.agent.tooling.ClassLoaderMatcher.BOOTSTRAP_CLASSLOADER;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import datadog.trace.bootstrap.WeakMap;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.TreeSet;
+import lombok.extern.slf4j.Slf4j;
+import net.bytebuddy.agent.builder.AgentBuilder;
+import net.bytebuddy.description.type.TypeDefinition;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.matcher.ElementMatcher;
+import net.bytebuddy.matcher.ErasureMatcher;
+import net.bytebuddy.matcher.HasSuperTypeMatcher;
+import net.bytebuddy.matcher.NameMatcher;
+import net.bytebuddy.matcher.StringMatcher;
+import net.bytebuddy.utility.JavaModule;
+
+/**
+ * Index of the types targeted by the instrumentations: the exact names, the name prefixes and the
+ * super type names their type matchers require.
+ *
+ * <p>The index is written at build time by {@link #main(String...)}, which analyzes the type
+ * matchers of all the {@link Instrumenter.Default} found on the class path, and read from the agent
+ * jar at runtime. The {@link #filter(Instrumenter) filter} of an indexed instrumentation rejects a
+ * type with a lookup in the index before its own type matcher runs. Instrumentations whose type
+ * matchers cannot be analyzed, such as custom matchers, are not indexed and are not filtered.
+ *
+ * <p>Which indexed super types a type extends is computed once per class loader and type, from the
+ * super types of its direct super types, and kept in a bounded cache.
+ *
+ * <p>The index can be disabled with {@code dd.trace.type.index.enabled=false}.
+ */
+@Slf4j
+public final class TypeIndex {
+  static final String RESOURCE_NAME = "datadog/trace/agent/tooling/type-index";
+
+  private static final String NAME = "name";
+  private static final String PREFIX = "prefix";
+  private static final String SUPER = "super";
+
+  private static final int MAX_CACHED_TYPES = 10000;
+
+  /** Instrumentation hints by instrumentation class name */
+  private final Map<String, Hints> hints;
+  /** Bit of each indexed super type */
+  private final Map<String, Integer> superTypes;
+  /** All the indexed super types, extended by the types having a super type which is missing */
+  private final BitSet unknown = new BitSet();
+
+  private final WeakMap<ClassLoader, Cache<String, BitSet>> extendedTypes =
+      WeakMap.Provider.newWeakMap();
+
+  TypeIndex(final Map<String, Hints> hints) {
+    this.hints = hints;
+    superTypes = new HashMap<>();
+    for (final Hints hint : hints.values()) {
+      for (final String superType : hint.superTypes) {
+        if (!superTypes.containsKey(superType)) {
+          superTypes.put(superType, superTypes.size());
+        }
+      }
+    }
+    unknown.set(0, superTypes.size());
+    for (final Hints hint : hints.values()) {
+      for (final String superType : hint.superTypes) {
+        hint.superTypeBits.set(superTypes.get(superType));
+      }
+    }
+  }
+
+  public static TypeIndex get() {
+    return Holder.INSTANCE;
+  }
+
+  private static class Holder {
+    static final TypeIndex INSTANCE =
+        Utils.getConfigEnabled("dd.trace.type.index.enabled", true)
+            ? load(Utils.getAgentClassLoader())
+            : new TypeIndex(Collections.<String, Hints>emptyMap());
+  }
+
+  static TypeIndex load(final ClassLoader classLoader) {
+    final Map<String, Hints> hints = new HashMap<>();
+    final InputStream in = classLoader.getResourceAsStream(RESOURCE_NAME);
+    if (in == null) {
+      log.debug("No type index found, type matchers are not filtered");
+      return new TypeIndex(hints);
+    }
+    try (final BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        final String[] entry = line.split(" ");
+        if (entry.length != 3) {
+          continue;
+        }
+        Hints hint = hints.get(entry[0]);
+        if (hint == null) {
+          hint = new Hints();
+          hints.put(entry[0], hint);
+        }
+        hint.add(entry[1], entry[2]);
+      }
+    } catch (final IOException e) {
+      log.debug("Failed to read the type index, type matchers are not filtered", e);
+      hints.clear();
+    }
+    log.debug("Loaded type index for {} instrumentation(s)", hints.size());
+    return new TypeIndex(hints);
+  }
+
+  /**
+   * @return a matcher rejecting the types the type matcher of the instrumentation cannot match, or
+   *     a matcher of all types when the instrumentation is not indexed
+   */
+  public AgentBuilder.RawMatcher filter(final Instrumenter instrumenter) {
+    final Hints hint = hints.get(instrumenter.getClass().getName());
+    return hint == null ? AgentBuilder.RawMatcher.Trivial.MATCHING : new Filter(hint);
+  }
+
+  private final class Filter implements AgentBuilder.RawMatcher {
+    private final Hints hint;
+
+    private Filter(final Hints hint) {
+      this.hint = hint;
+    }
+
+    @Override
+    public boolean matches(
+        final TypeDescription typeDescription,
+        final ClassLoader classLoader,
+        final JavaModule module,
+        final Class<?> classBeingRedefined,
+        final ProtectionDomain protectionDomain) {
+      final String name = typeDescription.getName();
+      if (hint.names.contains(name)) {
+        return true;
+      }
+      for (final String prefix : hint.prefixes) {
+        if (name.startsWith(prefix)) {
+          return true;
+        }
+      }
+      if (hint.superTypeBits.isEmpty()) {
+        return false;
+      }
+      try {
+        return extendedTypes(typeDescription, cache(classLoader)).intersects(hint.superTypeBits);
+      } catch (final Exception e) {
+        log.debug("Type index lookup unexpected exception: " + name, e);
+        return true;
+      }
+    }
+  }
+
+  private Cache<String, BitSet> cache(final ClassLoader classLoader) {
+    final ClassLoader key =
+        BOOTSTRAP_CLASSLOADER == classLoader ? Utils.getBootstrapProxy() : classLoader;
+    Cache<String, BitSet> cache = extendedTypes.get(key);
+    if (null == cache) {
+      synchronized (key) {
+        cache = extendedTypes.get(key);
+        if (null == cache) {
+          cache = CacheBuilder.newBuilder().maximumSize(MAX_CACHED_TYPES).build();
+          extendedTypes.put(key, cache);
+        }
+      }
+    }
+    return cache;
+  }
+
+  /** @return the indexed super types the type extends, or all of them when unknown */
+  private BitSet extendedTypes(final TypeDefinition type, final Cache<String, BitSet> cache) {
+    final String name = type.asErasure().getName();
+    final BitSet cached = cache.getIfPresent(name);
+    if (cached != null) {
+      return cached;
+    }
+    final BitSet extended = new BitSet();
+    final Integer bit = superTypes.get(name);
+    if (bit != null) {
+      extended.set(bit);
+    }
+    final List<TypeDefinition> directSuperTypes = new ArrayList<>();
+    try {
+      final TypeDefinition superClass = type.getSuperClass();
+      if (superClass != null) {
+        directSuperTypes.add(superClass);
+      }
+      for (final TypeDefinition superInterface : type.getInterfaces()) {
+        directSuperTypes.add(superInterface);
+      }
+    } catch (final Exception e) {
+      // A super type is missing: the type matcher will tell
+      return unknown;
+    }
+    for (final TypeDefinition superType : directSuperTypes) {
+      final BitSet superTypeExtended = extendedTypes(superType, cache);
+      if (superTypeExtended == unknown) {
+        return unknown;
+      }
+      extended.or(superTypeExtended);
+    }
+    cache.put(name, extended);
+    return extended;
+  }
+
+  /** Necessary conditions for an instrumentation to match a type: one of them must hold */
+  static final class Hints {
+    /** Hash lookups on each class load */
+    final Set<String> names = new HashSet<>();
+    /** Scanned on each class load */
+    final Set<String> prefixes = new TreeSet<>();
+    final Set<String> superTypes = new HashSet<>();
+    final BitSet superTypeBits = new BitSet();
+
+    void add(final String kind, final String value) {
+      if (NAME.equals(kind)) {
+        names.add(value);
+      } else if (PREFIX.equals(kind)) {
+        prefixes.add(value);
+      } else if (SUPER.equals(kind)) {
+        superTypes.add(value);
+      }
+    }
+
+    private Hints addAll(final Hints other) {
+      names.addAll(other.names);
+      prefixes.addAll(other.prefixes);
+      superTypes.addAll(other.superTypes);
+      return this;
+    }
+
+    private boolean namesOnly() {
+      return prefixes.isEmpty() && superTypes.isEmpty() && !names.isEmpty();
+    }
+  }
+
+  /**
+   * Analyzes a type matcher built from the name, super type and boolean matchers of ByteBuddy and
+   * of {@link ByteBuddyElementMatchers}.
+   *
+   * @return conditions one of which holds for all the matched types, or null when any type may be
+   *     matched
+   */
+  static Hints analyze(final ElementMatcher<?> matcher) {
+    final Class<?> type = matcher.getClass();
+    if (type == ByteBuddyElementMatchers.SafeMatcher.class) {
+      final List<Object> delegates = fields(matcher, ElementMatcher.class);
+      return delegates.size() == 1 ? analyze((ElementMatcher<?>) delegates.get(0)) : null;
+    }
+    if (type == ElementMatcher.Junction.Conjunction.class) {
+      final List<Object> delegates = fields(matcher, ElementMatcher.class);
+      if (delegates.size() != 2) {
+        return null;
+      }
+      final Hints left = analyze((ElementMatcher<?>) delegates.get(0));
+      final Hints right = analyze((ElementMatcher<?>) delegates.get(1));
+      if (left == null || right == null) {
+        return left == null ? right : left;
+      }
+      // Both hold: keep the cheapest to check
+      return left.superTypes.isEmpty() ? left : right;
+    }
+    if (type == ElementMatcher.Junction.Disjunction.class) {
+      final List<Object> delegates = fields(matcher, ElementMatcher.class);
+      if (delegates.size() != 2) {
+        return null;
+      }
+      final Hints left = analyze((ElementMatcher<?>) delegates.get(0));
+      final Hints right = analyze((ElementMatcher<?>) delegates.get(1));
+      return left == null || right == null ? null : left.addAll(right);
+    }
+    if (type == NameMatcher.class) {
+      final List<Object> delegates = fields(matcher, ElementMatcher.class);
+      if (delegates.size() != 1 || delegates.get(0).getClass() != StringMatcher.class) {
+        return null;
+      }
+      final List<Object> values = fields(delegates.get(0), String.class);
+      final List<Object> modes = fields(delegates.get(0), StringMatcher.Mode.class);
+      if (values.size() != 1 || modes.size() != 1) {
+        return null;
+      }
+      final Hints hint = new Hints();
+      if (modes.get(0) == StringMatcher.Mode.EQUALS_FULLY) {
+        hint.add(NAME, (String) values.get(0));
+      } else if (modes.get(0) == StringMatcher.Mode.STARTS_WITH) {
+        hint.add(PREFIX, (String) values.get(0));
+      } else {
+        return null;
+      }
+      return hint;
+    }
+    if (type == ByteBuddyElementMatchers.SafeHasSuperTypeMatcher.class
+        || type == HasSuperTypeMatcher.class) {
+      final List<Object> delegates = fields(matcher, ElementMatcher.class);
+      if (delegates.size() != 1) {
+        return null;
+      }
+      Object superTypeMatcher = delegates.get(0);
+      if (superTypeMatcher.getClass() == ByteBuddyElementMatchers.SafeErasureMatcher.class
+          || superTypeMatcher.getClass() == ErasureMatcher.class) {
+        final List<Object> erased = fields(superTypeMatcher, ElementMatcher.class);
+        if (erased.size() != 1) {
+          return null;
+        }
+        superTypeMatcher = erased.get(0);
+      }
+      final Hints superTypeHint = analyze((ElementMatcher<?>) superTypeMatcher);
+      if (superTypeHint == null || !superTypeHint.namesOnly()) {
+        return null;
+      }
+      final Hints hint = new Hints();
+      hint.superTypes.addAll(superTypeHint.names);
+      return hint;
+    }
+    return null;
+  }
+
+  private static List<Object> fields(final Object instance, final Class<?> fieldType) {
+    final List<Object> values = new ArrayList<>();
+    for (final Field field : instance.getClass().getDeclaredFields()) {
+      if (!Modifier.isStatic(field.getModifiers())
+          && fieldType.isAssignableFrom(field.getType())) {
+        try {
+          field.setAccessible(true);
+          values.add(field.get(instance));
+        } catch (final Exception e) {
+          return Collections.emptyList();
+        }
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Writes the index of the instrumentations on the class path.
+   *
+   * @param args the file to write
+   */
+  public static void main(final String... args) throws IOException {
+    final File file = new File(args[0]);
+    file.getParentFile().mkdirs();
+    int indexed = 0;
+    int skipped = 0;
+    try (final Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8")) {
+      final Iterator<Instrumenter> instrumenters =
+          ServiceLoader.load(Instrumenter.class).iterator();
+      while (instrumenters.hasNext()) {
+        Instrumenter instrumenter = null;
+        Hints hint = null;
+        try {
+          instrumenter = instrumenters.next();
+          if (instrumenter instanceof Instrumenter.Default) {
+            hint = analyze(instrumenter.typeMatcher());
+          }
+        } catch (final Throwable e) {
+          // Not loaded or not analyzed: not indexed
+        }
+        if (hint == null) {
+          skipped++;
+          continue;
+        }
+        final String instrumenterName = instrumenter.getClass().getName();
+        write(out, instrumenterName, NAME, hint.names);
+        write(out, instrumenterName, PREFIX, hint.prefixes);
+        write(out, instrumenterName, SUPER, hint.superTypes);
+        indexed++;
+      }
+    }
+    System.out.println(
+        "Indexed " + indexed + " instrumentation(s), " + skipped + " not indexed: " + file);
+  }
+
+  private static void write(
+      final Writer out, final String instrumenter, final String kind, final Set<String> values)
+      throws IOException {
+    // Sorted: the index is the same across the builds
+    for (final String value : new TreeSet<>(values)) {
+      out.write(instrumenter + " " + kind + " " + value + "\n");
+    }
+  }
+}
@@ -6,6 +6,7 @@ import datadog.trace.bootstrap.DatadogClassLoader;
 import datadog.trace.bootstrap.DatadogClassLoader.BootstrapClassLoaderProxy;
 import java.lang.reflect.Method;
 import java.net.URL;
+import java.util.regex.Pattern;
 import net.bytebuddy.description.method.MethodDescription;
 import net.bytebuddy.description.type.TypeDefinition;
 
@@ -43,6 +44,8 @@ public class Utils {
     "org.yaml.snakeyaml",
   };
 
+  private static final Pattern ENV_NAME_INVALID_CHARS = Pattern.compile("[^a-zA-Z0-9_]");
+
   private static Method findLoadedClassMethod = null;
 
   private static final BootstrapClassLoaderProxy unitTestBootstrapProxy =
@@ -116,11 +119,14 @@ public class Utils {
   }
 
   static boolean getConfigEnabled(final String name, final boolean fallback) {
-    final String property =
-        System.getProperty(
-            name, System.getenv(name.toUpperCase().replaceAll("[^a-zA-Z0-9_]", "_")));
+    final String property = getConfigValue(name);
     return property == null ? fallback : Boolean.parseBoolean(property);
   }
 
+  static String getConfigValue(final String name) {
+    return System.getProperty(
+        name, System.getenv(ENV_NAME_INVALID_CHARS.matcher(name.toUpperCase()).replaceAll("_")));
+  }
+
   private Utils() {}
 }
@@ -96,21 +96,22 @@ public class FieldBackedProvider implements InstrumentationContextProvider {
   }
 
   private final Instrumenter.Default instrumenter;
-  private final ByteBuddy byteBuddy;
+
+  /*
+  The dynamic types are generated the first time a type matching the instrumentation is
+  transformed: most instrumentations never apply.
+   */
 
   /** fields-accessor-interface-name -> fields-accessor-interface-dynamic-type */
-  private final Map<String, DynamicType.Unloaded<?>> fieldAccessorInterfaces;
+  private Map<String, DynamicType.Unloaded<?>> fieldAccessorInterfaces;
 
   /** context-store-type-name -> context-store-type-name-dynamic-type */
-  private final Map<String, DynamicType.Unloaded<?>> contextStoreImplementations;
+  private Map<String, DynamicType.Unloaded<?>> contextStoreImplementations;
 
   private final boolean fieldInjectionEnabled;
 
   public FieldBackedProvider(final Instrumenter.Default instrumenter) {
     this.instrumenter = instrumenter;
-    byteBuddy = new ByteBuddy();
-    fieldAccessorInterfaces = generateFieldAccessorInterfaces();
-    contextStoreImplementations = generateContextStoreImplementationClasses();
     fieldInjectionEnabled = Config.get().isRuntimeContextFieldInjection();
   }
 
@@ -130,38 +131,60 @@ public class FieldBackedProvider implements InstrumentationContextProvider {
       context store implementations. Unfortunately this forces us to remove stored type checking
       because actual classes may not be available at this point.
        */
-      builder = builder.transform(bootstrapHelperInjector(fieldAccessorInterfaces.values()));
+      builder =
+          builder.transform(
+              new BootstrapHelperInjector() {
+                @Override
+                Collection<DynamicType.Unloaded<?>> helpers() {
+                  return fieldAccessorInterfaces().values();
+                }
+              });
 
       /*
        * We inject context store implementation into bootstrap classloader because same implementation
        * may be used by different instrumentations and it has to use same static map in case of
        * fallback to map-backed storage.
        */
-      builder = builder.transform(bootstrapHelperInjector(contextStoreImplementations.values()));
+      builder =
+          builder.transform(
+              new BootstrapHelperInjector() {
+                @Override
+                Collection<DynamicType.Unloaded<?>> helpers() {
+                  return contextStoreImplementations().values();
+                }
+              });
     }
     return builder;
   }
 
-  /** Get transformer that forces helper injection onto bootstrap classloader. */
-  private AgentBuilder.Transformer bootstrapHelperInjector(
-      final Collection<DynamicType.Unloaded<?>> helpers) {
-    return new AgentBuilder.Transformer() {
-      final HelperInjector injector = HelperInjector.forDynamicTypes(helpers);
+  /** Transformer that forces helper injection onto bootstrap classloader. */
+  private abstract static class BootstrapHelperInjector implements AgentBuilder.Transformer {
+    private HelperInjector injector;
 
-      @Override
-      public DynamicType.Builder<?> transform(
-          final DynamicType.Builder<?> builder,
-          final TypeDescription typeDescription,
-          final ClassLoader classLoader,
-          final JavaModule module) {
-        return injector.transform(
-            builder,
-            typeDescription,
-            // context store implementation classes will always go to the bootstrap
-            BOOTSTRAP_CLASSLOADER,
-            module);
+    /** @return the helpers to inject, generated on first use */
+    abstract Collection<DynamicType.Unloaded<?>> helpers();
+
+    @Override
+    public DynamicType.Builder<?> transform(
+        final DynamicType.Builder<?> builder,
+        final TypeDescription typeDescription,
+        final ClassLoader classLoader,
+        final JavaModule module) {
+      return injector()
+          .transform(
+              builder,
+              typeDescription,
+              // context store implementation classes will always go to the bootstrap
+              BOOTSTRAP_CLASSLOADER,
+              module);
+    }
+
+    private synchronized HelperInjector injector() {
+      if (injector == null) {
+        injector = HelperInjector.forDynamicTypes(helpers());
       }
-    };
+      return injector;
+    }
   }
 
   private AsmVisitorWrapper getContextStoreReadsRewritingVisitor() {
@@ -496,7 +519,7 @@ public class FieldBackedProvider implements InstrumentationContextProvider {
   private TypeDescription getContextStoreImplementation(
       final String keyClassName, final String contextClassName) {
     final DynamicType.Unloaded<?> type =
-        contextStoreImplementations.get(
+        contextStoreImplementations().get(
             getContextStoreImplementationClassName(keyClassName, contextClassName));
     if (type == null) {
       return null;
@@ -505,12 +528,20 @@ public class FieldBackedProvider implements InstrumentationContextProvider {
     }
   }
 
+  private synchronized Map<String, DynamicType.Unloaded<?>> contextStoreImplementations() {
+    if (contextStoreImplementations == null) {
+      contextStoreImplementations = generateContextStoreImplementationClasses();
+    }
+    return contextStoreImplementations;
+  }
+
   private Map<String, DynamicType.Unloaded<?>> generateContextStoreImplementationClasses() {
+    final ByteBuddy byteBuddy = new ByteBuddy();
     final Map<String, DynamicType.Unloaded<?>> contextStoreImplementations =
         new HashMap<>(instrumenter.contextStore().size());
     for (final Map.Entry<String, String> entry : instrumenter.contextStore().entrySet()) {
       final DynamicType.Unloaded<?> type =
-          makeContextStoreImplementationClass(entry.getKey(), entry.getValue());
+          makeContextStoreImplementationClass(byteBuddy, entry.getKey(), entry.getValue());
       contextStoreImplementations.put(type.getTypeDescription().getName(), type);
     }
     return Collections.unmodifiableMap(contextStoreImplementations);
@@ -520,12 +551,13 @@ public class FieldBackedProvider implements InstrumentationContextProvider {
    * Generate an 'implementation' of a context store classfor given key class name and context class
    * name
    *
+   * @param byteBuddy byte buddy instance to generate the class with
    * @param keyClassName key class name
    * @param contextClassName context class name
    * @return unloaded dynamic type containing generated class
    */
   private DynamicType.Unloaded<?> makeContextStoreImplementationClass(
-      final String keyClassName, final String contextClassName) {
+      final ByteBuddy byteBuddy, final String keyClassName, final String contextClassName) {
     return byteBuddy
         .rebase(ContextStoreImplementationTemplate.class)
         .modifiers(Visibility.PUBLIC, TypeManifestation.FINAL)
@@ -852,7 +884,7 @@ public class FieldBackedProvider implements InstrumentationContextProvider {
   private TypeDescription getFieldAccessorInterface(
       final String keyClassName, final String contextClassName) {
     final DynamicType.Unloaded<?> type =
-        fieldAccessorInterfaces.get(
+        fieldAccessorInterfaces().get(
             getContextAccessorInterfaceName(keyClassName, contextClassName));
     if (type == null) {
       return null;
@@ -861,12 +893,20 @@ public class FieldBackedProvider implements InstrumentationContextProvider {
     }
   }
 
+  private synchronized Map<String, DynamicType.Unloaded<?>> fieldAccessorInterfaces() {
+    if (fieldAccessorInterfaces == null) {
+      fieldAccessorInterfaces = generateFieldAccessorInterfaces();
+    }
+    return fieldAccessorInterfaces;
+  }
+
   private Map<String, DynamicType.Unloaded<?>> generateFieldAccessorInterfaces() {
+    final ByteBuddy byteBuddy = new ByteBuddy();
     final Map<String, DynamicType.Unloaded<?>> fieldAccessorInterfaces =
         new HashMap<>(instrumenter.contextStore().size());
     for (final Map.Entry<String, String> entry : instrumenter.contextStore().entrySet()) {
       final DynamicType.Unloaded<?> type =
-          makeFieldAccessorInterface(entry.getKey(), entry.getValue());
+          makeFieldAccessorInterface(byteBuddy, entry.getKey(), entry.getValue());
       fieldAccessorInterfaces.put(type.getTypeDescription().getName(), type);
     }
     return Collections.unmodifiableMap(fieldAccessorInterfaces);
@@ -876,12 +916,13 @@ public class FieldBackedProvider implements InstrumentationContextProvider {
    * Generate an interface that provides field accessor methods for given key class name and context
    * class name
    *
+   * @param byteBuddy byte buddy instance to generate the interface with
    * @param keyClassName key class name
    * @param contextClassName context class name
    * @return unloaded dynamic type containing generated interface
    */
   private DynamicType.Unloaded<?> makeFieldAccessorInterface(
-      final String keyClassName, final String contextClassName) {
+      final ByteBuddy byteBuddy, final String keyClassName, final String contextClassName) {
     // We are using Object class name instead of contextClassName here because this gets injected
     // onto Bootstrap classloader where context class may be unavailable
     final TypeDescription contextType = new TypeDescription.ForLoadedType(Object.class);
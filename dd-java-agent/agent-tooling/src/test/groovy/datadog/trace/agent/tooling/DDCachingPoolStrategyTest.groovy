@@ -0,0 +1,84 @@
+package datadog.trace.agent.tooling
+
+import datadog.trace.agent.test.HelperClass
+import datadog.trace.agent.test.PoolStrategyWeakReferenceTest
+import net.bytebuddy.dynamic.ClassFileLocator
+import spock.lang.Specification
+import spock.lang.Timeout
+
+import java.util.concurrent.TimeUnit
+
+class DDCachingPoolStrategyTest extends Specification {
+
+  def "type defined by a parent class loader shared by its children"() {
+    setup:
+    def strategy = new DDCachingPoolStrategy()
+    def parent = HelperClass.classLoader
+    def child1 = new URLClassLoader(new URL[0], parent)
+    def child2 = new URLClassLoader(new URL[0], parent)
+
+    when:
+    def type1 = describe(strategy, child1, HelperClass.name)
+
+    then:
+    type1.name == HelperClass.name
+    strategy.missCount == 1
+
+    when:
+    def type2 = describe(strategy, child2, HelperClass.name)
+    def type3 = describe(strategy, parent, HelperClass.name)
+
+    then:
+    type2.name == HelperClass.name
+    type3.name == HelperClass.name
+    strategy.missCount == 1
+    strategy.parentHitCount > 0
+  }
+
+  def "type missing for a parent class loader found by its child"() {
+    setup:
+    def strategy = new DDCachingPoolStrategy()
+    def parent = new URLClassLoader(new URL[0], (ClassLoader) null)
+    def child = new URLClassLoader([HelperClass.protectionDomain.codeSource.location] as URL[], parent)
+
+    expect:
+    !strategy.typePool(ClassFileLocator.ForClassLoader.of(parent), parent).describe(HelperClass.name).isResolved()
+    describe(strategy, child, HelperClass.name).name == HelperClass.name
+  }
+
+  def "type defined by the bootstrap class loader shared by all class loaders"() {
+    setup:
+    def strategy = new DDCachingPoolStrategy()
+
+    when:
+    describe(strategy, HelperClass.classLoader, Runnable.name)
+    describe(strategy, new URLClassLoader(new URL[0], (ClassLoader) null), Runnable.name)
+
+    then:
+    strategy.missCount == 1
+    strategy.parentHitCount > 0
+  }
+
+  @Timeout(value = 60, unit = TimeUnit.SECONDS)
+  def "class loader collected after its types were cached (types defined by parent: #typesDefinedByParent)"() {
+    setup:
+    def strategy = new DDCachingPoolStrategy()
+
+    expect:
+    PoolStrategyWeakReferenceTest.classLoaderRefIsGarbageCollected(strategy, typesDefinedByParent)
+    strategy.missCount > 0
+
+    where:
+    typesDefinedByParent << [true, false]
+  }
+
+  def describe(DDCachingPoolStrategy strategy, ClassLoader classLoader, String name) {
+    def resolution = strategy.typePool(ClassFileLocator.ForClassLoader.of(classLoader), classLoader).describe(name)
+    assert resolution.isResolved()
+    return resolution.resolve().with {
+      // Parses the class file
+      it.getSuperClass()
+      it
+    }
+  }
+}
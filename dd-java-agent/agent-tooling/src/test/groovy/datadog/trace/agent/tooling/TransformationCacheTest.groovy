@@ -0,0 +1,186 @@
+package datadog.trace.agent.tooling
+
+import datadog.trace.agent.test.HelperClass
+import net.bytebuddy.agent.builder.AgentBuilder
+import net.bytebuddy.description.type.TypeDescription
+import net.bytebuddy.matcher.ElementMatcher
+import spock.lang.Specification
+
+import java.util.jar.Attributes
+import java.util.jar.JarOutputStream
+import java.util.jar.Manifest
+
+import static net.bytebuddy.matcher.ElementMatchers.none
+
+class TransformationCacheTest extends Specification {
+  static final byte[] CONTEXT = (0..15) as byte[]
+  static final byte[] OTHER_CONTEXT = (1..16) as byte[]
+  static final int SLOTS = 1024
+
+  def directory = File.createTempDir("transformation-cache-", "")
+  def jar = new File(directory, "app.jar")
+  def matched = 0
+
+  def setup() {
+    jar.bytes = [1, 2, 3] as byte[]
+  }
+
+  def cleanup() {
+    directory.deleteDir()
+  }
+
+  def "type left unchanged ignored by the next runs"() {
+    setup:
+    def cache = TransformationCache.open(directory, CONTEXT, SLOTS)
+
+    when:
+    def result = transform(cache, appClassLoader(), false)
+
+    then:
+    result == null
+    matched == 1
+    cache.missCount == 1
+    cache.recordCount == 1
+
+    when:
+    def restarted = TransformationCache.open(directory, CONTEXT, SLOTS)
+    result = transform(restarted, appClassLoader(), false)
+
+    then:
+    result == null
+    matched == 1
+    restarted.hitCount == 1
+    restarted.file == cache.file
+  }
+
+  def "type transformed not recorded"() {
+    setup:
+    def cache = TransformationCache.open(directory, CONTEXT, SLOTS)
+
+    when:
+    transform(cache, appClassLoader(), true)
+    transform(cache, appClassLoader(), true)
+
+    then:
+    matched == 2
+    cache.hitCount == 0
+    cache.recordCount == 0
+  }
+
+  def "type not ignored after a change of #change"() {
+    setup:
+    transform(TransformationCache.open(directory, CONTEXT, SLOTS), appClassLoader(), false)
+    if (change == "class path") {
+      jar.bytes = [1, 2, 3, 4] as byte[]
+    }
+    def cache = TransformationCache.open(directory, change == "context" ? OTHER_CONTEXT : CONTEXT, SLOTS)
+
+    when:
+    transform(cache, appClassLoader(), false)
+
+    then:
+    matched == 2
+    cache.hitCount == 0
+    cache.recordCount == 1
+
+    where:
+    change << ["context", "class path"]
+  }
+
+  def "type not ignored after a change of a jar listed in the manifest class path"() {
+    setup:
+    def library = new File(directory, "lib/library.jar")
+    library.parentFile.mkdirs()
+    library.bytes = [1, 2, 3] as byte[]
+    def manifest = new Manifest()
+    manifest.mainAttributes.put(Attributes.Name.MANIFEST_VERSION, "1.0")
+    manifest.mainAttributes.put(Attributes.Name.CLASS_PATH, "lib/library.jar")
+    new JarOutputStream(new FileOutputStream(jar), manifest).close()
+    transform(TransformationCache.open(directory, CONTEXT, SLOTS), appClassLoader(), false)
+    library.bytes = [1, 2, 3, 4] as byte[]
+    def cache = TransformationCache.open(directory, CONTEXT, SLOTS)
+
+    when:
+    transform(cache, appClassLoader(), false)
+
+    then:
+    matched == 2
+    cache.hitCount == 0
+    cache.recordCount == 1
+  }
+
+  def "type of a class loader with a directory in the manifest class path not recorded"() {
+    setup:
+    def manifest = new Manifest()
+    manifest.mainAttributes.put(Attributes.Name.MANIFEST_VERSION, "1.0")
+    manifest.mainAttributes.put(Attributes.Name.CLASS_PATH, "classes/")
+    new File(directory, "classes").mkdirs()
+    new JarOutputStream(new FileOutputStream(jar), manifest).close()
+    def cache = TransformationCache.open(directory, CONTEXT, SLOTS)
+
+    when:
+    transform(cache, appClassLoader(), false)
+
+    then:
+    matched == 1
+    cache.missCount == 0
+    cache.recordCount == 0
+  }
+
+  def "type of a class loader with an unknown class path not recorded"() {
+    setup:
+    def cache = TransformationCache.open(directory, CONTEXT, SLOTS)
+
+    when:
+    transform(cache, classLoader, false)
+
+    then:
+    matched == 1
+    cache.missCount == 0
+    cache.recordCount == 0
+
+    where:
+    classLoader << [
+      new URLClassLoader([new File(System.getProperty("java.io.tmpdir")).toURI().toURL()] as URL[], (ClassLoader) null),
+      new URLClassLoader([new URL("http://localhost/app.jar")] as URL[], (ClassLoader) null),
+      new CustomClassLoader()
+    ]
+  }
+
+  def "invalid cache file replaced"() {
+    setup:
+    def file = TransformationCache.open(directory, CONTEXT, SLOTS).file
+    file.bytes = new byte[100]
+
+    when:
+    def cache = TransformationCache.open(directory, CONTEXT, SLOTS)
+    transform(cache, appClassLoader(), false)
+
+    then:
+    cache.file == file
+    cache.recordCount == 1
+  }
+
+  def appClassLoader() {
+    return new URLClassLoader([jar.toURI().toURL()] as URL[], (ClassLoader) null)
+  }
+
+  def transform(TransformationCache cache, ClassLoader classLoader, boolean match) {
+    def matcher = { TypeDescription type ->
+      matched++
+      return match
+    } as ElementMatcher
+    def transformer = cache.installOn(new AgentBuilder.Default().ignore(none()))
+      .type(matcher)
+      .transform({ builder, type, loader, module -> builder } as AgentBuilder.Transformer)
+      .makeRaw()
+    def classFile = HelperClass.getResourceAsStream("HelperClass.class").bytes
+    return transformer.transform(classLoader, HelperClass.name.replace('.', '/'), null, null, classFile)
+  }
+
+  static class CustomClassLoader extends URLClassLoader {
+    CustomClassLoader() {
+      super(new URL[0], (ClassLoader) null)
+    }
+  }
+}
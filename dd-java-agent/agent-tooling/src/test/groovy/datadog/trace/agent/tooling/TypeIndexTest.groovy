@@ -0,0 +1,74 @@
+package datadog.trace.agent.tooling
+
+import net.bytebuddy.agent.builder.AgentBuilder
+import net.bytebuddy.description.type.TypeDescription
+import net.bytebuddy.matcher.ElementMatcher
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.Executor
+import java.util.concurrent.ThreadPoolExecutor
+
+import static datadog.trace.agent.tooling.ByteBuddyElementMatchers.failSafe
+import static datadog.trace.agent.tooling.ByteBuddyElementMatchers.safeHasSuperType
+import static net.bytebuddy.matcher.ElementMatchers.isInterface
+import static net.bytebuddy.matcher.ElementMatchers.nameEndsWith
+import static net.bytebuddy.matcher.ElementMatchers.nameStartsWith
+import static net.bytebuddy.matcher.ElementMatchers.named
+import static net.bytebuddy.matcher.ElementMatchers.not
+
+class TypeIndexTest extends Specification {
+
+  def "type matcher #matcher analyzed"() {
+    when:
+    def hints = TypeIndex.analyze(failSafe(matcher, "test"))
+
+    then:
+    hints?.names == names as Set
+    hints?.prefixes == prefixes as Set
+    hints?.superTypes == superTypes as Set
+
+    where:
+    matcher                                                           | names          | prefixes | superTypes
+    named("a.A")                                                      | ["a.A"]        | []       | []
+    named("a.A").or(named("a.B"))                                     | ["a.A", "a.B"] | []       | []
+    nameStartsWith("a.")                                              | []             | ["a."]   | []
+    not(isInterface()).and(safeHasSuperType(named("a.A")))            | []             | []       | ["a.A"]
+    safeHasSuperType(named("a.A").or(named("a.B"))).and(named("b.C")) | ["b.C"]        | []       | []
+    named("a.A").or(safeHasSuperType(named("a.B")))                   | ["a.A"]        | []       | ["a.B"]
+    named("a.A").or(not(isInterface()))                               | null           | null     | null
+    safeHasSuperType(nameEndsWith("A"))                               | null           | null     | null
+    not(isInterface()).and({ true } as ElementMatcher)                | null           | null     | null
+  }
+
+  def "indexed instrumentation filters types"() {
+    setup:
+    def instrumenter = Stub(Instrumenter)
+    def hints = new TypeIndex.Hints()
+    hints.add("name", Callable.name)
+    hints.add("prefix", "java.util.concurrent.locks.")
+    hints.add("super", Executor.name)
+    def filter = new TypeIndex([(instrumenter.class.name): hints]).filter(instrumenter)
+
+    expect:
+    filter.matches(new TypeDescription.ForLoadedType(type), type.classLoader, null, null, null) == matches
+
+    where:
+    type                                           | matches
+    Callable                                       | true
+    java.util.concurrent.locks.ReentrantLock       | true
+    Executor                                       | true
+    ThreadPoolExecutor                             | true
+    Runnable                                       | false
+    String                                         | false
+    ArrayList                                      | false
+  }
+
+  def "instrumentation not indexed is not filtered"() {
+    setup:
+    def instrumenter = Stub(Instrumenter)
+
+    expect:
+    new TypeIndex([:]).filter(instrumenter) == AgentBuilder.RawMatcher.Trivial.MATCHING
+  }
+}
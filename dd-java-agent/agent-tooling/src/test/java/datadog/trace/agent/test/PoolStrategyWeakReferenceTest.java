@@ -0,0 +1,33 @@
+package datadog.trace.agent.test;
+
+import datadog.trace.agent.tooling.DDCachingPoolStrategy;
+import datadog.trace.agent.tooling.DDLocationStrategy;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.pool.TypePool;
+
+public class PoolStrategyWeakReferenceTest {
+  /*
+   * Spock holds strong references to all local variables. For weak reference testing we must create our strong references away from Spock in this java class.
+   */
+  public static boolean classLoaderRefIsGarbageCollected(
+      final DDCachingPoolStrategy strategy, final boolean typesDefinedByParent) {
+    ClassLoader loader =
+        new URLClassLoader(
+            new URL[] {HelperClass.class.getProtectionDomain().getCodeSource().getLocation()},
+            typesDefinedByParent ? HelperClass.class.getClassLoader() : null);
+    final WeakReference<ClassLoader> clRef = new WeakReference<>(loader);
+    TypePool pool = strategy.typePool(new DDLocationStrategy().classFileLocator(loader), loader);
+    for (final String name : new String[] {HelperClass.class.getName(), Runnable.class.getName()}) {
+      final TypeDescription type = pool.describe(name).resolve();
+      type.getSuperClass();
+      type.getInterfaces();
+    }
+    pool = null;
+    loader = null;
+    TestUtils.awaitGC(clRef);
+    return clRef.get() == null;
+  }
+}
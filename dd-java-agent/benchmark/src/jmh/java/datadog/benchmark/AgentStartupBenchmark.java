@@ -0,0 +1,106 @@
+package datadog.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Timeout;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Starts a JVM running an empty main, with and without the agent: the difference is the time spent
+ * in the agent premain. With the async startup, the tracer and JMXFetch start in the background and
+ * only the transformer installation is left in premain. The heap used by the JVM after a full GC is
+ * reported at the end of the trial.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Timeout(time = 1, timeUnit = TimeUnit.MINUTES)
+public class AgentStartupBenchmark {
+  private static final String AGENT_JAR = "../build/libs/dd-java-agent.jar";
+  private static final String HEAP_USED = "heap.used=";
+
+  @State(Scope.Benchmark)
+  public static class HeapState {
+    long heapUsed;
+    int runs;
+
+    @TearDown(Level.Trial)
+    public void report() {
+      if (runs > 0) {
+        System.out.println();
+        System.out.println("Average heap used: " + heapUsed / runs / 1024 + " KB");
+      }
+    }
+  }
+
+  @Benchmark
+  public int startWithoutAgent(final HeapState state) throws Exception {
+    return start(state, new ArrayList<String>());
+  }
+
+  @Benchmark
+  public int startWithAgent(final HeapState state) throws Exception {
+    return start(state, agentJvmArgs());
+  }
+
+  @Benchmark
+  public int startWithAgentAndAsyncStartup(final HeapState state) throws Exception {
+    final List<String> jvmArgs = agentJvmArgs();
+    jvmArgs.add("-Ddd.trace.startup.async=true");
+    return start(state, jvmArgs);
+  }
+
+  private static List<String> agentJvmArgs() {
+    final List<String> jvmArgs = new ArrayList<>();
+    jvmArgs.add("-javaagent:" + new File(AGENT_JAR).getAbsolutePath());
+    jvmArgs.add("-Ddd.writer.type=LoggingWriter");
+    return jvmArgs;
+  }
+
+  private static int start(final HeapState state, final List<String> jvmArgs)
+      throws IOException, InterruptedException {
+    final List<String> command = new ArrayList<>();
+    command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+    command.addAll(jvmArgs);
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(Main.class.getName());
+
+    final Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+    try (BufferedReader reader =
+        new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith(HEAP_USED)) {
+          state.heapUsed += Long.parseLong(line.substring(HEAP_USED.length()));
+          state.runs++;
+        }
+      }
+    }
+    return process.waitFor();
+  }
+
+  public static class Main {
+    public static void main(final String[] args) {
+      System.gc();
+      System.out.println(
+          HEAP_USED + ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+    }
+  }
+}
@@ -0,0 +1,207 @@
+package datadog.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Timeout;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loads a synthetic application of 20k classes from a jar in a new class loader, as an application
+ * does at startup: class hierarchies a few levels deep, a few common interfaces and a handful of
+ * classes the instrumentations target. Compare the runs without the agent, with the agent, with the
+ * agent without its type index and with the agent and its transformation cache: cold, loading from
+ * a new jar each time, or warm, loading from the jar cached by the previous iterations and runs.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Timeout(time = 1, timeUnit = TimeUnit.MINUTES)
+public class AppStartupBenchmark {
+  public static final int CLASSES = 20000;
+  private static final int HIERARCHY_DEPTH = 5;
+  private static final String PACKAGE = "synthetic.app.";
+  private static final String SERVICE = PACKAGE + "Service";
+
+  @State(Scope.Benchmark)
+  public static class AppState {
+    /** Load each time from a new copy of the jar, a class path the agent has never seen */
+    final boolean copyJar = Boolean.getBoolean("benchmark.app.jar.copy");
+    final List<String> loadOrder = new ArrayList<>();
+    File jar;
+    File jarCopy;
+    URLClassLoader classLoader;
+
+    @Setup(Level.Trial)
+    public void generateClasses() throws IOException {
+      jar = File.createTempFile("synthetic-app-", ".jar");
+      try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+        addClassFile(out, SERVICE, classFile(SERVICE, "java.lang.Object", true, new String[0]));
+        for (int i = 0; i < CLASSES; i++) {
+          final String name = className(i);
+          final String superName = i % HIERARCHY_DEPTH == 0 ? "java.lang.Object" : className(i - 1);
+          final List<String> interfaces = new ArrayList<>();
+          if (i % 3 == 0) {
+            interfaces.add("java.io.Serializable");
+          }
+          if (i % 7 == 0) {
+            interfaces.add("java.lang.Comparable");
+          }
+          if (i % 11 == 0) {
+            interfaces.add(SERVICE);
+          }
+          if (i % 1000 == 0) {
+            interfaces.add("java.lang.Runnable");
+          }
+          addClassFile(
+              out, name, classFile(name, superName, false, interfaces.toArray(new String[0])));
+          loadOrder.add(name);
+        }
+      }
+      // Subclasses are often loaded before their super classes
+      Collections.shuffle(loadOrder, new Random(0));
+    }
+
+    @Setup(Level.Invocation)
+    public void createClassLoader() throws IOException {
+      File classPath = jar;
+      if (copyJar) {
+        jarCopy = File.createTempFile("synthetic-app-", ".jar");
+        Files.copy(jar.toPath(), jarCopy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        classPath = jarCopy;
+      }
+      // No parent but the bootstrap class loader: the synthetic classes only extend JDK types
+      classLoader = new URLClassLoader(new URL[] {classPath.toURI().toURL()}, null);
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeClassLoader() throws IOException {
+      classLoader.close();
+      if (jarCopy != null) {
+        jarCopy.delete();
+        jarCopy = null;
+      }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteJar() {
+      jar.delete();
+    }
+  }
+
+  @Benchmark
+  public int loadClasses(final AppState state) throws ClassNotFoundException {
+    int loaded = 0;
+    for (final String name : state.loadOrder) {
+      if (Class.forName(name, false, state.classLoader) != null) {
+        loaded++;
+      }
+    }
+    return loaded;
+  }
+
+  private static String className(final int i) {
+    return PACKAGE + "p" + (i / 200) + ".C" + i;
+  }
+
+  /** A class file with no members: the class and its super types are all that is matched */
+  private static byte[] classFile(
+      final String name,
+      final String superName,
+      final boolean isInterface,
+      final String[] interfaces)
+      throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(0xCAFEBABE);
+    out.writeShort(0); // minor version
+    out.writeShort(50); // Java 6, no stack map frames
+    // The constant pool: a Utf8 and a Class entry per type
+    out.writeShort(1 + 2 * (2 + interfaces.length));
+    int index = 1;
+    for (final String type : concat(name, superName, interfaces)) {
+      out.writeByte(1); // CONSTANT_Utf8
+      out.writeUTF(type.replace('.', '/'));
+      out.writeByte(7); // CONSTANT_Class
+      out.writeShort(index);
+      index += 2;
+    }
+    out.writeShort(isInterface ? 0x0601 : 0x0021); // public abstract interface, public super
+    out.writeShort(2); // this class
+    out.writeShort(4); // super class
+    out.writeShort(interfaces.length);
+    for (int i = 0; i < interfaces.length; i++) {
+      out.writeShort(6 + 2 * i);
+    }
+    out.writeShort(0); // fields
+    out.writeShort(0); // methods
+    out.writeShort(0); // attributes
+    return bytes.toByteArray();
+  }
+
+  private static List<String> concat(
+      final String name, final String superName, final String[] interfaces) {
+    final List<String> types = new ArrayList<>();
+    types.add(name);
+    types.add(superName);
+    Collections.addAll(types, interfaces);
+    return types;
+  }
+
+  private static void addClassFile(
+      final JarOutputStream out, final String name, final byte[] classFile) throws IOException {
+    out.putNextEntry(new JarEntry(name.replace('.', '/') + ".class"));
+    out.write(classFile);
+    out.closeEntry();
+  }
+
+  @Fork(jvmArgsAppend = "-javaagent:../build/libs/dd-java-agent.jar")
+  public static class WithAgent extends AppStartupBenchmark {}
+
+  @Fork(
+      jvmArgsAppend = {
+        "-javaagent:../build/libs/dd-java-agent.jar",
+        "-Ddd.trace.type.index.enabled=false"
+      })
+  public static class WithAgentWithoutTypeIndex extends AppStartupBenchmark {}
+
+  @Fork(
+      jvmArgsAppend = {
+        "-javaagent:../build/libs/dd-java-agent.jar",
+        "-Ddd.trace.transformation.cache.dir=build/tmp/transformation-cache-cold",
+        "-Dbenchmark.app.jar.copy=true"
+      })
+  public static class WithAgentAndColdTransformationCache extends AppStartupBenchmark {}
+
+  @Fork(
+      jvmArgsAppend = {
+        "-javaagent:../build/libs/dd-java-agent.jar",
+        "-Ddd.trace.transformation.cache.dir=build/tmp/transformation-cache-warm"
+      })
+  public static class WithAgentAndWarmTransformationCache extends AppStartupBenchmark {}
+}
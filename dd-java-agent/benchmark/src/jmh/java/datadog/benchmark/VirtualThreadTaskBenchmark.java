@@ -0,0 +1,107 @@
+package datadog.benchmark;
+
+import datadog.trace.api.Trace;
+import datadog.trace.context.TraceScope;
+import io.opentracing.util.GlobalTracer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Timeout;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Runs a million traced tasks on virtual threads, each forked from a traced parent propagating its
+ * scope. Needs a JVM with virtual threads (21 or later).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Timeout(time = 5, timeUnit = TimeUnit.MINUTES)
+public class VirtualThreadTaskBenchmark {
+  public static final int TASKS = 1000000;
+
+  @State(Scope.Benchmark)
+  public static class ExecutorState {
+    private ExecutorService executor;
+
+    @Setup
+    public void createExecutor() throws Exception {
+      // Looked up at run time: the benchmarks are compiled for older JVMs
+      executor =
+          (ExecutorService)
+              Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    }
+
+    @TearDown
+    public void shutdownExecutor() {
+      executor.shutdown();
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(TASKS)
+  public void runTasks(final ExecutorState state) throws InterruptedException {
+    new Parent(state.executor).run();
+  }
+
+  static class Parent {
+    private final ExecutorService executor;
+
+    Parent(final ExecutorService executor) {
+      this.executor = executor;
+    }
+
+    @Trace(operationName = "parent")
+    void run() throws InterruptedException {
+      final io.opentracing.Scope scope = GlobalTracer.get().scopeManager().active();
+      if (scope instanceof TraceScope) {
+        ((TraceScope) scope).setAsyncPropagation(true);
+      }
+      final CountDownLatch done = new CountDownLatch(TASKS);
+      for (int i = 0; i < TASKS; i++) {
+        // Tasks are never reused: a task holds a single continuation
+        executor.execute(new Task(done));
+      }
+      done.await();
+    }
+  }
+
+  static class Task implements Runnable {
+    private final CountDownLatch done;
+
+    Task(final CountDownLatch done) {
+      this.done = done;
+    }
+
+    @Override
+    public void run() {
+      work();
+      done.countDown();
+    }
+
+    @Trace(operationName = "task")
+    void work() {}
+  }
+
+  @Fork(
+      jvmArgsAppend = {
+        "-javaagent:../build/libs/dd-java-agent.jar",
+        "-Ddd.trace.partial.flush.min.spans=1000",
+        // Byte Buddy 1.9 does not read the Java 21 class files otherwise
+        "-Dnet.bytebuddy.experimental=true"
+      })
+  public static class WithAgent extends VirtualThreadTaskBenchmark {}
+}
@@ -0,0 +1,138 @@
+import datadog.opentracing.DDSpan
+import datadog.opentracing.scopemanager.ContinuableScope
+import datadog.trace.agent.test.AgentTestRunner
+import datadog.trace.api.Trace
+import io.opentracing.util.GlobalTracer
+import spock.lang.Requires
+import spock.lang.Shared
+
+import java.lang.reflect.Method
+import java.util.concurrent.Callable
+import java.util.concurrent.Executor
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+// The Java 21 APIs are called dynamically: the tests are compiled for older JVMs
+@Requires({ Executors.methods.any { it.name == "newVirtualThreadPerTaskExecutor" } })
+class VirtualThreadInstrumentationTest extends AgentTestRunner {
+  @Shared
+  Method executeMethod
+  @Shared
+  Method submitRunnableMethod
+  @Shared
+  Method submitCallableMethod
+
+  def setupSpec() {
+    executeMethod = Executor.getMethod("execute", Runnable)
+    submitRunnableMethod = ExecutorService.getMethod("submit", Runnable)
+    submitCallableMethod = ExecutorService.getMethod("submit", Callable)
+  }
+
+  def "virtual thread executor #method propagates"() {
+    setup:
+    ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()
+    def m = method
+
+    new Runnable() {
+      @Override
+      @Trace(operationName = "parent")
+      void run() {
+        ((ContinuableScope) GlobalTracer.get().scopeManager().active()).setAsyncPropagation(true)
+        // this child will have a span
+        m.invoke(pool, new AsyncChild())
+        // this child won't
+        m.invoke(pool, new AsyncChild(false, false))
+      }
+    }.run()
+
+    TEST_WRITER.waitForTraces(1)
+    List<DDSpan> trace = TEST_WRITER.get(0)
+
+    expect:
+    TEST_WRITER.size() == 1
+    trace.size() == 2
+    trace.get(0).operationName == "parent"
+    trace.get(1).operationName == "asyncChild"
+    trace.get(1).parentId == trace.get(0).spanId
+
+    cleanup:
+    pool?.shutdown()
+
+    where:
+    method << [submitRunnableMethod, submitCallableMethod, executeMethod]
+  }
+
+  def "#scopeClass fork propagates"() {
+    setup:
+    def scope = Class.forName(scopeClass).newInstance()
+    // fork(Callable) is the only one in Java 21, AsyncChild is also a Runnable
+    def fork = Class.forName("java.util.concurrent.StructuredTaskScope").getMethod("fork", Callable)
+
+    new Runnable() {
+      @Override
+      @Trace(operationName = "parent")
+      void run() {
+        ((ContinuableScope) GlobalTracer.get().scopeManager().active()).setAsyncPropagation(true)
+        // this child will have a span
+        fork.invoke(scope, new AsyncChild())
+        // this child won't
+        fork.invoke(scope, new AsyncChild(false, false))
+        scope.join()
+      }
+    }.run()
+
+    TEST_WRITER.waitForTraces(1)
+    List<DDSpan> trace = TEST_WRITER.get(0)
+
+    expect:
+    TEST_WRITER.size() == 1
+    trace.size() == 2
+    trace.get(0).operationName == "parent"
+    trace.get(1).operationName == "asyncChild"
+    trace.get(1).parentId == trace.get(0).spanId
+
+    cleanup:
+    scope?.close()
+
+    where:
+    scopeClass << [
+      "java.util.concurrent.StructuredTaskScope",
+      "java.util.concurrent.StructuredTaskScope\$ShutdownOnFailure"
+    ]
+  }
+
+  def "#scopeClass fork after shutdown does not keep the trace open"() {
+    setup:
+    def scope = Class.forName(scopeClass).newInstance()
+    def fork = Class.forName("java.util.concurrent.StructuredTaskScope").getMethod("fork", Callable)
+
+    new Runnable() {
+      @Override
+      @Trace(operationName = "parent")
+      void run() {
+        ((ContinuableScope) GlobalTracer.get().scopeManager().active()).setAsyncPropagation(true)
+        scope.shutdown()
+        // this child never runs
+        fork.invoke(scope, new AsyncChild())
+        scope.join()
+      }
+    }.run()
+
+    TEST_WRITER.waitForTraces(1)
+    List<DDSpan> trace = TEST_WRITER.get(0)
+
+    expect:
+    TEST_WRITER.size() == 1
+    trace.size() == 1
+    trace.get(0).operationName == "parent"
+
+    cleanup:
+    scope?.close()
+
+    where:
+    scopeClass << [
+      "java.util.concurrent.StructuredTaskScope",
+      "java.util.concurrent.StructuredTaskScope\$ShutdownOnFailure"
+    ]
+  }
+}
@@ -58,6 +58,7 @@ public final class ExecutorInstrumentation extends Instrumenter.Default {
       "java.util.concurrent.ForkJoinPool",
       "java.util.concurrent.Executors$FinalizableDelegatedExecutorService",
       "java.util.concurrent.Executors$DelegatedExecutorService",
+      "java.util.concurrent.ThreadPerTaskExecutor",
       "javax.management.NotificationBroadcasterSupport$1",
       "scala.concurrent.Future$InternalCallbackExecutor$",
       "scala.concurrent.impl.ExecutionContextImpl",
@@ -0,0 +1,173 @@
+package datadog.trace.instrumentation.java.concurrent;
+
+import static net.bytebuddy.matcher.ElementMatchers.named;
+import static net.bytebuddy.matcher.ElementMatchers.takesArgument;
+
+import com.google.auto.service.AutoService;
+import datadog.trace.agent.tooling.Instrumenter;
+import datadog.trace.bootstrap.ContextStore;
+import datadog.trace.bootstrap.InstrumentationContext;
+import datadog.trace.bootstrap.instrumentation.java.concurrent.CallableWrapper;
+import datadog.trace.bootstrap.instrumentation.java.concurrent.RunnableWrapper;
+import datadog.trace.bootstrap.instrumentation.java.concurrent.State;
+import datadog.trace.context.TraceScope;
+import io.opentracing.Scope;
+import io.opentracing.util.GlobalTracer;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import net.bytebuddy.asm.Advice;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.matcher.ElementMatcher;
+
+/**
+ * Propagates the active scope to the subtasks forked by a {@code StructuredTaskScope}, each run on
+ * a new (usually virtual) thread. It is not an {@link java.util.concurrent.Executor}, so the
+ * executor instrumentation does not apply. The subtask itself is instrumented by {@link
+ * RunnableCallableInstrumentation}.
+ */
+@AutoService(Instrumenter.class)
+public final class StructuredTaskScopeInstrumentation extends Instrumenter.Default {
+
+  public StructuredTaskScopeInstrumentation() {
+    super(ExecutorInstrumentation.EXEC_NAME);
+  }
+
+  @Override
+  public ElementMatcher<TypeDescription> typeMatcher() {
+    // The implementation of the interface in the later versions of the API
+    return named("java.util.concurrent.StructuredTaskScope")
+        .or(named("java.util.concurrent.StructuredTaskScopeImpl"));
+  }
+
+  @Override
+  public String[] helperClassNames() {
+    return new String[] {
+      ExecutorInstrumentation.class.getName() + "$ConcurrentUtils",
+      StructuredTaskScopeInstrumentation.class.getName() + "$ScopeUtils",
+    };
+  }
+
+  @Override
+  public Map<String, String> contextStore() {
+    final Map<String, String> map = new HashMap<>();
+    map.put(Runnable.class.getName(), State.class.getName());
+    map.put(Callable.class.getName(), State.class.getName());
+    return Collections.unmodifiableMap(map);
+  }
+
+  @Override
+  public Map<ElementMatcher, String> transformers() {
+    final Map<ElementMatcher, String> transformers = new HashMap<>();
+    transformers.put(
+        named("fork").and(takesArgument(0, Callable.class)),
+        ForkCallableAdvice.class.getName());
+    transformers.put(
+        named("fork").and(takesArgument(0, Runnable.class)),
+        ForkRunnableAdvice.class.getName());
+    return transformers;
+  }
+
+  public static class ForkCallableAdvice {
+
+    @Advice.OnMethodEnter(suppress = Throwable.class)
+    public static State enterFork(@Advice.Argument(value = 0, readOnly = false) Callable task) {
+      final Scope scope = GlobalTracer.get().scopeManager().active();
+      if (scope instanceof TraceScope
+          && ((TraceScope) scope).isAsyncPropagating()
+          && task != null) {
+        task = CallableWrapper.wrapIfNeeded(task);
+        final ContextStore<Callable, State> contextStore =
+            InstrumentationContext.get(Callable.class, State.class);
+        return ExecutorInstrumentation.ConcurrentUtils.setupState(
+            contextStore, task, (TraceScope) scope);
+      }
+      return null;
+    }
+
+    @Advice.OnMethodExit(onThrowable = Throwable.class, suppress = Throwable.class)
+    public static void exitFork(
+        @Advice.This final Object taskScope,
+        @Advice.Enter final State state,
+        @Advice.Thrown final Throwable throwable) {
+      // The scope is not owned by the thread, or is shut down and returned a subtask that will
+      // never run
+      if (state != null && (throwable != null || ScopeUtils.isShutdown(taskScope))) {
+        state.closeContinuation();
+      }
+    }
+  }
+
+  public static class ForkRunnableAdvice {
+
+    @Advice.OnMethodEnter(suppress = Throwable.class)
+    public static State enterFork(@Advice.Argument(value = 0, readOnly = false) Runnable task) {
+      final Scope scope = GlobalTracer.get().scopeManager().active();
+      if (scope instanceof TraceScope
+          && ((TraceScope) scope).isAsyncPropagating()
+          && task != null) {
+        task = RunnableWrapper.wrapIfNeeded(task);
+        final ContextStore<Runnable, State> contextStore =
+            InstrumentationContext.get(Runnable.class, State.class);
+        return ExecutorInstrumentation.ConcurrentUtils.setupState(
+            contextStore, task, (TraceScope) scope);
+      }
+      return null;
+    }
+
+    @Advice.OnMethodExit(onThrowable = Throwable.class, suppress = Throwable.class)
+    public static void exitFork(
+        @Advice.This final Object taskScope,
+        @Advice.Enter final State state,
+        @Advice.Thrown final Throwable throwable) {
+      if (state != null && (throwable != null || ScopeUtils.isShutdown(taskScope))) {
+        state.closeContinuation();
+      }
+    }
+  }
+
+  /**
+   * The API is not available at compile time: its public method telling whether new subtasks run
+   * is called by reflection, {@code isShutdown()} in Java 21 and {@code isCancelled()} in the
+   * later versions.
+   */
+  public static class ScopeUtils {
+    private static final Method IS_SHUTDOWN = findIsShutdown();
+
+    private static Method findIsShutdown() {
+      final Class<?> scopeClass;
+      try {
+        scopeClass = Class.forName("java.util.concurrent.StructuredTaskScope");
+      } catch (final ClassNotFoundException e) {
+        return null;
+      }
+      for (final String name : new String[] {"isShutdown", "isCancelled"}) {
+        try {
+          return scopeClass.getMethod(name);
+        } catch (final NoSuchMethodException e) {
+          // Try the next version
+        }
+      }
+      return null;
+    }
+
+    /**
+     * A subtask forked by a shut down scope is returned without being run. A subtask started
+     * before a concurrent shutdown either took its continuation already or runs without it.
+     *
+     * @return true if the scope no longer runs the subtasks it forks
+     */
+    public static boolean isShutdown(final Object taskScope) {
+      if (IS_SHUTDOWN == null) {
+        return false;
+      }
+      try {
+        return (Boolean) IS_SHUTDOWN.invoke(taskScope);
+      } catch (final Exception e) {
+        return false;
+      }
+    }
+  }
+}
@@ -31,9 +31,15 @@ import java.util.jar.JarFile;
 
 /** Entry point for initializing the agent. */
 public class TracingAgent {
+  /**
+   * Only install the bootstrap jar and the class transformer in premain, then start the tracer and
+   * JMXFetch in the background while the application starts.
+   */
+  private static final String ASYNC_STARTUP_PROPERTY = "dd.trace.startup.async";
+
   private static boolean inited = false;
-  private static ClassLoader AGENT_CLASSLOADER = null;
-  private static ClassLoader JMXFETCH_CLASSLOADER = null;
+  private static volatile ClassLoader AGENT_CLASSLOADER = null;
+  private static volatile ClassLoader JMXFETCH_CLASSLOADER = null;
 
   public static void premain(final String agentArgs, final Instrumentation inst) throws Exception {
     startAgent(agentArgs, inst);
@@ -47,24 +53,20 @@ public class TracingAgent {
   private static synchronized void startAgent(final String agentArgs, final Instrumentation inst)
       throws Exception {
     if (!inited) {
-      final File toolingJar =
-          extractToTmpFile(
-              TracingAgent.class.getClassLoader(),
-              "agent-tooling-and-instrumentation.jar.zip",
-              "agent-tooling-and-instrumentation.jar");
-      final File jmxFetchJar =
-          extractToTmpFile(
-              TracingAgent.class.getClassLoader(), "agent-jmxfetch.jar.zip", "agent-jmxfetch.jar");
       final File bootstrapJar =
           extractToTmpFile(
               TracingAgent.class.getClassLoader(),
               "agent-bootstrap.jar.zip",
               "agent-bootstrap.jar");
+      final File toolingJar =
+          extractToTmpFile(
+              TracingAgent.class.getClassLoader(),
+              "agent-tooling-and-instrumentation.jar.zip",
+              "agent-tooling-and-instrumentation.jar");
 
       // bootstrap jar must be appended before agent classloader is created.
       inst.appendToBootstrapClassLoaderSearch(new JarFile(bootstrapJar));
       final ClassLoader agentClassLoader = createDatadogClassLoader(bootstrapJar, toolingJar);
-      final ClassLoader jmxFetchClassLoader = createDatadogClassLoader(bootstrapJar, jmxFetchJar);
 
       final ClassLoader contextLoader = Thread.currentThread().getContextClassLoader();
       try {
@@ -77,35 +79,82 @@ public class TracingAgent {
               agentInstallerClass.getMethod("installBytebuddyAgent", Instrumentation.class);
           agentInstallerMethod.invoke(null, inst);
         }
-        { // install global tracer
-          final Class<?> tracerInstallerClass =
-              agentClassLoader.loadClass("datadog.trace.agent.tooling.TracerInstaller");
-          final Method tracerInstallerMethod =
-              tracerInstallerClass.getMethod("installGlobalTracer");
-          tracerInstallerMethod.invoke(null);
-          final Method logVersionInfoMethod = tracerInstallerClass.getMethod("logVersionInfo");
-          logVersionInfoMethod.invoke(null);
-        }
-
-        Thread.currentThread().setContextClassLoader(jmxFetchClassLoader);
-        { // install jmxfetch tracer
-          // We would like jmxfetch to be loaded after APM agent to avoid needing to retransform
-          // classes
-          final Class<?> jmxFetchAgentClass =
-              jmxFetchClassLoader.loadClass("datadog.trace.agent.jmxfetch.JMXFetch");
-          final Method jmxFetchInstallerMethod = jmxFetchAgentClass.getMethod("run");
-          jmxFetchInstallerMethod.invoke(null);
-        }
-
         AGENT_CLASSLOADER = agentClassLoader;
-        JMXFETCH_CLASSLOADER = jmxFetchClassLoader;
       } finally {
         Thread.currentThread().setContextClassLoader(contextLoader);
       }
+
+      if (isAsyncStartupEnabled()) {
+        // Spans started before the tracer is installed are not reported
+        final Thread thread =
+            new Thread(
+                new Runnable() {
+                  @Override
+                  public void run() {
+                    try {
+                      startTracerAndJmxFetch(bootstrapJar, agentClassLoader);
+                    } catch (final Exception e) {
+                      System.err.println("Failed to start the tracer and JMXFetch");
+                      e.printStackTrace();
+                    }
+                  }
+                });
+        thread.setName("dd-agent-startup");
+        thread.setDaemon(true);
+        thread.start();
+      } else {
+        startTracerAndJmxFetch(bootstrapJar, agentClassLoader);
+      }
       inited = true;
     }
   }
 
+  /** Install the global tracer, then JMXFetch. Must be called after the agent is installed. */
+  private static void startTracerAndJmxFetch(
+      final File bootstrapJar, final ClassLoader agentClassLoader) throws Exception {
+    final ClassLoader contextLoader = Thread.currentThread().getContextClassLoader();
+    try {
+      Thread.currentThread().setContextClassLoader(agentClassLoader);
+      { // install global tracer
+        final Class<?> tracerInstallerClass =
+            agentClassLoader.loadClass("datadog.trace.agent.tooling.TracerInstaller");
+        final Method tracerInstallerMethod = tracerInstallerClass.getMethod("installGlobalTracer");
+        tracerInstallerMethod.invoke(null);
+        final Method logVersionInfoMethod = tracerInstallerClass.getMethod("logVersionInfo");
+        logVersionInfoMethod.invoke(null);
+      }
+
+      final File jmxFetchJar =
+          extractToTmpFile(
+              TracingAgent.class.getClassLoader(), "agent-jmxfetch.jar.zip", "agent-jmxfetch.jar");
+      final ClassLoader jmxFetchClassLoader = createDatadogClassLoader(bootstrapJar, jmxFetchJar);
+      Thread.currentThread().setContextClassLoader(jmxFetchClassLoader);
+      { // install jmxfetch tracer
+        // We would like jmxfetch to be loaded after APM agent to avoid needing to retransform
+        // classes
+        final Class<?> jmxFetchAgentClass =
+            jmxFetchClassLoader.loadClass("datadog.trace.agent.jmxfetch.JMXFetch");
+        final Method jmxFetchInstallerMethod = jmxFetchAgentClass.getMethod("run");
+        jmxFetchInstallerMethod.invoke(null);
+      }
+      JMXFETCH_CLASSLOADER = jmxFetchClassLoader;
+    } finally {
+      Thread.currentThread().setContextClassLoader(contextLoader);
+    }
+  }
+
+  /**
+   * Read the async startup setting from the system properties or the environment: the agent config
+   * is not loaded yet.
+   */
+  private static boolean isAsyncStartupEnabled() {
+    String value = System.getProperty(ASYNC_STARTUP_PROPERTY);
+    if (value == null) {
+      value = System.getenv(ASYNC_STARTUP_PROPERTY.replace('.', '_').toUpperCase());
+    }
+    return Boolean.parseBoolean(value);
+  }
+
   /**
    * Create the datadog classloader. This must be called after the bootstrap jar has been appened to
    * the bootstrap classpath.
@@ -48,6 +48,17 @@ public class Config {
   public static final String JMX_FETCH_REFRESH_BEANS_PERIOD = "jmxfetch.refresh-beans-period";
   public static final String JMX_FETCH_STATSD_HOST = "jmxfetch.statsd.host";
   public static final String JMX_FETCH_STATSD_PORT = "jmxfetch.statsd.port";
+  public static final String WRITER_FLUSH_INTERVAL_MILLIS = "writer.flush.interval.millis";
+  public static final String WRITER_FLUSH_THRESHOLD_BYTES = "writer.flush.threshold.bytes";
+  public static final String WRITER_MAX_PAYLOAD_BYTES = "writer.max.payload.bytes";
+  public static final String PENDING_TRACE_TIMEOUT_SECONDS = "trace.pending.timeout.seconds";
+  public static final String STATS_COMPUTATION_ENABLED = "trace.stats.computation.enabled";
+  public static final String TRACE_RATE_LIMIT = "trace.rate.limit";
+  public static final String PARTIAL_FLUSH_MIN_SPANS = "trace.partial.flush.min.spans";
+  public static final String PARTIAL_FLUSH_MAX_AGE_SECONDS = "trace.partial.flush.max.age.seconds";
+  public static final String ERROR_STACK_MAX_DEPTH = "trace.error.stack.max.depth";
+  public static final String ERROR_STACK_MAX_SIZE = "trace.error.stack.max.size";
+  public static final String SPAN_WEAK_REFERENCES_ENABLED = "trace.span.weak.references.enabled";
 
   public static final String RUNTIME_ID_TAG = "runtime-id";
   public static final String DEFAULT_SERVICE_NAME = "unnamed-java-app";
@@ -67,6 +78,24 @@ public class Config {
 
   public static final int DEFAULT_JMX_FETCH_STATSD_PORT = 8125;
 
+  public static final int DEFAULT_WRITER_FLUSH_INTERVAL_MILLIS = 1000;
+  public static final int DEFAULT_WRITER_FLUSH_THRESHOLD_BYTES = 4 * 1024 * 1024;
+  public static final int DEFAULT_WRITER_MAX_PAYLOAD_BYTES = 5 * 1024 * 1024;
+  /** Traces are never written partially by default */
+  public static final int DEFAULT_PENDING_TRACE_TIMEOUT_SECONDS = 0;
+  private static final boolean DEFAULT_STATS_COMPUTATION_ENABLED = false;
+  /** Traces kept per second and per service are not limited by default */
+  public static final int DEFAULT_TRACE_RATE_LIMIT = 0;
+  /** Traces are only written once complete by default */
+  public static final int DEFAULT_PARTIAL_FLUSH_MIN_SPANS = 0;
+  public static final int DEFAULT_PARTIAL_FLUSH_MAX_AGE_SECONDS = 0;
+  /** Frames of each throwable in error stacks, 0 for all of them */
+  public static final int DEFAULT_ERROR_STACK_MAX_DEPTH = 0;
+  /** Characters of error stacks, the agent truncates longer tags anyway */
+  public static final int DEFAULT_ERROR_STACK_MAX_SIZE = 25000;
+  /** Spans are counted, debugging spans never finished needs a weak reference to each of them */
+  private static final boolean DEFAULT_SPAN_WEAK_REFERENCES_ENABLED = false;
+
   /**
    * this is a random UUID that gets generated on JVM start up and is attached to every root span
    * and every JMX metric that is sent out.
@@ -91,6 +120,17 @@ public class Config {
   @Getter private final Integer jmxFetchRefreshBeansPeriod;
   @Getter private final String jmxFetchStatsdHost;
   @Getter private final Integer jmxFetchStatsdPort;
+  @Getter private final int writerFlushIntervalMillis;
+  @Getter private final int writerFlushThresholdBytes;
+  @Getter private final int writerMaxPayloadBytes;
+  @Getter private final int pendingTraceTimeoutSeconds;
+  @Getter private final boolean statsComputationEnabled;
+  @Getter private final int traceRateLimit;
+  @Getter private final int partialFlushMinSpans;
+  @Getter private final int partialFlushMaxAgeSeconds;
+  @Getter private final int errorStackMaxDepth;
+  @Getter private final int errorStackMaxSize;
+  @Getter private final boolean spanWeakReferencesEnabled;
 
   // Read order: System Properties -> Env Variables, [-> default value]
   // Visible for testing
@@ -128,6 +168,40 @@ public class Config {
     jmxFetchStatsdHost = getSettingFromEnvironment(JMX_FETCH_STATSD_HOST, null);
     jmxFetchStatsdPort =
         getIntegerSettingFromEnvironment(JMX_FETCH_STATSD_PORT, DEFAULT_JMX_FETCH_STATSD_PORT);
+
+    writerFlushIntervalMillis =
+        getIntegerSettingFromEnvironment(
+            WRITER_FLUSH_INTERVAL_MILLIS, DEFAULT_WRITER_FLUSH_INTERVAL_MILLIS);
+    writerFlushThresholdBytes =
+        getIntegerSettingFromEnvironment(
+            WRITER_FLUSH_THRESHOLD_BYTES, DEFAULT_WRITER_FLUSH_THRESHOLD_BYTES);
+    writerMaxPayloadBytes =
+        getIntegerSettingFromEnvironment(WRITER_MAX_PAYLOAD_BYTES, DEFAULT_WRITER_MAX_PAYLOAD_BYTES);
+
+    pendingTraceTimeoutSeconds =
+        getIntegerSettingFromEnvironment(
+            PENDING_TRACE_TIMEOUT_SECONDS, DEFAULT_PENDING_TRACE_TIMEOUT_SECONDS);
+
+    statsComputationEnabled =
+        getBooleanSettingFromEnvironment(
+            STATS_COMPUTATION_ENABLED, DEFAULT_STATS_COMPUTATION_ENABLED);
+
+    traceRateLimit = getIntegerSettingFromEnvironment(TRACE_RATE_LIMIT, DEFAULT_TRACE_RATE_LIMIT);
+
+    partialFlushMinSpans =
+        getIntegerSettingFromEnvironment(PARTIAL_FLUSH_MIN_SPANS, DEFAULT_PARTIAL_FLUSH_MIN_SPANS);
+    partialFlushMaxAgeSeconds =
+        getIntegerSettingFromEnvironment(
+            PARTIAL_FLUSH_MAX_AGE_SECONDS, DEFAULT_PARTIAL_FLUSH_MAX_AGE_SECONDS);
+
+    errorStackMaxDepth =
+        getIntegerSettingFromEnvironment(ERROR_STACK_MAX_DEPTH, DEFAULT_ERROR_STACK_MAX_DEPTH);
+    errorStackMaxSize =
+        getIntegerSettingFromEnvironment(ERROR_STACK_MAX_SIZE, DEFAULT_ERROR_STACK_MAX_SIZE);
+
+    spanWeakReferencesEnabled =
+        getBooleanSettingFromEnvironment(
+            SPAN_WEAK_REFERENCES_ENABLED, DEFAULT_SPAN_WEAK_REFERENCES_ENABLED);
   }
 
   // Read order: Properties -> Parent
@@ -169,6 +243,40 @@ public class Config {
     jmxFetchStatsdHost = properties.getProperty(JMX_FETCH_STATSD_HOST, parent.jmxFetchStatsdHost);
     jmxFetchStatsdPort =
         getPropertyIntegerValue(properties, JMX_FETCH_STATSD_PORT, parent.jmxFetchStatsdPort);
+
+    writerFlushIntervalMillis =
+        getPropertyIntegerValue(
+            properties, WRITER_FLUSH_INTERVAL_MILLIS, parent.writerFlushIntervalMillis);
+    writerFlushThresholdBytes =
+        getPropertyIntegerValue(
+            properties, WRITER_FLUSH_THRESHOLD_BYTES, parent.writerFlushThresholdBytes);
+    writerMaxPayloadBytes =
+        getPropertyIntegerValue(properties, WRITER_MAX_PAYLOAD_BYTES, parent.writerMaxPayloadBytes);
+
+    pendingTraceTimeoutSeconds =
+        getPropertyIntegerValue(
+            properties, PENDING_TRACE_TIMEOUT_SECONDS, parent.pendingTraceTimeoutSeconds);
+
+    statsComputationEnabled =
+        getPropertyBooleanValue(
+            properties, STATS_COMPUTATION_ENABLED, parent.statsComputationEnabled);
+
+    traceRateLimit = getPropertyIntegerValue(properties, TRACE_RATE_LIMIT, parent.traceRateLimit);
+
+    partialFlushMinSpans =
+        getPropertyIntegerValue(properties, PARTIAL_FLUSH_MIN_SPANS, parent.partialFlushMinSpans);
+    partialFlushMaxAgeSeconds =
+        getPropertyIntegerValue(
+            properties, PARTIAL_FLUSH_MAX_AGE_SECONDS, parent.partialFlushMaxAgeSeconds);
+
+    errorStackMaxDepth =
+        getPropertyIntegerValue(properties, ERROR_STACK_MAX_DEPTH, parent.errorStackMaxDepth);
+    errorStackMaxSize =
+        getPropertyIntegerValue(properties, ERROR_STACK_MAX_SIZE, parent.errorStackMaxSize);
+
+    spanWeakReferencesEnabled =
+        getPropertyBooleanValue(
+            properties, SPAN_WEAK_REFERENCES_ENABLED, parent.spanWeakReferencesEnabled);
   }
 
   public Map<String, String> getMergedSpanTags() {
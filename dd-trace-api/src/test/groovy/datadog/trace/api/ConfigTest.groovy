@@ -44,6 +44,17 @@ class ConfigTest extends Specification {
     config.jmxFetchRefreshBeansPeriod == null
     config.jmxFetchStatsdHost == null
     config.jmxFetchStatsdPort == DEFAULT_JMX_FETCH_STATSD_PORT
+    config.writerFlushIntervalMillis == 1000
+    config.writerFlushThresholdBytes == 4 * 1024 * 1024
+    config.writerMaxPayloadBytes == 5 * 1024 * 1024
+    config.pendingTraceTimeoutSeconds == 0
+    !config.statsComputationEnabled
+    config.traceRateLimit == 0
+    config.partialFlushMinSpans == 0
+    config.partialFlushMaxAgeSeconds == 0
+    config.errorStackMaxDepth == 0
+    config.errorStackMaxSize == 25000
+    config.spanWeakReferencesEnabled == false
     config.toString().contains("unnamed-java-app")
   }
 
@@ -68,6 +79,17 @@ class ConfigTest extends Specification {
     System.setProperty(PREFIX + JMX_FETCH_REFRESH_BEANS_PERIOD, "200")
     System.setProperty(PREFIX + JMX_FETCH_STATSD_HOST, "statsd host")
     System.setProperty(PREFIX + JMX_FETCH_STATSD_PORT, "321")
+    System.setProperty(PREFIX + WRITER_FLUSH_INTERVAL_MILLIS, "500")
+    System.setProperty(PREFIX + WRITER_FLUSH_THRESHOLD_BYTES, "1000")
+    System.setProperty(PREFIX + WRITER_MAX_PAYLOAD_BYTES, "2000")
+    System.setProperty(PREFIX + PENDING_TRACE_TIMEOUT_SECONDS, "300")
+    System.setProperty(PREFIX + STATS_COMPUTATION_ENABLED, "true")
+    System.setProperty(PREFIX + TRACE_RATE_LIMIT, "100")
+    System.setProperty(PREFIX + PARTIAL_FLUSH_MIN_SPANS, "1000")
+    System.setProperty(PREFIX + PARTIAL_FLUSH_MAX_AGE_SECONDS, "60")
+    System.setProperty(PREFIX + ERROR_STACK_MAX_DEPTH, "50")
+    System.setProperty(PREFIX + ERROR_STACK_MAX_SIZE, "10000")
+    System.setProperty(PREFIX + SPAN_WEAK_REFERENCES_ENABLED, "true")
 
     when:
     def config = new Config()
@@ -90,6 +112,17 @@ class ConfigTest extends Specification {
     config.jmxFetchRefreshBeansPeriod == 200
     config.jmxFetchStatsdHost == "statsd host"
     config.jmxFetchStatsdPort == 321
+    config.writerFlushIntervalMillis == 500
+    config.writerFlushThresholdBytes == 1000
+    config.writerMaxPayloadBytes == 2000
+    config.pendingTraceTimeoutSeconds == 300
+    config.statsComputationEnabled
+    config.traceRateLimit == 100
+    config.partialFlushMinSpans == 1000
+    config.partialFlushMaxAgeSeconds == 60
+    config.errorStackMaxDepth == 50
+    config.errorStackMaxSize == 10000
+    config.spanWeakReferencesEnabled == true
   }
 
   def "specify overrides via env vars"() {
@@ -189,6 +222,17 @@ class ConfigTest extends Specification {
     properties.setProperty(JMX_FETCH_REFRESH_BEANS_PERIOD, "200")
     properties.setProperty(JMX_FETCH_STATSD_HOST, "statsd host")
     properties.setProperty(JMX_FETCH_STATSD_PORT, "321")
+    properties.setProperty(WRITER_FLUSH_INTERVAL_MILLIS, "500")
+    properties.setProperty(WRITER_FLUSH_THRESHOLD_BYTES, "1000")
+    properties.setProperty(WRITER_MAX_PAYLOAD_BYTES, "2000")
+    properties.setProperty(PENDING_TRACE_TIMEOUT_SECONDS, "300")
+    properties.setProperty(STATS_COMPUTATION_ENABLED, "true")
+    properties.setProperty(TRACE_RATE_LIMIT, "100")
+    properties.setProperty(PARTIAL_FLUSH_MIN_SPANS, "1000")
+    properties.setProperty(PARTIAL_FLUSH_MAX_AGE_SECONDS, "60")
+    properties.setProperty(ERROR_STACK_MAX_DEPTH, "50")
+    properties.setProperty(ERROR_STACK_MAX_SIZE, "10000")
+    properties.setProperty(SPAN_WEAK_REFERENCES_ENABLED, "true")
 
     when:
     def config = Config.get(properties)
@@ -209,6 +253,17 @@ class ConfigTest extends Specification {
     config.jmxFetchRefreshBeansPeriod == 200
     config.jmxFetchStatsdHost == "statsd host"
     config.jmxFetchStatsdPort == 321
+    config.writerFlushIntervalMillis == 500
+    config.writerFlushThresholdBytes == 1000
+    config.writerMaxPayloadBytes == 2000
+    config.pendingTraceTimeoutSeconds == 300
+    config.statsComputationEnabled
+    config.traceRateLimit == 100
+    config.partialFlushMinSpans == 1000
+    config.partialFlushMaxAgeSeconds == 60
+    config.errorStackMaxDepth == 50
+    config.errorStackMaxSize == 10000
+    config.spanWeakReferencesEnabled == true
   }
 
   def "override null properties"() {
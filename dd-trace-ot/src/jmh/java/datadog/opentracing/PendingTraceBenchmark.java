@@ -0,0 +1,64 @@
+package datadog.opentracing;
+
+import datadog.trace.api.Config;
+import datadog.trace.common.sampling.AllSampler;
+import datadog.trace.common.writer.DDAgentWriter;
+import datadog.trace.common.writer.DDApi;
+import datadog.trace.common.writer.StubAgent;
+import java.io.IOException;
+import java.util.Collections;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Traces started, completed and written by the agent writer to a local stub agent: the cost of a
+ * trace on the application threads, from the first span to the trace handed to the writer. Run
+ * with {@code -prof gc} to check the allocations.
+ */
+public class PendingTraceBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class AgentState {
+    @Param({"1", "20"})
+    public int spansPerTrace;
+
+    public StubAgent agent;
+    public DDAgentWriter writer;
+    public DDTracer tracer;
+
+    @Setup
+    public void setup() throws IOException {
+      agent = new StubAgent();
+      writer = new DDAgentWriter(new DDApi("localhost", agent.getPort()));
+      tracer =
+          new DDTracer(
+              Config.DEFAULT_SERVICE_NAME,
+              writer,
+              new AllSampler(),
+              "some-runtime-id",
+              Collections.<String, String>emptyMap(),
+              Collections.<String, String>emptyMap(),
+              Collections.<String, String>emptyMap());
+    }
+
+    @TearDown
+    public void tearDown() {
+      writer.close();
+      agent.close();
+    }
+  }
+
+  @Benchmark
+  public Object completeTrace(final AgentState state) {
+    final DDSpan root = state.tracer.buildSpan("servlet.request").start();
+    for (int i = 1; i < state.spansPerTrace; i++) {
+      state.tracer.buildSpan("database.query").asChildOf(root).start().finish();
+    }
+    root.finish();
+    return root;
+  }
+}
@@ -0,0 +1,65 @@
+package datadog.opentracing;
+
+import datadog.trace.api.DDTags;
+import io.opentracing.tag.Tags;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Tags set by the integrations on a server span, with the builtin decorators of the tracer, and
+ * tags no decorator applies to. Run with {@code -prof gc} to check the allocations.
+ */
+public class SpanTagBenchmark {
+
+  @State(Scope.Thread)
+  public static class SpanState {
+    public DDTracer tracer;
+    public DDSpan span;
+
+    @Setup
+    public void setup() {
+      tracer = new DDTracer(new TraceWriteBenchmark.DiscardingWriter());
+      span = tracer.buildSpan("servlet.request").start();
+    }
+  }
+
+  @Benchmark
+  public Object decoratedTags(final SpanState state) {
+    final DDSpan span = state.span;
+    span.setTag(Tags.COMPONENT.getKey(), "java-web-servlet");
+    span.setTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_SERVER);
+    span.setTag(DDTags.SPAN_TYPE, "web");
+    span.setTag(Tags.HTTP_METHOD.getKey(), "GET");
+    span.setTag(Tags.HTTP_URL.getKey(), "http://localhost:8080/users/123");
+    span.setTag(Tags.HTTP_STATUS.getKey(), 200);
+    span.setTag("servlet.context", "/");
+    return span;
+  }
+
+  @Benchmark
+  public Object plainTags(final SpanState state) {
+    final DDSpan span = state.span;
+    span.setTag("user.id", "123");
+    span.setTag("tenant", "acme");
+    span.setTag("request.size", 512);
+    span.setTag("cache.hit", true);
+    return span;
+  }
+
+  @Benchmark
+  public Object buildStartFinishWithTags(final SpanState state) {
+    final DDSpan span =
+        state
+            .tracer
+            .buildSpan("servlet.request")
+            .withTag(Tags.COMPONENT.getKey(), "java-web-servlet")
+            .withTag(Tags.HTTP_METHOD.getKey(), "GET")
+            .withTag(Tags.HTTP_URL.getKey(), "http://localhost:8080/users/123")
+            .start();
+    span.setTag(Tags.HTTP_STATUS.getKey(), 200);
+    span.finish();
+    return span;
+  }
+}
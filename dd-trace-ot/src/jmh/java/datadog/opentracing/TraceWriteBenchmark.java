@@ -0,0 +1,103 @@
+package datadog.opentracing;
+
+import datadog.trace.api.Config;
+import datadog.trace.api.interceptor.MutableSpan;
+import datadog.trace.api.interceptor.TraceInterceptor;
+import datadog.trace.common.sampling.AllSampler;
+import datadog.trace.common.writer.Writer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of handing a complete 20-span trace to the writer, through 0, 1 and 3 interceptors which
+ * read every span and keep the trace as is. Run with {@code -prof gc} to check the copies.
+ */
+public class TraceWriteBenchmark {
+  static final int TRACE_SIZE = 20;
+
+  @State(Scope.Thread)
+  public static class TraceState {
+    @Param({"0", "1", "3"})
+    public int interceptors;
+
+    public final DiscardingWriter writer = new DiscardingWriter();
+    public DDTracer tracer;
+    public PendingTrace trace;
+
+    @Setup
+    public void setup() {
+      tracer =
+          new DDTracer(
+              Config.DEFAULT_SERVICE_NAME,
+              writer,
+              new AllSampler(),
+              "some-runtime-id",
+              Collections.<String, String>emptyMap(),
+              Collections.<String, String>emptyMap(),
+              Collections.<String, String>emptyMap());
+      for (int i = 0; i < interceptors; i++) {
+        tracer.addTraceInterceptor(new ReadingInterceptor(i));
+      }
+
+      final DDSpan root = tracer.buildSpan("servlet.request").start();
+      for (int i = 1; i < TRACE_SIZE; i++) {
+        tracer.buildSpan("child").asChildOf(root).start().finish();
+      }
+      root.finish();
+      trace = root.context().getTrace();
+    }
+  }
+
+  @Benchmark
+  public Object write(final TraceState state) {
+    state.tracer.write(state.trace);
+    return state.writer.lastTrace;
+  }
+
+  /** Keeps the last trace only, to measure the tracer side of the write */
+  public static class DiscardingWriter implements Writer {
+    volatile List<DDSpan> lastTrace;
+
+    @Override
+    public void write(final List<DDSpan> trace) {
+      lastTrace = trace;
+    }
+
+    @Override
+    public void start() {}
+
+    @Override
+    public void close() {}
+  }
+
+  static class ReadingInterceptor implements TraceInterceptor {
+    private final int priority;
+    volatile int serviceNameLength;
+
+    ReadingInterceptor(final int priority) {
+      this.priority = priority;
+    }
+
+    @Override
+    public Collection<? extends MutableSpan> onTraceComplete(
+        final Collection<? extends MutableSpan> trace) {
+      int length = 0;
+      for (final MutableSpan span : trace) {
+        length += span.getServiceName().length();
+      }
+      serviceNameLength = length;
+      return trace;
+    }
+
+    @Override
+    public int priority() {
+      return priority;
+    }
+  }
+}
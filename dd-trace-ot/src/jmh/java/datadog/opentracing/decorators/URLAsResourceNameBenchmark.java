@@ -0,0 +1,79 @@
+package datadog.opentracing.decorators;
+
+import datadog.opentracing.DDSpanContext;
+import datadog.opentracing.DDTracer;
+import datadog.trace.common.writer.ListWriter;
+import io.opentracing.tag.Tags;
+import java.net.MalformedURLException;
+import java.net.URL;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Resource names of a corpus of server and client URLs, through the decorator and its cache,
+ * through the normalizer alone and through the regular expressions it replaced. Run with {@code
+ * -prof gc} to check the allocations.
+ */
+public class URLAsResourceNameBenchmark {
+  static final String[] URLS = {
+    "http://localhost:8080/",
+    "http://localhost:8080/health",
+    "http://localhost:8080/users/123",
+    "http://localhost:8080/users/123/orders/4567",
+    "https://api.example.com/v1/users/42/repos?page=2&per_page=100",
+    "https://api.example.com/v2/search?q=tracing&sort=stars",
+    "https://api.example.com/v1/orders/8a6f1e2c-5b1d-4c8e-9f3a-2d7b6c1e0f45/items",
+    "https://cdn.example.com/static/js/main.3f2a1b9c.chunk.js",
+    "https://cdn.example.com/static/css/app.css",
+    "http://inventory.internal:9000/api/products/SKU-88213/stock",
+    "http://payments.internal:9000/api/v3/charges/ch_1Dq2hF2eZvKYlo2C",
+    "http://10.0.12.7:8500/v1/kv/config/service-a?recurse=true",
+    "https://s3.amazonaws.com/my-bucket/uploads/2018/11/27/report.pdf",
+    "/api/sessions/5f1c2ab0e4b0a1b2c3d4e5f6",
+    "/login?next=%2Faccount%2Fsettings",
+    "/index.html",
+  };
+
+  @State(Scope.Thread)
+  public static class DecoratorState {
+    public final URLAsResourceName decorator = new URLAsResourceName();
+    public DDSpanContext context;
+    public int index = 0;
+
+    @Setup
+    public void setup() {
+      final DDTracer tracer = new DDTracer(new ListWriter());
+      context = (DDSpanContext) tracer.buildSpan("servlet.request").start().context();
+    }
+
+    String nextUrl() {
+      index = (index + 1) % URLS.length;
+      return URLS[index];
+    }
+  }
+
+  @Benchmark
+  public boolean decorate(final DecoratorState state) {
+    return state.decorator.shouldSetTag(state.context, Tags.HTTP_URL.getKey(), state.nextUrl());
+  }
+
+  @Benchmark
+  public String normalize(final DecoratorState state) {
+    return URLAsResourceName.norm(URLAsResourceName.extractPath(state.nextUrl()));
+  }
+
+  @Benchmark
+  public String regularExpressions(final DecoratorState state) {
+    String path = state.nextUrl();
+    try {
+      path = new URL(path).getPath();
+    } catch (final MalformedURLException e) {
+      // use the value instead of the path
+    }
+    path = URLAsResourceName.QUERYSTRING.matcher(path).replaceAll("");
+    path = URLAsResourceName.PATH_MIXED_ALPHANUMERICS.matcher(path).replaceAll("?");
+    return path.trim().isEmpty() ? "/" : path;
+  }
+}
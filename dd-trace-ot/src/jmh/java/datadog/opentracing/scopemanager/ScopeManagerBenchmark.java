@@ -0,0 +1,83 @@
+package datadog.opentracing.scopemanager;
+
+import datadog.opentracing.DDTracer;
+import datadog.trace.common.writer.ListWriter;
+import io.opentracing.Scope;
+import io.opentracing.Span;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Cost of activating, closing and reading the active scope on the thread, without and with a
+ * registered {@link ScopeContext} which is not in context.
+ */
+public class ScopeManagerBenchmark {
+
+  @State(org.openjdk.jmh.annotations.Scope.Thread)
+  public static class ScopeManagerState {
+    @Param({"0", "1"})
+    public int registeredContexts;
+
+    public ContextualScopeManager scopeManager;
+    public Span span;
+    public Scope parent;
+
+    @Setup
+    public void setup() {
+      final DDTracer tracer = new DDTracer(new ListWriter());
+      scopeManager = tracer.scopeManager();
+      for (int i = 0; i < registeredContexts; i++) {
+        scopeManager.addScopeContext(new NotInContext());
+      }
+      span = tracer.buildSpan("span-benchmark").start();
+      parent = scopeManager.activate(span, false);
+    }
+
+    @TearDown
+    public void tearDown() {
+      parent.close();
+    }
+  }
+
+  @Benchmark
+  public Object activate(final ScopeManagerState state) {
+    final Scope scope = state.scopeManager.activate(state.span, false);
+    scope.close();
+    return scope;
+  }
+
+  @Benchmark
+  public Object activateNested(final ScopeManagerState state) {
+    final Scope outer = state.scopeManager.activate(state.span, false);
+    final Scope inner = state.scopeManager.activate(state.span, false);
+    inner.close();
+    outer.close();
+    return inner;
+  }
+
+  @Benchmark
+  public Object active(final ScopeManagerState state) {
+    return state.scopeManager.active();
+  }
+
+  /** Registered context of another kind of thread, never in control here */
+  static class NotInContext implements ScopeContext {
+    @Override
+    public boolean inContext() {
+      return false;
+    }
+
+    @Override
+    public Scope activate(final Span span, final boolean finishSpanOnClose) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Scope active() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -46,4 +46,31 @@ public class DDTraceBenchmark {
     scope.close();
     return scope;
   }
+
+  @Benchmark
+  public Object testBuildStartSpanWith5Tags(final TraceState state) {
+    final Span span = state.tracer.buildSpan(SPAN_NAME).start();
+    span.setTag("component", "java-web-servlet");
+    span.setTag("span.kind", "server");
+    span.setTag("http.method", "GET");
+    span.setTag("http.url", "http://localhost:8080/users/123");
+    span.setTag("http.status_code", 200);
+    return span;
+  }
+
+  @Benchmark
+  public Object testBuildStartSpanWith10Tags(final TraceState state) {
+    final Span span = state.tracer.buildSpan(SPAN_NAME).start();
+    span.setTag("component", "java-web-servlet");
+    span.setTag("span.kind", "server");
+    span.setTag("http.method", "GET");
+    span.setTag("http.url", "http://localhost:8080/users/123");
+    span.setTag("http.status_code", 200);
+    span.setTag("peer.hostname", "localhost");
+    span.setTag("peer.ipv4", "127.0.0.1");
+    span.setTag("peer.port", 54321);
+    span.setTag("user.id", "123");
+    span.setTag("tenant", "acme");
+    return span;
+  }
 }
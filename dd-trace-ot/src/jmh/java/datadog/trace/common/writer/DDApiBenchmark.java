@@ -0,0 +1,87 @@
+package datadog.trace.common.writer;
+
+import datadog.opentracing.DDSpan;
+import datadog.opentracing.DDTracer;
+import io.opentracing.Scope;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Flushes against a local stub agent, through {@link DDApi} and through a new {@link
+ * HttpURLConnection} per flush. Run with {@code -prof gc} to compare the garbage produced.
+ */
+public class DDApiBenchmark {
+
+  @State(org.openjdk.jmh.annotations.Scope.Benchmark)
+  public static class AgentState {
+    @Param({"1", "100"})
+    public int tracesPerFlush;
+
+    public StubAgent agent;
+    public DDApi api;
+    public URL endpoint;
+    public List<List<DDSpan>> traces;
+
+    @Setup
+    public void setup() throws IOException {
+      agent = new StubAgent();
+      final int port = agent.getPort();
+      api = new DDApi("localhost", port);
+      endpoint = new URL("http://localhost:" + port + "/v0.4/traces");
+
+      final ListWriter writer = new ListWriter();
+      final DDTracer tracer = new DDTracer(writer);
+      for (int i = 0; i < tracesPerFlush; i++) {
+        final Scope root =
+            tracer
+                .buildSpan("servlet.request")
+                .withTag("http.method", "GET")
+                .withTag("http.url", "http://localhost:8080/users/123")
+                .startActive(true);
+        tracer.buildSpan("database.query").withTag("db.type", "postgresql").start().finish();
+        root.close();
+      }
+      traces = new ArrayList<>(writer);
+      tracer.close();
+    }
+
+    @TearDown
+    public void tearDown() {
+      agent.close();
+    }
+  }
+
+  @Benchmark
+  public boolean persistentConnection(final AgentState state) {
+    return state.api.sendTraces(state.traces);
+  }
+
+  @Benchmark
+  public int connectionPerFlush(final AgentState state) throws IOException {
+    final MsgPackTraceEncoder encoder = new MsgPackTraceEncoder();
+    encoder.encode(state.traces);
+    final HttpURLConnection httpCon = (HttpURLConnection) state.endpoint.openConnection();
+    httpCon.setDoOutput(true);
+    httpCon.setRequestMethod("PUT");
+    httpCon.setRequestProperty("Connection", "close");
+    httpCon.setRequestProperty("Content-Type", "application/msgpack");
+    httpCon.setFixedLengthStreamingMode(encoder.size());
+    try (final OutputStream out = httpCon.getOutputStream()) {
+      encoder.writeTo(out);
+    }
+    try (final InputStream in = httpCon.getInputStream()) {
+      while (in.read() >= 0) {}
+    }
+    return httpCon.getResponseCode();
+  }
+}
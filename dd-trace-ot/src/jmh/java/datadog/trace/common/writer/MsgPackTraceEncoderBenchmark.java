@@ -0,0 +1,81 @@
+package datadog.trace.common.writer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import datadog.opentracing.DDSpan;
+import datadog.opentracing.DDTracer;
+import io.opentracing.Scope;
+import io.opentracing.Span;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Compares the msgpack encoding of a trace through Jackson and {@link MsgPackTraceEncoder}. */
+public class MsgPackTraceEncoderBenchmark {
+
+  @State(org.openjdk.jmh.annotations.Scope.Thread)
+  public static class TraceState {
+    @Param({"1", "10", "100"})
+    public int spansPerTrace;
+
+    public final ObjectMapper objectMapper = new ObjectMapper(new MessagePackFactory());
+    public final MsgPackTraceEncoder encoder = new MsgPackTraceEncoder();
+    public final OutputStream out = new NullOutputStream();
+    public List<List<DDSpan>> traces;
+
+    @Setup
+    public void setup() {
+      final ListWriter writer = new ListWriter();
+      final DDTracer tracer = new DDTracer(writer);
+      final Scope root =
+          tracer
+              .buildSpan("servlet.request")
+              .withTag("http.method", "GET")
+              .withTag("http.url", "http://localhost:8080/users/123")
+              .withTag("http.status_code", 200)
+              .startActive(true);
+      for (int i = 1; i < spansPerTrace; i++) {
+        final Span span =
+            tracer
+                .buildSpan("database.query")
+                .withTag("db.type", "postgresql")
+                .withTag("db.statement", "SELECT * FROM users WHERE id = ?")
+                .withTag("span.kind", "client")
+                .start();
+        span.finish();
+      }
+      root.close();
+      traces = Collections.singletonList(writer.firstTrace());
+      tracer.close();
+    }
+  }
+
+  @Benchmark
+  public Object jackson(final TraceState state) throws IOException {
+    state.objectMapper.writeValue(state.out, state.traces);
+    return state.out;
+  }
+
+  @Benchmark
+  public Object encoder(final TraceState state) throws IOException {
+    state.encoder.encode(state.traces);
+    state.encoder.writeTo(state.out);
+    return state.out;
+  }
+
+  private static class NullOutputStream extends OutputStream {
+    @Override
+    public void write(final int b) {}
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) {}
+
+    @Override
+    public void close() {}
+  }
+}
@@ -0,0 +1,67 @@
+package datadog.trace.common.writer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local agent for the benchmarks, on an ephemeral port. It reads the payloads and replies to every
+ * flush like the agent does, with the sampling rates by service.
+ */
+public class StubAgent implements Closeable {
+  private static final byte[] RESPONSE =
+      "{\"rate_by_service\":{\"service:,env:\":1}}".getBytes(StandardCharsets.UTF_8);
+
+  private final HttpServer server;
+  private final AtomicLong bytesReceived = new AtomicLong();
+
+  public StubAgent() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    final Handler handler = new Handler();
+    server.createContext("/v0.3/traces", handler);
+    server.createContext("/v0.4/traces", handler);
+    server.createContext("/v0.6/stats", handler);
+    server.start();
+  }
+
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  public long getBytesReceived() {
+    return bytesReceived.get();
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+  }
+
+  private class Handler implements HttpHandler {
+    private final byte[] discard = new byte[8192];
+
+    @Override
+    public void handle(final HttpExchange exchange) throws IOException {
+      // The server dispatches on a single thread
+      long received = 0;
+      try (final InputStream in = exchange.getRequestBody()) {
+        int read;
+        while ((read = in.read(discard)) >= 0) {
+          received += read;
+        }
+      }
+      bytesReceived.addAndGet(received);
+      exchange.sendResponseHeaders(200, RESPONSE.length);
+      try (final OutputStream out = exchange.getResponseBody()) {
+        out.write(RESPONSE);
+      }
+    }
+  }
+}
@@ -0,0 +1,88 @@
+package datadog.trace.common.writer;
+
+import java.util.Collections;
+import java.util.List;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Producer throughput of {@link WriterQueue} with 1, 8, 32 and 64 threads adding traces while a
+ * single thread drains the queue, as the agent writer does.
+ */
+public class WriterQueueBenchmark {
+  private static final List<Object> TRACE = Collections.emptyList();
+
+  @State(Scope.Group)
+  public static class QueueState {
+    @Param({"7000"})
+    public int capacity;
+
+    WriterQueue<List<Object>> queue;
+
+    @Setup
+    public void setup() {
+      queue = new WriterQueue<>(capacity);
+    }
+  }
+
+  @Benchmark
+  @Group("producers1")
+  @GroupThreads(1)
+  public Object add1(final QueueState state) {
+    return state.queue.add(TRACE);
+  }
+
+  @Benchmark
+  @Group("producers1")
+  @GroupThreads(1)
+  public Object drain1(final QueueState state) {
+    return state.queue.getAll();
+  }
+
+  @Benchmark
+  @Group("producers8")
+  @GroupThreads(8)
+  public Object add8(final QueueState state) {
+    return state.queue.add(TRACE);
+  }
+
+  @Benchmark
+  @Group("producers8")
+  @GroupThreads(1)
+  public Object drain8(final QueueState state) {
+    return state.queue.getAll();
+  }
+
+  @Benchmark
+  @Group("producers32")
+  @GroupThreads(32)
+  public Object add32(final QueueState state) {
+    return state.queue.add(TRACE);
+  }
+
+  @Benchmark
+  @Group("producers32")
+  @GroupThreads(1)
+  public Object drain32(final QueueState state) {
+    return state.queue.getAll();
+  }
+
+  @Benchmark
+  @Group("producers64")
+  @GroupThreads(64)
+  public Object add64(final QueueState state) {
+    return state.queue.add(TRACE);
+  }
+
+  @Benchmark
+  @Group("producers64")
+  @GroupThreads(1)
+  public Object drain64(final QueueState state) {
+    return state.queue.getAll();
+  }
+}
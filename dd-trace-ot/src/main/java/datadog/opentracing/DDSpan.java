@@ -12,10 +12,9 @@ import datadog.trace.api.DDTags;
 import datadog.trace.api.interceptor.MutableSpan;
 import datadog.trace.api.sampling.PrioritySampling;
 import datadog.trace.common.util.Clock;
+import datadog.trace.common.util.UInt64;
 import io.opentracing.Span;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.StringWriter;
 import java.lang.ref.WeakReference;
 import java.math.BigInteger;
 import java.util.HashMap;
@@ -55,7 +54,10 @@ public class DDSpan implements Span, MutableSpan {
    */
   private final AtomicLong durationNano = new AtomicLong();
 
-  /** Implementation detail. Stores the weak reference to this span. Used by TraceCollection. */
+  /**
+   * Implementation detail. Stores the weak reference to this span, or a marker when spans are only
+   * counted, while the span is pending in its trace. Used by PendingTrace.
+   */
   volatile WeakReference<DDSpan> ref;
 
   /**
@@ -117,7 +119,7 @@ public class DDSpan implements Span, MutableSpan {
    */
   @JsonIgnore
   public final boolean isRootSpan() {
-    return "0".equals(context.getParentId());
+    return context.getParentIdAsLong() == 0;
   }
 
   @Override
@@ -136,10 +138,9 @@ public class DDSpan implements Span, MutableSpan {
 
     setTag(DDTags.ERROR_MSG, error.getMessage());
     setTag(DDTags.ERROR_TYPE, error.getClass().getName());
-
-    final StringWriter errorString = new StringWriter();
-    error.printStackTrace(new PrintWriter(errorString));
-    setTag(DDTags.ERROR_STACK, errorString.toString());
+    // Rendered when serialized
+    context().setTag(
+        DDTags.ERROR_STACK, new ErrorStack(error, context().getTracer().errorStackRenderer));
   }
 
   private boolean extractError(final Map<String, ?> map) {
@@ -328,24 +329,39 @@ public class DDSpan implements Span, MutableSpan {
     return context.getServiceName();
   }
 
-  @JsonGetter("trace_id")
-  @JsonSerialize(using = UInt64IDStringSerializer.class)
+  @JsonIgnore
   public String getTraceId() {
     return context.getTraceId();
   }
 
-  @JsonGetter("span_id")
-  @JsonSerialize(using = UInt64IDStringSerializer.class)
+  @JsonIgnore
   public String getSpanId() {
     return context.getSpanId();
   }
 
-  @JsonGetter("parent_id")
-  @JsonSerialize(using = UInt64IDStringSerializer.class)
+  @JsonIgnore
   public String getParentId() {
     return context.getParentId();
   }
 
+  @JsonGetter("trace_id")
+  @JsonSerialize(using = UInt64IDSerializer.class)
+  public long getTraceIdAsLong() {
+    return context.getTraceIdAsLong();
+  }
+
+  @JsonGetter("span_id")
+  @JsonSerialize(using = UInt64IDSerializer.class)
+  public long getSpanIdAsLong() {
+    return context.getSpanIdAsLong();
+  }
+
+  @JsonGetter("parent_id")
+  @JsonSerialize(using = UInt64IDSerializer.class)
+  public long getParentIdAsLong() {
+    return context.getParentIdAsLong();
+  }
+
   @Override
   @JsonGetter("resource")
   public String getResourceName() {
@@ -406,21 +422,25 @@ public class DDSpan implements Span, MutableSpan {
         .toString();
   }
 
-  protected static class UInt64IDStringSerializer extends StdSerializer<String> {
+  protected static class UInt64IDSerializer extends StdSerializer<Long> {
 
-    public UInt64IDStringSerializer() {
+    public UInt64IDSerializer() {
       this(null);
     }
 
-    public UInt64IDStringSerializer(final Class<String> stringClass) {
-      super(stringClass);
+    public UInt64IDSerializer(final Class<Long> longClass) {
+      super(longClass);
     }
 
     @Override
     public void serialize(
-        final String value, final JsonGenerator gen, final SerializerProvider provider)
+        final Long value, final JsonGenerator gen, final SerializerProvider provider)
         throws IOException {
-      gen.writeNumber(new BigInteger(value));
+      if (value >= 0) {
+        gen.writeNumber(value);
+      } else {
+        gen.writeNumber(new BigInteger(UInt64.toString(value)));
+      }
     }
   }
 }
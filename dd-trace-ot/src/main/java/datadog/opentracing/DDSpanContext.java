@@ -1,12 +1,16 @@
 package datadog.opentracing;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
-import datadog.opentracing.decorators.AbstractDecorator;
 import datadog.trace.api.DDTags;
 import datadog.trace.api.sampling.PrioritySampling;
+import datadog.trace.common.util.UInt64;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.Collections;
-import java.util.List;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicReference;
@@ -38,12 +42,20 @@ public class DDSpanContext implements io.opentracing.SpanContext {
   private final Map<String, String> baggageItems;
 
   // Not Shared with other span contexts
-  private final String traceId;
-  private final String spanId;
-  private final String parentId;
+  private final long traceId;
+  private final long spanId;
+  private final long parentId;
+
+  /** Decimal forms of the IDs, only built when requested through the public getters */
+  private String traceIdString;
+
+  private String spanIdString;
+  private String parentIdString;
 
   /** Tags are associated to the current span, they will not propagate to the children span */
-  private final Map<String, Object> tags = new ConcurrentHashMap<>();
+  private final TagMap tags = new TagMap();
+  /** Read-only view of the tags, including the span metadata */
+  private Map<String, Object> tagsView;
 
   /** The service name is required, otherwise the span are dropped by the agent */
   private volatile String serviceName;
@@ -70,9 +82,9 @@ public class DDSpanContext implements io.opentracing.SpanContext {
   private final long threadId = Thread.currentThread().getId();
 
   public DDSpanContext(
-      final String traceId,
-      final String spanId,
-      final String parentId,
+      final long traceId,
+      final long spanId,
+      final long parentId,
       final String serviceName,
       final String operationName,
       final String resourceName,
@@ -89,9 +101,6 @@ public class DDSpanContext implements io.opentracing.SpanContext {
     this.tracer = tracer;
     this.trace = trace;
 
-    assert traceId != null;
-    assert spanId != null;
-    assert parentId != null;
     this.traceId = traceId;
     this.spanId = spanId;
     this.parentId = parentId;
@@ -118,14 +127,42 @@ public class DDSpanContext implements io.opentracing.SpanContext {
   }
 
   public String getTraceId() {
-    return traceId;
+    // Racing threads build equal strings, any of them can be kept.
+    String id = traceIdString;
+    if (id == null) {
+      id = traceIdString = UInt64.toString(traceId);
+    }
+    return id;
   }
 
   public String getParentId() {
-    return parentId;
+    String id = parentIdString;
+    if (id == null) {
+      id = parentIdString = UInt64.toString(parentId);
+    }
+    return id;
   }
 
   public String getSpanId() {
+    String id = spanIdString;
+    if (id == null) {
+      id = spanIdString = UInt64.toString(spanId);
+    }
+    return id;
+  }
+
+  /** @return the trace ID as an unsigned 64 bits number */
+  public long getTraceIdAsLong() {
+    return traceId;
+  }
+
+  /** @return the parent ID as an unsigned 64 bits number, 0 for a root span */
+  public long getParentIdAsLong() {
+    return parentId;
+  }
+
+  /** @return the span ID as an unsigned 64 bits number */
+  public long getSpanIdAsLong() {
     return spanId;
   }
 
@@ -283,42 +320,40 @@ public class DDSpanContext implements io.opentracing.SpanContext {
    * @param tag the tag-name
    * @param value the value of the tag. tags with null values are ignored.
    */
-  public synchronized void setTag(final String tag, final Object value) {
+  public void setTag(final String tag, final Object value) {
     if (value == null || (value instanceof String && ((String) value).isEmpty())) {
       tags.remove(tag);
       return;
     }
 
-    boolean addTag = true;
-
-    // Call decorators
-    final List<AbstractDecorator> decorators = tracer.getSpanContextDecorators(tag);
-    if (decorators != null) {
-      for (final AbstractDecorator decorator : decorators) {
-        try {
-          addTag &= decorator.shouldSetTag(this, tag, value);
-        } catch (final Throwable ex) {
-          log.debug(
-              "Could not decorate the span decorator={}: {}",
-              decorator.getClass().getSimpleName(),
-              ex.getMessage());
-        }
-      }
-    }
-
-    if (addTag) {
+    if (tracer.getDecoratorTable().decorate(this, tag, value)) {
       tags.put(tag, value);
     }
   }
 
-  public synchronized Map<String, Object> getTags() {
-    tags.put(DDTags.THREAD_NAME, threadName);
-    tags.put(DDTags.THREAD_ID, threadId);
-    final String spanType = getSpanType();
-    if (spanType != null) {
-      tags.put(DDTags.SPAN_TYPE, spanType);
+  /**
+   * Value of a single tag, without the span metadata returned by {@link #getTags()}. Meant for
+   * decorators reading other tags while a tag is being set, and samplers reading a single tag.
+   *
+   * @param tag the tag-name
+   * @return the value of the tag, or null
+   */
+  public Object getTag(final String tag) {
+    return ErrorStack.render(tags.get(tag));
+  }
+
+  /**
+   * Tags of the span, and the span metadata which is reported with them: thread name, thread id and
+   * span type.
+   *
+   * @return a read-only view of the tags
+   */
+  public Map<String, Object> getTags() {
+    Map<String, Object> view = tagsView;
+    if (view == null) {
+      view = tagsView = new TagsView();
     }
-    return Collections.unmodifiableMap(tags);
+    return view;
   }
 
   @Override
@@ -326,11 +361,11 @@ public class DDSpanContext implements io.opentracing.SpanContext {
     final StringBuilder s =
         new StringBuilder()
             .append("DDSpan [ t_id=")
-            .append(traceId)
+            .append(getTraceId())
             .append(", s_id=")
-            .append(spanId)
+            .append(getSpanId())
             .append(", p_id=")
-            .append(parentId)
+            .append(getParentId())
             .append("] trace=")
             .append(getServiceName())
             .append("/")
@@ -347,4 +382,125 @@ public class DDSpanContext implements io.opentracing.SpanContext {
     }
     return s.toString();
   }
+
+  /**
+   * Tags with the span metadata on top, added when read instead of being stored with every span.
+   * Metadata take precedence over tags with the same name.
+   */
+  private final class TagsView extends AbstractMap<String, Object> {
+    private final Set<Map.Entry<String, Object>> entrySet =
+        new AbstractSet<Map.Entry<String, Object>>() {
+          @Override
+          public Iterator<Map.Entry<String, Object>> iterator() {
+            return new TagsViewIterator(getSpanType());
+          }
+
+          @Override
+          public int size() {
+            return TagsView.this.size();
+          }
+        };
+
+    @Override
+    public Object get(final Object key) {
+      if (DDTags.THREAD_NAME.equals(key)) {
+        return threadName;
+      } else if (DDTags.THREAD_ID.equals(key)) {
+        return threadId;
+      } else if (DDTags.SPAN_TYPE.equals(key)) {
+        final String spanType = getSpanType();
+        if (spanType != null) {
+          return spanType;
+        }
+      }
+      return ErrorStack.render(tags.get(key));
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+      return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+      int size = tags.size() + 2;
+      if (tags.containsKey(DDTags.THREAD_NAME)) {
+        size--;
+      }
+      if (tags.containsKey(DDTags.THREAD_ID)) {
+        size--;
+      }
+      if (getSpanType() != null && !tags.containsKey(DDTags.SPAN_TYPE)) {
+        size++;
+      }
+      return size;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+      return entrySet;
+    }
+  }
+
+  private final class TagsViewIterator implements Iterator<Map.Entry<String, Object>> {
+    private final Iterator<Map.Entry<String, Object>> tagsIterator = tags.entrySet().iterator();
+    private final String spanType;
+    private int metadataIndex = 0;
+    private Map.Entry<String, Object> next;
+
+    private TagsViewIterator(final String spanType) {
+      this.spanType = spanType;
+      next = advance();
+    }
+
+    private Map.Entry<String, Object> advance() {
+      while (tagsIterator.hasNext()) {
+        final Map.Entry<String, Object> entry = tagsIterator.next();
+        final String key = entry.getKey();
+        if (!DDTags.THREAD_NAME.equals(key)
+            && !DDTags.THREAD_ID.equals(key)
+            && (spanType == null || !DDTags.SPAN_TYPE.equals(key))) {
+          if (entry.getValue() instanceof ErrorStack) {
+            return new AbstractMap.SimpleImmutableEntry<>(key, ErrorStack.render(entry.getValue()));
+          }
+          return entry;
+        }
+      }
+      switch (metadataIndex++) {
+        case 0:
+          return new AbstractMap.SimpleImmutableEntry<String, Object>(
+              DDTags.THREAD_NAME, threadName);
+        case 1:
+          return new AbstractMap.SimpleImmutableEntry<String, Object>(DDTags.THREAD_ID, threadId);
+        case 2:
+          if (spanType != null) {
+            return new AbstractMap.SimpleImmutableEntry<String, Object>(
+                DDTags.SPAN_TYPE, spanType);
+          }
+          return null;
+        default:
+          return null;
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public Map.Entry<String, Object> next() {
+      final Map.Entry<String, Object> entry = next;
+      if (entry == null) {
+        throw new NoSuchElementException();
+      }
+      next = advance();
+      return entry;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
 }
@@ -14,6 +14,8 @@ import datadog.trace.api.interceptor.TraceInterceptor;
 import datadog.trace.api.sampling.PrioritySampling;
 import datadog.trace.common.sampling.RateByServiceSampler;
 import datadog.trace.common.sampling.Sampler;
+import datadog.trace.common.stats.SpanStatsAggregator;
+import datadog.trace.common.util.UInt64;
 import datadog.trace.common.writer.DDAgentWriter;
 import datadog.trace.common.writer.DDApi;
 import datadog.trace.common.writer.Writer;
@@ -25,6 +27,7 @@ import io.opentracing.SpanContext;
 import io.opentracing.propagation.Format;
 import java.io.Closeable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -35,9 +38,8 @@ import java.util.Properties;
 import java.util.ServiceConfigurationError;
 import java.util.ServiceLoader;
 import java.util.SortedSet;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import lombok.extern.slf4j.Slf4j;
 
@@ -60,15 +62,28 @@ public class DDTracer implements io.opentracing.Tracer, Closeable, datadog.trace
   private final Map<String, String> defaultSpanTags;
   /** A configured mapping of service names to update with new values */
   private final Map<String, String> serviceNameMappings;
+  /** Time after which traces still pending are written with their finished spans, 0 to disable */
+  final long pendingTraceTimeoutNanos;
+  /** Finished spans of a pending trace written as a chunk, 0 to disable */
+  final int partialFlushMinSpans;
+  /** Age of the oldest finished span of a pending trace written as a chunk, 0 to disable */
+  final long partialFlushMaxAgeNanos;
+  /**
+   * Debugging option tracking each span and continuation with a weak reference, to report the
+   * traces as soon as one of them is garbage collected unfinished. Otherwise they are counted, and
+   * only the whole trace is noticed once unreachable.
+   */
+  final boolean spanWeakReferencesEnabled;
+  /** Renders the error stacks of the spans once they are written */
+  final StackTraceRenderer errorStackRenderer;
   /**
    * JVM shutdown callback, keeping a reference to it to remove this if DDTracer gets destroyed
    * earlier
    */
   private final Thread shutdownCallback;
 
-  /** Span context decorators */
-  private final Map<String, List<AbstractDecorator>> spanContextDecorators =
-      new ConcurrentHashMap<>();
+  /** Span context decorators, replaced as a whole when a decorator is added */
+  private volatile DecoratorTable spanContextDecorators = DecoratorTable.EMPTY;
 
   private final SortedSet<TraceInterceptor> interceptors =
       new ConcurrentSkipListSet<>(
@@ -81,6 +96,8 @@ public class DDTracer implements io.opentracing.Tracer, Closeable, datadog.trace
   private final CodecRegistry registry;
 
   private final AtomicInteger traceCount;
+  /** Computes the stats sent to the agent when enabled, null otherwise */
+  private final SpanStatsAggregator statsAggregator;
 
   /** By default, report to local agent and collect all traces. */
   public DDTracer() {
@@ -106,6 +123,7 @@ public class DDTracer implements io.opentracing.Tracer, Closeable, datadog.trace
 
   private DDTracer(final String serviceName, final Config config) {
     this(
+        config,
         serviceName,
         Writer.Builder.forConfig(config),
         Sampler.Builder.forConfig(config),
@@ -138,6 +156,7 @@ public class DDTracer implements io.opentracing.Tracer, Closeable, datadog.trace
 
   public DDTracer(final Config config, final Writer writer) {
     this(
+        config,
         config.getServiceName(),
         writer,
         Sampler.Builder.forConfig(config),
@@ -155,6 +174,30 @@ public class DDTracer implements io.opentracing.Tracer, Closeable, datadog.trace
       final Map<String, String> defaultSpanTags,
       final Map<String, String> serviceNameMappings,
       final Map<String, String> taggedHeaders) {
+    this(
+        Config.get(),
+        serviceName,
+        writer,
+        sampler,
+        runtimeId,
+        defaultSpanTags,
+        serviceNameMappings,
+        taggedHeaders);
+  }
+
+  /**
+   * @param config the settings of the pending traces, partial flushes and error stacks, the other
+   *     arguments are given explicitly
+   */
+  DDTracer(
+      final Config config,
+      final String serviceName,
+      final Writer writer,
+      final Sampler sampler,
+      final String runtimeId,
+      final Map<String, String> defaultSpanTags,
+      final Map<String, String> serviceNameMappings,
+      final Map<String, String> taggedHeaders) {
     assert runtimeId != null;
     assert defaultSpanTags != null;
     assert serviceNameMappings != null;
@@ -167,6 +210,12 @@ public class DDTracer implements io.opentracing.Tracer, Closeable, datadog.trace
     this.defaultSpanTags = defaultSpanTags;
     this.runtimeId = runtimeId;
     this.serviceNameMappings = serviceNameMappings;
+    pendingTraceTimeoutNanos = TimeUnit.SECONDS.toNanos(config.getPendingTraceTimeoutSeconds());
+    partialFlushMinSpans = config.getPartialFlushMinSpans();
+    partialFlushMaxAgeNanos = TimeUnit.SECONDS.toNanos(config.getPartialFlushMaxAgeSeconds());
+    spanWeakReferencesEnabled = config.isSpanWeakReferencesEnabled();
+    errorStackRenderer =
+        new StackTraceRenderer(config.getErrorStackMaxDepth(), config.getErrorStackMaxSize());
 
     shutdownCallback =
         new Thread() {
@@ -190,8 +239,13 @@ public class DDTracer implements io.opentracing.Tracer, Closeable, datadog.trace
       if (sampler instanceof DDApi.ResponseListener) {
         api.addResponseListener((DDApi.ResponseListener) this.sampler);
       }
+      statsAggregator =
+          api.isStatsComputationEnabled()
+              ? new SpanStatsAggregator(api, runtimeId, defaultSpanTags.get("env"))
+              : null;
     } else {
       traceCount = new AtomicInteger(0);
+      statsAggregator = null;
     }
 
     registerClassLoader(ClassLoader.getSystemClassLoader());
@@ -217,7 +271,14 @@ public class DDTracer implements io.opentracing.Tracer, Closeable, datadog.trace
    * @return the list of span context decorators
    */
   public List<AbstractDecorator> getSpanContextDecorators(final String tag) {
-    return spanContextDecorators.get(tag);
+    final AbstractDecorator[] decorators = spanContextDecorators.get(tag);
+    return decorators == null
+        ? null
+        : Collections.unmodifiableList(Arrays.asList(decorators));
+  }
+
+  DecoratorTable getDecoratorTable() {
+    return spanContextDecorators;
   }
 
   /**
@@ -225,15 +286,8 @@ public class DDTracer implements io.opentracing.Tracer, Closeable, datadog.trace
    *
    * @param decorator The decorator in the list
    */
-  public void addDecorator(final AbstractDecorator decorator) {
-
-    List<AbstractDecorator> list = spanContextDecorators.get(decorator.getMatchingTag());
-    if (list == null) {
-      list = new ArrayList<>();
-    }
-    list.add(decorator);
-
-    spanContextDecorators.put(decorator.getMatchingTag(), list);
+  public synchronized void addDecorator(final AbstractDecorator decorator) {
+    spanContextDecorators = spanContextDecorators.with(decorator);
   }
 
   public void addScopeContext(final ScopeContext context) {
@@ -297,35 +351,78 @@ public class DDTracer implements io.opentracing.Tracer, Closeable, datadog.trace
 
   /**
    * We use the sampler to know if the trace has to be reported/written. The sampler is called on
-   * the first span (root span) of the trace. If the trace is marked as a sample, we report it.
+   * the first span (root span) of the trace, before the interceptors: dropped traces skip them.
+   *
+   * <p>Interceptors work on the pending trace itself, written once complete. The spans are only
+   * copied once, to hand them to the writer, unless an interceptor replaces the collection, and
+   * once more for the stats when the tracer computes them. The stats count all the traces, before
+   * the sampler and the interceptors.
    *
    * @param trace a list of the spans related to the same trace
    */
   void write(final PendingTrace trace) {
-    if (trace.isEmpty()) {
+    final DDSpan first = trace.peekFirst();
+    if (first == null) {
       return;
     }
-    final ArrayList<DDSpan> writtenTrace;
-    if (interceptors.isEmpty()) {
-      writtenTrace = new ArrayList<>(trace);
-    } else {
-      Collection<? extends MutableSpan> interceptedTrace = new ArrayList<>(trace);
-      for (final TraceInterceptor interceptor : interceptors) {
-        interceptedTrace = interceptor.onTraceComplete(interceptedTrace);
-      }
-      writtenTrace = new ArrayList<>(interceptedTrace.size());
-      for (final MutableSpan span : interceptedTrace) {
-        if (span instanceof DDSpan) {
-          writtenTrace.add((DDSpan) span);
-        }
+    incrementTraceCount();
+    // The stats count the traces before they are sampled or changed by the interceptors
+    final boolean counted =
+        statsAggregator != null
+            && statsAggregator.record(copyOf(trace), !trace.isPartiallyFlushed());
+    if (!sampler.sample(first)) {
+      return;
+    }
+
+    Collection<? extends MutableSpan> interceptedTrace = trace;
+    for (final TraceInterceptor interceptor : interceptors) {
+      interceptedTrace = interceptor.onTraceComplete(interceptedTrace);
+    }
+    final List<DDSpan> writtenTrace = copyOf(interceptedTrace);
+    if (writtenTrace.isEmpty()) {
+      return;
+    }
+    if (counted && isPriorityDropped(writtenTrace.get(0))) {
+      // Already counted by the tracer, the agent would drop it anyway
+      return;
+    }
+    writer.write(writtenTrace);
+  }
+
+  /** Copy the spans for the writer, which keeps them after the interceptors return */
+  private static List<DDSpan> copyOf(final Collection<? extends MutableSpan> spans) {
+    final ArrayList<DDSpan> copy = new ArrayList<>(spans.size());
+    for (final MutableSpan span : spans) {
+      if (span instanceof DDSpan) {
+        copy.add((DDSpan) span);
       }
     }
-    incrementTraceCount();
-    if (!writtenTrace.isEmpty() && sampler.sample(writtenTrace.get(0))) {
-      writer.write(writtenTrace);
+    return copy;
+  }
+
+  /**
+   * Write a chunk of the finished spans of a trace still pending. Interceptors are not called: they
+   * only see the last chunk, once the trace is complete.
+   *
+   * @param spans finished spans of the same trace
+   */
+  void writePartial(final List<DDSpan> spans) {
+    if (statsAggregator != null
+        && statsAggregator.record(spans, false)
+        && isPriorityDropped(spans.get(0))) {
+      return;
+    }
+    if (sampler.sample(spans.get(0))) {
+      writer.write(spans);
     }
   }
 
+  private static boolean isPriorityDropped(final DDSpan span) {
+    final int samplingPriority = span.context().getSamplingPriority();
+    return samplingPriority == PrioritySampling.SAMPLER_DROP
+        || samplingPriority == PrioritySampling.USER_DROP;
+  }
+
   /** Increment the reported trace count, but do not write a trace. */
   void incrementTraceCount() {
     traceCount.incrementAndGet();
@@ -357,6 +454,9 @@ public class DDTracer implements io.opentracing.Tracer, Closeable, datadog.trace
   @Override
   public void close() {
     PendingTrace.close();
+    if (statsAggregator != null) {
+      statsAggregator.close();
+    }
     writer.close();
   }
 
@@ -536,10 +636,8 @@ public class DDTracer implements io.opentracing.Tracer, Closeable, datadog.trace
       return this;
     }
 
-    private String generateNewId() {
-      // TODO: expand the range of numbers generated to be from 1 to uint 64 MAX
-      // Ensure the generated ID is in a valid range:
-      return String.valueOf(ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE));
+    private long generateNewId() {
+      return UInt64.randomId();
     }
 
     /**
@@ -549,9 +647,9 @@ public class DDTracer implements io.opentracing.Tracer, Closeable, datadog.trace
      * @return the context
      */
     private DDSpanContext buildSpanContext() {
-      final String traceId;
-      final String spanId = generateNewId();
-      final String parentSpanId;
+      final long traceId;
+      final long spanId = generateNewId();
+      final long parentSpanId;
       final Map<String, String> baggage;
       final PendingTrace parentTrace;
       final int samplingPriority;
@@ -569,8 +667,8 @@ public class DDTracer implements io.opentracing.Tracer, Closeable, datadog.trace
       // Propagate internal trace
       if (parentContext instanceof DDSpanContext) {
         final DDSpanContext ddsc = (DDSpanContext) parentContext;
-        traceId = ddsc.getTraceId();
-        parentSpanId = ddsc.getSpanId();
+        traceId = ddsc.getTraceIdAsLong();
+        parentSpanId = ddsc.getSpanIdAsLong();
         baggage = ddsc.getBaggageItems();
         parentTrace = ddsc.getTrace();
         samplingPriority = PrioritySampling.UNSET;
@@ -585,14 +683,14 @@ public class DDTracer implements io.opentracing.Tracer, Closeable, datadog.trace
         if (parentContext instanceof ExtractedContext) {
           // Propagate external trace
           final ExtractedContext extractedContext = (ExtractedContext) parentContext;
-          traceId = extractedContext.getTraceId();
-          parentSpanId = extractedContext.getSpanId();
+          traceId = extractedContext.getTraceIdAsLong();
+          parentSpanId = extractedContext.getSpanIdAsLong();
           samplingPriority = extractedContext.getSamplingPriority();
           baggage = extractedContext.getBaggage();
         } else {
           // Start a new trace
           traceId = generateNewId();
-          parentSpanId = "0";
+          parentSpanId = 0;
           samplingPriority = PrioritySampling.UNSET;
           baggage = null;
         }
@@ -636,22 +734,8 @@ public class DDTracer implements io.opentracing.Tracer, Closeable, datadog.trace
           continue;
         }
 
-        boolean addTag = true;
-
-        // Call decorators
-        final List<AbstractDecorator> decorators = getSpanContextDecorators(tag.getKey());
-        if (decorators != null) {
-          for (final AbstractDecorator decorator : decorators) {
-            try {
-              addTag &= decorator.shouldSetTag(context, tag.getKey(), tag.getValue());
-            } catch (final Throwable ex) {
-              log.debug(
-                  "Could not decorate the span decorator={}: {}",
-                  decorator.getClass().getSimpleName(),
-                  ex.getMessage());
-            }
-          }
-        }
+        final boolean addTag =
+            spanContextDecorators.decorate(context, tag.getKey(), tag.getValue());
 
         if (!addTag) {
           context.setTag(tag.getKey(), null);
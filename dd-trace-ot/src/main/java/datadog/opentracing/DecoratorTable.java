@@ -0,0 +1,131 @@
+package datadog.opentracing;
+
+import datadog.opentracing.decorators.AbstractDecorator;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Immutable dispatch table from tag names to the decorators matching them, built once when
+ * decorators are registered instead of being looked up in a shared map on every tag.
+ *
+ * <p>Tag names are interned so lookups for constant tag names match by identity. Tags with a
+ * length no decorator matches, the common case, are rejected without hashing.
+ */
+@Slf4j
+final class DecoratorTable {
+  static final DecoratorTable EMPTY =
+      new DecoratorTable(Collections.<String, AbstractDecorator[]>emptyMap());
+
+  private final String[] tags;
+  private final AbstractDecorator[][] decorators;
+  private final int mask;
+  private final int minTagLength;
+  private final int maxTagLength;
+  private final int size;
+
+  private DecoratorTable(final Map<String, AbstractDecorator[]> entries) {
+    int capacity = 16;
+    while (capacity < entries.size() * 4) {
+      capacity <<= 1;
+    }
+    tags = new String[capacity];
+    decorators = new AbstractDecorator[capacity][];
+    mask = capacity - 1;
+
+    int minLength = Integer.MAX_VALUE;
+    int maxLength = -1;
+    for (final Map.Entry<String, AbstractDecorator[]> entry : entries.entrySet()) {
+      final String tag = entry.getKey().intern();
+      int index = tag.hashCode() & mask;
+      while (tags[index] != null) {
+        index = (index + 1) & mask;
+      }
+      tags[index] = tag;
+      decorators[index] = entry.getValue();
+      minLength = Math.min(minLength, tag.length());
+      maxLength = Math.max(maxLength, tag.length());
+    }
+    minTagLength = minLength;
+    maxTagLength = maxLength;
+    size = entries.size();
+  }
+
+  /** @return the number of tags with decorators */
+  int size() {
+    return size;
+  }
+
+  /**
+   * @param decorator the decorator to register
+   * @return a new table with the decorator added after the ones already matching the same tag
+   */
+  DecoratorTable with(final AbstractDecorator decorator) {
+    final Map<String, AbstractDecorator[]> entries = new LinkedHashMap<>();
+    for (int i = 0; i < tags.length; i++) {
+      if (tags[i] != null) {
+        entries.put(tags[i], decorators[i]);
+      }
+    }
+    final String tag = decorator.getMatchingTag();
+    final AbstractDecorator[] existing = entries.get(tag);
+    final AbstractDecorator[] updated;
+    if (existing == null) {
+      updated = new AbstractDecorator[] {decorator};
+    } else {
+      updated = Arrays.copyOf(existing, existing.length + 1);
+      updated[existing.length] = decorator;
+    }
+    entries.put(tag, updated);
+    return new DecoratorTable(entries);
+  }
+
+  /**
+   * @param tag the tag name
+   * @return the decorators matching the tag, or null if there are none
+   */
+  AbstractDecorator[] get(final String tag) {
+    final int length = tag.length();
+    if (length < minTagLength || length > maxTagLength) {
+      return null;
+    }
+    int index = tag.hashCode() & mask;
+    String candidate;
+    while ((candidate = tags[index]) != null) {
+      if (candidate == tag || candidate.equals(tag)) {
+        return decorators[index];
+      }
+      index = (index + 1) & mask;
+    }
+    return null;
+  }
+
+  /**
+   * Run the decorators matching the tag
+   *
+   * @param context the context being tagged
+   * @param tag the tag name
+   * @param value the tag value, not null
+   * @return true if the tag should be stored, false if a decorator replaced it
+   */
+  boolean decorate(final DDSpanContext context, final String tag, final Object value) {
+    final AbstractDecorator[] matching = get(tag);
+    if (matching == null) {
+      return true;
+    }
+    boolean addTag = true;
+    for (final AbstractDecorator decorator : matching) {
+      try {
+        addTag &= decorator.shouldSetTag(context, tag, value);
+      } catch (final Throwable ex) {
+        log.debug(
+            "Could not decorate the span decorator={}: {}",
+            decorator.getClass().getSimpleName(),
+            ex.getMessage());
+      }
+    }
+    return addTag;
+  }
+}
@@ -0,0 +1,40 @@
+package datadog.opentracing;
+
+/**
+ * Value of the error stack tag: the stack trace is only rendered when the tag is read, usually by
+ * the writer thread serializing the span, instead of by the application thread on error. The error
+ * is held until then.
+ */
+final class ErrorStack {
+  private final StackTraceRenderer renderer;
+
+  /** Released once rendered */
+  private volatile Throwable error;
+
+  private volatile String rendered;
+
+  ErrorStack(final Throwable error, final StackTraceRenderer renderer) {
+    this.error = error;
+    this.renderer = renderer;
+  }
+
+  @Override
+  public String toString() {
+    String value = rendered;
+    if (value == null) {
+      final Throwable error = this.error;
+      if (error == null) {
+        // Rendered concurrently
+        return rendered;
+      }
+      value = rendered = renderer.render(error);
+      this.error = null;
+    }
+    return value;
+  }
+
+  /** @return the rendered stack trace if the value is an error stack, the value otherwise */
+  static Object render(final Object value) {
+    return value instanceof ErrorStack ? value.toString() : value;
+  }
+}
@@ -2,30 +2,44 @@ package datadog.opentracing;
 
 import datadog.opentracing.scopemanager.ContinuableScope;
 import datadog.trace.common.util.Clock;
+import datadog.trace.common.util.UInt64;
 import java.io.Closeable;
+import java.lang.ref.PhantomReference;
 import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class PendingTrace extends ConcurrentLinkedDeque<DDSpan> {
   private static final SpanCleaner SPAN_CLEANER = new SpanCleaner();
 
+  /** Marks the spans and continuations counted without a weak reference */
+  private static final WeakReference<Object> COUNTED = new WeakReference<>(null);
+
+  private static final AtomicReferenceFieldUpdater<DDSpan, WeakReference> SPAN_REF =
+      AtomicReferenceFieldUpdater.newUpdater(DDSpan.class, WeakReference.class, "ref");
+  private static final AtomicReferenceFieldUpdater<ContinuableScope.Continuation, WeakReference>
+      CONTINUATION_REF =
+          AtomicReferenceFieldUpdater.newUpdater(
+              ContinuableScope.Continuation.class, WeakReference.class, "ref");
+
   private final DDTracer tracer;
-  private final String traceId;
+  private final long traceId;
   private final Map<String, String> serviceNameMappings;
 
   // TODO: consider moving these time fields into DDTracer to ensure that traces have precise
@@ -35,10 +49,26 @@ public class PendingTrace extends ConcurrentLinkedDeque<DDSpan> {
   /** Nano second ticks value at trace start */
   private final long startNanoTicks;
 
-  private final ReferenceQueue referenceQueue = new ReferenceQueue();
+  /**
+   * Keeps the trace reachable until it is written, see {@link SpanCleaner#schedule}. Null when the
+   * trace is only watched by its {@link #leakReference}.
+   */
+  private final Set<PendingTrace> expiryBucket;
+  /**
+   * Notices the trace once unreachable without being written, when its spans are only counted and
+   * it never expires. Null otherwise.
+   */
+  private final LeakReference leakReference;
+  /** Nano second ticks value after which the trace is written even if spans are pending */
+  private final long expiryNanoTicks;
+
+  /** Spans and continuations are only tracked one by one with the debugging option */
+  private final boolean weakReferencesEnabled;
+
   private final Set<WeakReference<?>> weakReferences =
       Collections.newSetFromMap(new ConcurrentHashMap<WeakReference<?>, Boolean>());
 
+  /** Spans and continuations not finished yet, the trace is written once it drops to 0 */
   private final AtomicInteger pendingReferenceCount = new AtomicInteger(0);
   /**
    * During a trace there are cases where the root span must be accessed (e.g. priority sampling and
@@ -55,16 +85,35 @@ public class PendingTrace extends ConcurrentLinkedDeque<DDSpan> {
   /** Ensure a trace is never written multiple times */
   private final AtomicBoolean isWritten = new AtomicBoolean(false);
 
+  /** Number of finished spans waiting to be written, the deque doesn't count in constant time */
+  private final AtomicInteger finishedSpanCount = new AtomicInteger(0);
+  /** Nano second ticks value when the oldest span waiting to be written finished */
+  private volatile long oldestFinishedNanoTicks;
+  /** True once some spans were written before the trace completion */
+  private volatile boolean partiallyFlushed = false;
+
   PendingTrace(
-      final DDTracer tracer, final String traceId, final Map<String, String> serviceNameMappings) {
+      final DDTracer tracer, final long traceId, final Map<String, String> serviceNameMappings) {
     this.tracer = tracer;
     this.traceId = traceId;
     this.serviceNameMappings = serviceNameMappings;
+    weakReferencesEnabled = tracer.spanWeakReferencesEnabled;
 
     startTimeNano = Clock.currentNanoTime();
     startNanoTicks = Clock.currentNanoTicks();
 
-    SPAN_CLEANER.pendingTraces.add(this);
+    expiryNanoTicks =
+        tracer.pendingTraceTimeoutNanos > 0
+            ? startNanoTicks + tracer.pendingTraceTimeoutNanos
+            : Long.MAX_VALUE;
+    if (weakReferencesEnabled || expiryNanoTicks != Long.MAX_VALUE) {
+      expiryBucket = SPAN_CLEANER.schedule(this, expiryNanoTicks);
+      leakReference = null;
+    } else {
+      // Unfinished spans keep the trace reachable: a trace collected was never completed
+      expiryBucket = null;
+      leakReference = SPAN_CLEANER.watch(this);
+    }
   }
 
   /**
@@ -82,48 +131,42 @@ public class PendingTrace extends ConcurrentLinkedDeque<DDSpan> {
   }
 
   public void registerSpan(final DDSpan span) {
-    if (traceId == null || span.context() == null) {
-      log.error(
-          "Failed to register span ({}) due to null PendingTrace traceId or null span context",
-          span);
+    if (span.context() == null) {
+      log.error("Failed to register span ({}) due to null span context", span);
       return;
     }
-    if (!traceId.equals(span.context().getTraceId())) {
-      log.debug("{} - span registered for wrong trace ({})", span, traceId);
+    if (traceId != span.context().getTraceIdAsLong()) {
+      log.debug("{} - span registered for wrong trace ({})", span, traceIdForLog());
       return;
     }
-    rootSpan.compareAndSet(null, new WeakReference<>(span));
-    synchronized (span) {
-      if (null == span.ref) {
-        span.ref = new WeakReference<DDSpan>(span, referenceQueue);
-        weakReferences.add(span.ref);
-        final int count = pendingReferenceCount.incrementAndGet();
-        log.debug("traceId: {} -- registered span {}. count = {}", traceId, span, count);
-      } else {
-        log.debug("span {} already registered in trace {}", span, traceId);
-      }
+    if (rootSpan.get() == null) {
+      rootSpan.compareAndSet(null, new WeakReference<>(span));
+    }
+    final WeakReference<?> ref = newReference(span);
+    if (SPAN_REF.compareAndSet(span, null, ref)) {
+      trackReference(ref);
+      final int count = pendingReferenceCount.incrementAndGet();
+      log.debug("traceId: {} -- registered span {}. count = {}", traceIdForLog(), span, count);
+    } else {
+      ref.clear();
+      log.debug("span {} already registered in trace {}", span, traceIdForLog());
     }
   }
 
   private void expireSpan(final DDSpan span) {
-    if (traceId == null || span.context() == null) {
-      log.error(
-          "Failed to expire span ({}) due to null PendingTrace traceId or null span context", span);
+    if (span.context() == null) {
+      log.error("Failed to expire span ({}) due to null span context", span);
       return;
     }
-    if (!traceId.equals(span.context().getTraceId())) {
-      log.debug("{} - span expired for wrong trace ({})", span, traceId);
+    if (traceId != span.context().getTraceIdAsLong()) {
+      log.debug("{} - span expired for wrong trace ({})", span, traceIdForLog());
       return;
     }
-    synchronized (span) {
-      if (null == span.ref) {
-        log.debug("span {} not registered in trace {}", span, traceId);
-      } else {
-        weakReferences.remove(span.ref);
-        span.ref.clear();
-        span.ref = null;
-        expireReference();
-      }
+    final WeakReference<?> ref = SPAN_REF.getAndSet(span, null);
+    if (ref == null) {
+      log.debug("span {} not registered in trace {}", span, traceIdForLog());
+    } else {
+      expireReference(ref);
     }
   }
 
@@ -132,12 +175,11 @@ public class PendingTrace extends ConcurrentLinkedDeque<DDSpan> {
       log.debug("{} - added to trace, but not complete.", span);
       return;
     }
-    if (traceId == null || span.context() == null) {
-      log.error(
-          "Failed to add span ({}) due to null PendingTrace traceId or null span context", span);
+    if (span.context() == null) {
+      log.error("Failed to add span ({}) due to null span context", span);
       return;
     }
-    if (!traceId.equals(span.getTraceId())) {
+    if (traceId != span.context().getTraceIdAsLong()) {
       log.debug("{} - added to a mismatched trace.", span);
       return;
     }
@@ -148,10 +190,70 @@ public class PendingTrace extends ConcurrentLinkedDeque<DDSpan> {
       }
 
       addFirst(span);
+      if (finishedSpanCount.getAndIncrement() == 0) {
+        oldestFinishedNanoTicks = Clock.currentNanoTicks();
+      }
     } else {
       log.debug("{} - finished after trace reported.", span);
     }
     expireSpan(span);
+    if (shouldPartialFlush()) {
+      partialFlush();
+    }
+  }
+
+  /**
+   * Partial flushes are decided when spans finish: a trace whose spans no longer finish waits for
+   * its completion or its pending timeout.
+   */
+  private boolean shouldPartialFlush() {
+    if (isWritten.get()) {
+      return false;
+    }
+    final int count = finishedSpanCount.get();
+    if (tracer.partialFlushMinSpans > 0 && count >= tracer.partialFlushMinSpans) {
+      return true;
+    }
+    return tracer.partialFlushMaxAgeNanos > 0
+        && count > 0
+        && Clock.currentNanoTicks() - oldestFinishedNanoTicks >= tracer.partialFlushMaxAgeNanos;
+  }
+
+  /**
+   * Write the finished spans of the trace as a chunk, except the root span which stays with the
+   * last chunk. The sampling priority can no longer change once a chunk is written.
+   */
+  private void partialFlush() {
+    final List<DDSpan> chunk;
+    synchronized (this) {
+      if (isWritten.get()) {
+        return;
+      }
+      final DDSpan root = getRootSpan();
+      chunk = new ArrayList<>(finishedSpanCount.get());
+      final Iterator<DDSpan> spans = descendingIterator();
+      while (spans.hasNext()) {
+        final DDSpan span = spans.next();
+        if (span != root) {
+          spans.remove();
+          chunk.add(span);
+        }
+      }
+      finishedSpanCount.addAndGet(-chunk.size());
+      oldestFinishedNanoTicks = Clock.currentNanoTicks();
+      if (chunk.isEmpty()) {
+        return;
+      }
+      partiallyFlushed = true;
+    }
+    log.debug("trace {} : writing a chunk of {} finished spans.", traceIdForLog(), chunk.size());
+    chunk.get(0).context().lockSamplingPriority();
+    tracer.writePartial(chunk);
+  }
+
+  /** @return true if some spans were written before the trace completion */
+  boolean isPartiallyFlushed() {
+    return partiallyFlushed;
   }
 
   public DDSpan getRootSpan() {
@@ -164,80 +266,177 @@ public class PendingTrace extends ConcurrentLinkedDeque<DDSpan> {
    * completed, so we need to wait till continuations are de-referenced before reporting.
    */
   public void registerContinuation(final ContinuableScope.Continuation continuation) {
-    synchronized (continuation) {
-      if (continuation.ref == null) {
-        continuation.ref =
-            new WeakReference<ContinuableScope.Continuation>(continuation, referenceQueue);
-        weakReferences.add(continuation.ref);
-        final int count = pendingReferenceCount.incrementAndGet();
-        log.debug(
-            "traceId: {} -- registered continuation {}. count = {}", traceId, continuation, count);
-      } else {
-        log.debug("continuation {} already registered in trace {}", continuation, traceId);
-      }
+    final WeakReference<?> ref = newReference(continuation);
+    if (CONTINUATION_REF.compareAndSet(continuation, null, ref)) {
+      trackReference(ref);
+      final int count = pendingReferenceCount.incrementAndGet();
+      log.debug(
+          "traceId: {} -- registered continuation {}. count = {}",
+          traceIdForLog(),
+          continuation,
+          count);
+    } else {
+      ref.clear();
+      log.debug("continuation {} already registered in trace {}", continuation, traceIdForLog());
     }
   }
 
   public void cancelContinuation(final ContinuableScope.Continuation continuation) {
-    synchronized (continuation) {
-      if (continuation.ref == null) {
-        log.debug("continuation {} not registered in trace {}", continuation, traceId);
-      } else {
-        weakReferences.remove(continuation.ref);
-        continuation.ref.clear();
-        continuation.ref = null;
-        expireReference();
-      }
+    final WeakReference<?> ref = CONTINUATION_REF.getAndSet(continuation, null);
+    if (ref == null) {
+      log.debug("continuation {} not registered in trace {}", continuation, traceIdForLog());
+    } else {
+      expireReference(ref);
     }
   }
 
+  /**
+   * A weak reference with the debugging option, so that the span or continuation is noticed if
+   * garbage collected unfinished. Otherwise a shared marker: it is only counted.
+   */
+  private WeakReference<?> newReference(final Object referent) {
+    return weakReferencesEnabled ? new TraceReference<>(referent, this) : COUNTED;
+  }
+
+  private void trackReference(final WeakReference<?> ref) {
+    if (ref != COUNTED) {
+      weakReferences.add(ref);
+    }
+  }
+
+  private void expireReference(final WeakReference<?> ref) {
+    if (ref != COUNTED) {
+      weakReferences.remove(ref);
+      ref.clear();
+    }
+    expireReference();
+  }
+
   private void expireReference() {
     final int count = pendingReferenceCount.decrementAndGet();
     if (count == 0) {
       write();
     }
-    log.debug("traceId: {} -- Expired reference. count = {}", traceId, count);
+    log.debug("traceId: {} -- Expired reference. count = {}", traceIdForLog(), count);
   }
 
   private void write() {
     if (isWritten.compareAndSet(false, true)) {
-      SPAN_CLEANER.pendingTraces.remove(this);
-      if (!isEmpty()) {
-        log.debug("Writing {} spans to {}.", size(), tracer.writer);
-        tracer.write(this);
+      release();
+      // Wait for a partial flush in progress to be done with the spans
+      synchronized (this) {
+        if (!isEmpty()) {
+          log.debug("Writing {} spans to {}.", size(), tracer.writer);
+          tracer.write(this);
+        }
       }
     }
   }
 
-  public synchronized boolean clean() {
-    Reference ref;
-    int count = 0;
-    while ((ref = referenceQueue.poll()) != null) {
-      weakReferences.remove(ref);
-      if (isWritten.compareAndSet(false, true)) {
-        SPAN_CLEANER.pendingTraces.remove(this);
-        // preserve throughput count.
-        // Don't report the trace because the data comes from buggy uses of the api and is suspect.
-        tracer.incrementTraceCount();
+  /** Called by the cleaner once the trace is removed from its bucket after its timeout */
+  private void expire() {
+    if (isWritten.compareAndSet(false, true)) {
+      log.debug(
+          "trace {} : {} references still pending after timeout. Writing {} finished spans.",
+          traceIdForLog(),
+          pendingReferenceCount.get(),
+          size());
+      synchronized (this) {
+        if (!isEmpty()) {
+          tracer.write(this);
+        }
       }
-      count++;
-      expireReference();
     }
-    if (count > 0) {
-      log.debug(
-          "trace {} : {} unfinished spans garbage collected. Trace will not report.",
-          traceId,
-          count);
+  }
+
+  private void referenceCollected(final Reference<?> ref) {
+    weakReferences.remove(ref);
+    if (isWritten.compareAndSet(false, true)) {
+      release();
+      // preserve throughput count.
+      // Don't report the trace because the data comes from buggy uses of the api and is suspect.
+      tracer.incrementTraceCount();
     }
-    return count > 0;
+    log.debug(
+        "trace {} : unfinished span or continuation garbage collected. Trace will not report.",
+        traceIdForLog());
+    expireReference();
+  }
+
+  /** The trace no longer needs to be kept reachable or watched once written */
+  private void release() {
+    if (expiryBucket != null) {
+      expiryBucket.remove(this);
+    }
+    if (leakReference != null) {
+      SPAN_CLEANER.forget(leakReference);
+    }
+  }
+
+  /**
+   * Process the spans and continuations garbage collected before being finished, in every trace.
+   *
+   * @return true if references were collected
+   */
+  public static boolean clean() {
+    return SPAN_CLEANER.collectReferences();
+  }
+
+  /** The decimal form of the trace ID is only built for log messages actually written */
+  private String traceIdForLog() {
+    return log.isDebugEnabled() ? UInt64.toString(traceId) : null;
   }
 
   static void close() {
     SPAN_CLEANER.close();
   }
 
+  /** Weak reference to a span or a continuation, enqueued with its trace once collected */
+  private static final class TraceReference<T> extends WeakReference<T> {
+    private final PendingTrace trace;
+
+    private TraceReference(final T referent, final PendingTrace trace) {
+      super(referent, SPAN_CLEANER.referenceQueue);
+      this.trace = trace;
+    }
+  }
+
+  /**
+   * Phantom reference to a trace whose spans are only counted, enqueued if the trace becomes
+   * unreachable before being written: some of its spans or continuations were never finished.
+   */
+  private static final class LeakReference extends PhantomReference<PendingTrace> {
+    private final DDTracer tracer;
+    private final long traceId;
+
+    private LeakReference(final PendingTrace trace) {
+      super(trace, SPAN_CLEANER.referenceQueue);
+      tracer = trace.tracer;
+      traceId = trace.traceId;
+    }
+
+    private void traceCollected() {
+      // preserve throughput count, the trace is not reported as for a span garbage collected
+      tracer.incrementTraceCount();
+      if (log.isDebugEnabled()) {
+        log.debug(
+            "trace {} : garbage collected with unfinished spans. Trace will not report.",
+            UInt64.toString(traceId));
+      }
+    }
+  }
+
+  /**
+   * Reports the traces whose spans were garbage collected unfinished, and writes the traces still
+   * pending after their timeout.
+   *
+   * <p>The references of every trace go to a single queue, so the work is proportional to the
+   * garbage collected instead of the number of pending traces. Expiring traces are kept in a hashed
+   * timer wheel: each tick only looks at the traces in one bucket.
+   */
   private static class SpanCleaner implements Runnable, Closeable {
-    private static final long CLEAN_FREQUENCY = 1;
+    private static final long TICK_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int WHEEL_SIZE = 512;
     private static final ThreadFactory FACTORY =
         new ThreadFactory() {
           @Override
@@ -248,34 +447,133 @@ public class PendingTrace extends ConcurrentLinkedDeque<DDSpan> {
           }
         };
 
-    private final ScheduledExecutorService executorService =
-        Executors.newScheduledThreadPool(1, FACTORY);
+    private final ReferenceQueue<Object> referenceQueue = new ReferenceQueue<>();
 
-    private final Set<PendingTrace> pendingTraces =
-        Collections.newSetFromMap(new ConcurrentHashMap<PendingTrace, Boolean>());
+    private final long startNanoTicks = Clock.currentNanoTicks();
+    /** Traces by tick of expiry, modulo the wheel size */
+    private final Set<PendingTrace>[] wheel;
+    /** Traces which don't expire, only kept reachable until written */
+    private final Set<PendingTrace> unscheduled = newTraceSet();
+    /** Keeps the references to the watched traces reachable until they are written */
+    private final Set<LeakReference> leakReferences =
+        Collections.newSetFromMap(new ConcurrentHashMap<LeakReference, Boolean>());
+    /** Next tick to process, only accessed by the cleaner thread */
+    private long currentTick = 1;
 
+    private final Thread thread;
+
+    @SuppressWarnings("unchecked")
     public SpanCleaner() {
-      executorService.scheduleAtFixedRate(this, 0, CLEAN_FREQUENCY, TimeUnit.SECONDS);
+      wheel = new Set[WHEEL_SIZE];
+      for (int i = 0; i < WHEEL_SIZE; i++) {
+        wheel[i] = newTraceSet();
+      }
+      thread = FACTORY.newThread(this);
+      thread.start();
+    }
+
+    private static Set<PendingTrace> newTraceSet() {
+      return Collections.newSetFromMap(new ConcurrentHashMap<PendingTrace, Boolean>());
+    }
+
+    /**
+     * Keep the trace until it is written, expiring it at the given time
+     *
+     * @return the set holding the trace, to remove it from once written
+     */
+    Set<PendingTrace> schedule(final PendingTrace trace, final long expiryNanoTicks) {
+      final Set<PendingTrace> bucket;
+      if (expiryNanoTicks == Long.MAX_VALUE) {
+        bucket = unscheduled;
+      } else {
+        // First tick at or after the expiry
+        final long tick =
+            Math.max(1, (expiryNanoTicks - startNanoTicks + TICK_NANOS - 1) / TICK_NANOS);
+        bucket = wheel[(int) (tick % WHEEL_SIZE)];
+      }
+      bucket.add(trace);
+      return bucket;
+    }
+
+    LeakReference watch(final PendingTrace trace) {
+      final LeakReference ref = new LeakReference(trace);
+      leakReferences.add(ref);
+      return ref;
+    }
+
+    void forget(final LeakReference ref) {
+      // A cleared reference is never enqueued
+      ref.clear();
+      leakReferences.remove(ref);
     }
 
     @Override
     public void run() {
-      for (final PendingTrace trace : pendingTraces) {
-        trace.clean();
+      try {
+        while (!Thread.currentThread().isInterrupted()) {
+          final long untilNextTick =
+              startNanoTicks + currentTick * TICK_NANOS - Clock.currentNanoTicks();
+          if (untilNextTick > 0) {
+            final Reference<?> ref =
+                referenceQueue.remove(Math.max(1, TimeUnit.NANOSECONDS.toMillis(untilNextTick)));
+            if (ref != null) {
+              referenceCollected(ref);
+              collectReferences();
+            }
+          } else {
+            expireBucket(wheel[(int) (currentTick % WHEEL_SIZE)]);
+            currentTick++;
+          }
+        }
+      } catch (final InterruptedException e) {
+        // Closing
+      }
+    }
+
+    boolean collectReferences() {
+      Reference<?> ref;
+      int count = 0;
+      while ((ref = referenceQueue.poll()) != null) {
+        referenceCollected(ref);
+        count++;
+      }
+      return count > 0;
+    }
+
+    private void referenceCollected(final Reference<?> ref) {
+      if (ref instanceof LeakReference) {
+        final LeakReference leakReference = (LeakReference) ref;
+        leakReferences.remove(leakReference);
+        leakReference.traceCollected();
+      } else {
+        ((TraceReference<?>) ref).trace.referenceCollected(ref);
+      }
+    }
+
+    private void expireBucket(final Set<PendingTrace> bucket) {
+      final long now = Clock.currentNanoTicks();
+      final Iterator<PendingTrace> traces = bucket.iterator();
+      while (traces.hasNext()) {
+        final PendingTrace trace = traces.next();
+        // Traces further in the future wait for the next turn of the wheel
+        if (trace.expiryNanoTicks - now <= 0) {
+          traces.remove();
+          trace.expire();
+        }
       }
     }
 
     @Override
     public void close() {
-      executorService.shutdownNow();
+      thread.interrupt();
       try {
-        executorService.awaitTermination(500, TimeUnit.MILLISECONDS);
+        thread.join(500);
       } catch (final InterruptedException e) {
         log.info("Writer properly closed and async writer interrupted.");
       }
 
       // Make sure that whatever was left over gets cleaned up
-      run();
+      collectReferences();
     }
   }
 }
@@ -0,0 +1,163 @@
+package datadog.opentracing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Renders stack traces as {@link Throwable#printStackTrace()} does, with a limit of frames per
+ * throwable and a limit of characters.
+ *
+ * <p>Identical stack traces, with the same frames and messages, are only rendered once: the last
+ * rendered ones are kept by fingerprint. Errors tend to repeat the same stack traces, all the more
+ * during an outage.
+ */
+final class StackTraceRenderer {
+  static final int CACHE_CAPACITY = 128;
+  private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+  private final int maxDepth;
+  private final int maxSize;
+
+  /** Rendered stack traces by fingerprint, guarded by itself */
+  private final Map<List<Object>, String> cache =
+      new LinkedHashMap<List<Object>, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<List<Object>, String> eldest) {
+          return size() > CACHE_CAPACITY;
+        }
+      };
+
+  /**
+   * @param maxDepth the frames rendered for each throwable, 0 for all of them
+   * @param maxSize the characters rendered, 0 for no limit
+   */
+  StackTraceRenderer(final int maxDepth, final int maxSize) {
+    this.maxDepth = maxDepth > 0 ? maxDepth : Integer.MAX_VALUE;
+    this.maxSize = maxSize > 0 ? maxSize : Integer.MAX_VALUE;
+  }
+
+  String render(final Throwable error) {
+    final List<Object> fingerprint = new ArrayList<>();
+    fingerprint(error, fingerprint, newIdentitySet());
+    synchronized (cache) {
+      final String rendered = cache.get(fingerprint);
+      if (rendered != null) {
+        return rendered;
+      }
+    }
+
+    final StringBuilder out = new StringBuilder();
+    out.append(error).append(LINE_SEPARATOR);
+    final StackTraceElement[] frames = error.getStackTrace();
+    final Set<Throwable> seen = newIdentitySet();
+    seen.add(error);
+    appendFrames(out, frames, frames.length - 1, "");
+    for (final Throwable suppressed : error.getSuppressed()) {
+      appendEnclosed(out, suppressed, frames, "Suppressed: ", "\t", seen);
+    }
+    if (error.getCause() != null) {
+      appendEnclosed(out, error.getCause(), frames, "Caused by: ", "", seen);
+    }
+    final String rendered = out.length() > maxSize ? out.substring(0, maxSize) : out.toString();
+
+    synchronized (cache) {
+      cache.put(fingerprint, rendered);
+    }
+    return rendered;
+  }
+
+  /** Same structure as the rendering, with the frames instead of their text */
+  private static void fingerprint(
+      final Throwable error, final List<Object> fingerprint, final Set<Throwable> seen) {
+    if (!seen.add(error)) {
+      fingerprint.add("[CIRCULAR REFERENCE: " + error + "]");
+      return;
+    }
+    fingerprint.add(error.toString());
+    fingerprint.add(Arrays.asList(error.getStackTrace()));
+    final Throwable[] suppressed = error.getSuppressed();
+    fingerprint.add(suppressed.length);
+    for (final Throwable throwable : suppressed) {
+      fingerprint(throwable, fingerprint, seen);
+    }
+    if (error.getCause() != null) {
+      fingerprint(error.getCause(), fingerprint, seen);
+    }
+  }
+
+  private void appendEnclosed(
+      final StringBuilder out,
+      final Throwable error,
+      final StackTraceElement[] enclosingFrames,
+      final String caption,
+      final String prefix,
+      final Set<Throwable> seen) {
+    if (out.length() > maxSize) {
+      return;
+    }
+    if (!seen.add(error)) {
+      out.append(prefix)
+          .append(caption)
+          .append("[CIRCULAR REFERENCE: ")
+          .append(error)
+          .append(']')
+          .append(LINE_SEPARATOR);
+      return;
+    }
+    final StackTraceElement[] frames = error.getStackTrace();
+    // Frames in common with the enclosing trace are not repeated
+    int last = frames.length - 1;
+    int enclosingLast = enclosingFrames.length - 1;
+    while (last >= 0
+        && enclosingLast >= 0
+        && frames[last].equals(enclosingFrames[enclosingLast])) {
+      last--;
+      enclosingLast--;
+    }
+
+    out.append(prefix).append(caption).append(error).append(LINE_SEPARATOR);
+    appendFrames(out, frames, last, prefix);
+    final int framesInCommon = frames.length - 1 - last;
+    if (framesInCommon != 0) {
+      out.append(prefix)
+          .append("\t... ")
+          .append(framesInCommon)
+          .append(" more")
+          .append(LINE_SEPARATOR);
+    }
+    for (final Throwable suppressed : error.getSuppressed()) {
+      appendEnclosed(out, suppressed, frames, "Suppressed: ", prefix + "\t", seen);
+    }
+    if (error.getCause() != null) {
+      appendEnclosed(out, error.getCause(), frames, "Caused by: ", prefix, seen);
+    }
+  }
+
+  private void appendFrames(
+      final StringBuilder out,
+      final StackTraceElement[] frames,
+      final int last,
+      final String prefix) {
+    final int rendered = Math.min(last + 1, maxDepth);
+    for (int i = 0; i < rendered && out.length() <= maxSize; i++) {
+      out.append(prefix).append("\tat ").append(frames[i]).append(LINE_SEPARATOR);
+    }
+    if (rendered < last + 1) {
+      out.append(prefix)
+          .append("\t... ")
+          .append(last + 1 - rendered)
+          .append(" frames truncated")
+          .append(LINE_SEPARATOR);
+    }
+  }
+
+  private static Set<Throwable> newIdentitySet() {
+    return Collections.newSetFromMap(new IdentityHashMap<Throwable, Boolean>());
+  }
+}
@@ -0,0 +1,284 @@
+package datadog.opentracing;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tag storage of a span, optimized for a span tagged by a single thread.
+ *
+ * <p>The first {@link #INLINE_CAPACITY} tags are stored in an array scanned linearly, tag names
+ * being mostly constants compared by identity. Bigger maps move to a {@link ConcurrentHashMap}.
+ *
+ * <p>Writers synchronize on the map, which is uncontended in the common case. Readers don't lock:
+ * they see every tag added before the last write they observed, and iterators are weakly
+ * consistent. Entries never move in the array: a removed tag leaves a hole, filled by the next
+ * tag added, so a concurrent iterator never skips a tag still in the map.
+ *
+ * <p>Null keys and values are not supported.
+ */
+final class TagMap extends AbstractMap<String, Object> {
+  static final int INLINE_CAPACITY = 16;
+
+  private final TagEntry[] inline = new TagEntry[INLINE_CAPACITY];
+  /** Number of slots used in {@link #inline}, holes included, written after the entries */
+  private volatile int inlineSize = 0;
+  /** Number of entries in {@link #inline}, written after the entries */
+  private volatile int inlineCount = 0;
+  /** Replaces {@link #inline} once it is full */
+  private volatile ConcurrentHashMap<String, TagEntry> overflow = null;
+
+  private final Set<Map.Entry<String, Object>> entrySet = new EntrySet();
+
+  @Override
+  public Object get(final Object key) {
+    final TagEntry entry = getEntry(key);
+    return entry == null ? null : entry.value;
+  }
+
+  @Override
+  public boolean containsKey(final Object key) {
+    return getEntry(key) != null;
+  }
+
+  @Override
+  public int size() {
+    final Map<String, TagEntry> overflow = this.overflow;
+    return overflow == null ? inlineCount : overflow.size();
+  }
+
+  @Override
+  public Object put(final String key, final Object value) {
+    if (key == null || value == null) {
+      throw new NullPointerException();
+    }
+    synchronized (this) {
+      final TagEntry existing = getEntry(key);
+      if (existing != null) {
+        final Object previous = existing.value;
+        existing.value = value;
+        return previous;
+      }
+      final TagEntry entry = new TagEntry(key, value);
+      final ConcurrentHashMap<String, TagEntry> overflow = this.overflow;
+      if (overflow != null) {
+        overflow.put(key, entry);
+      } else {
+        final int size = inlineSize;
+        final int count = inlineCount;
+        if (count < size) {
+          fillHole(entry, size);
+          inlineCount = count + 1;
+        } else if (size < INLINE_CAPACITY) {
+          inline[size] = entry;
+          inlineSize = size + 1;
+          inlineCount = count + 1;
+        } else {
+          final ConcurrentHashMap<String, TagEntry> map =
+              new ConcurrentHashMap<>(INLINE_CAPACITY * 4);
+          for (int i = 0; i < size; i++) {
+            map.put(inline[i].key, inline[i]);
+          }
+          map.put(key, entry);
+          this.overflow = map;
+        }
+      }
+      return null;
+    }
+  }
+
+  @Override
+  public Object remove(final Object key) {
+    synchronized (this) {
+      final ConcurrentHashMap<String, TagEntry> overflow = this.overflow;
+      if (overflow != null) {
+        final TagEntry removed = overflow.remove(key);
+        return removed == null ? null : removed.value;
+      }
+      final int size = inlineSize;
+      for (int i = 0; i < size; i++) {
+        final TagEntry entry = inline[i];
+        if (entry != null && (entry.key == key || entry.key.equals(key))) {
+          // Readers skip the hole, the other entries stay where iterators expect them
+          inline[i] = null;
+          int used = size;
+          while (used > 0 && inline[used - 1] == null) {
+            used--;
+          }
+          inlineSize = used;
+          inlineCount = inlineCount - 1;
+          return entry.value;
+        }
+      }
+      return null;
+    }
+  }
+
+  @Override
+  public void clear() {
+    synchronized (this) {
+      overflow = null;
+      final int size = inlineSize;
+      inlineSize = 0;
+      inlineCount = 0;
+      for (int i = 0; i < size; i++) {
+        inline[i] = null;
+      }
+    }
+  }
+
+  @Override
+  public Set<Map.Entry<String, Object>> entrySet() {
+    return entrySet;
+  }
+
+  /** Called with the lock held, when there is a hole in the first {@code size} slots */
+  private void fillHole(final TagEntry entry, final int size) {
+    for (int i = 0; i < size; i++) {
+      if (inline[i] == null) {
+        inline[i] = entry;
+        return;
+      }
+    }
+  }
+
+  private TagEntry getEntry(final Object key) {
+    final ConcurrentHashMap<String, TagEntry> overflow = this.overflow;
+    if (overflow != null) {
+      return key == null ? null : overflow.get(key);
+    }
+    final int size = inlineSize;
+    // Identity first: tag names are mostly constants
+    for (int i = 0; i < size; i++) {
+      final TagEntry entry = inline[i];
+      if (entry != null && entry.key == key) {
+        return entry;
+      }
+    }
+    if (key != null) {
+      for (int i = 0; i < size; i++) {
+        final TagEntry entry = inline[i];
+        if (entry != null && entry.key.equals(key)) {
+          return entry;
+        }
+      }
+    }
+    return null;
+  }
+
+  private static final class TagEntry implements Map.Entry<String, Object> {
+    private final String key;
+    private volatile Object value;
+
+    private TagEntry(final String key, final Object value) {
+      this.key = key;
+      this.value = value;
+    }
+
+    @Override
+    public String getKey() {
+      return key;
+    }
+
+    @Override
+    public Object getValue() {
+      return value;
+    }
+
+    @Override
+    public Object setValue(final Object value) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (!(o instanceof Map.Entry)) {
+        return false;
+      }
+      final Map.Entry<?, ?> other = (Map.Entry<?, ?>) o;
+      return key.equals(other.getKey()) && value.equals(other.getValue());
+    }
+
+    @Override
+    public int hashCode() {
+      return key.hashCode() ^ value.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return key + "=" + value;
+    }
+  }
+
+  private final class EntrySet extends AbstractSet<Map.Entry<String, Object>> {
+    @Override
+    public Iterator<Map.Entry<String, Object>> iterator() {
+      final ConcurrentHashMap<String, TagEntry> overflow = TagMap.this.overflow;
+      if (overflow != null) {
+        final Iterator<TagEntry> entries = overflow.values().iterator();
+        return new Iterator<Map.Entry<String, Object>>() {
+          @Override
+          public boolean hasNext() {
+            return entries.hasNext();
+          }
+
+          @Override
+          public Map.Entry<String, Object> next() {
+            return entries.next();
+          }
+
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+      return new InlineIterator();
+    }
+
+    @Override
+    public int size() {
+      return TagMap.this.size();
+    }
+  }
+
+  private final class InlineIterator implements Iterator<Map.Entry<String, Object>> {
+    private final int size = inlineSize;
+    private int index = 0;
+    private TagEntry next = advance();
+
+    private TagEntry advance() {
+      while (index < size) {
+        final TagEntry entry = inline[index++];
+        if (entry != null) {
+          return entry;
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public Map.Entry<String, Object> next() {
+      final TagEntry entry = next;
+      if (entry == null) {
+        throw new NoSuchElementException();
+      }
+      next = advance();
+      return entry;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package datadog.opentracing.decorators;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache evicting the least recently used entries, counting hits and misses.
+ *
+ * <p>Entries are spread over independently locked segments so threads looking up different keys
+ * rarely contend. Each segment evicts on its own, so the total capacity is approximate.
+ *
+ * @param <K> The key type
+ * @param <V> The value type
+ */
+final class LRUCache<K, V> {
+  private static final int SEGMENTS = 16;
+
+  private final Segment<K, V>[] segments;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  @SuppressWarnings("unchecked")
+  LRUCache(final int capacity) {
+    segments = new Segment[SEGMENTS];
+    final int segmentCapacity = Math.max(1, (capacity + SEGMENTS - 1) / SEGMENTS);
+    for (int i = 0; i < SEGMENTS; i++) {
+      segments[i] = new Segment<>(segmentCapacity);
+    }
+  }
+
+  /**
+   * @param key the key
+   * @return the cached value, or null
+   */
+  V get(final K key) {
+    final Segment<K, V> segment = segmentFor(key);
+    final V value;
+    synchronized (segment) {
+      value = segment.get(key);
+    }
+    (value == null ? misses : hits).incrementAndGet();
+    return value;
+  }
+
+  void put(final K key, final V value) {
+    final Segment<K, V> segment = segmentFor(key);
+    synchronized (segment) {
+      segment.put(key, value);
+    }
+  }
+
+  long getHits() {
+    return hits.get();
+  }
+
+  long getMisses() {
+    return misses.get();
+  }
+
+  private Segment<K, V> segmentFor(final K key) {
+    final int hash = key.hashCode();
+    return segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+  }
+
+  private static final class Segment<K, V> extends LinkedHashMap<K, V> {
+    private final int capacity;
+
+    private Segment(final int capacity) {
+      super(16, 0.75f, true);
+      this.capacity = capacity;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+      return size() > capacity;
+    }
+  }
+}
@@ -15,6 +15,12 @@ public class URLAsResourceName extends AbstractDecorator {
   public static final Pattern PATH_MIXED_ALPHANUMERICS =
       Pattern.compile("(?<=/)(?![vV]\\d{1,2}/)(?:[^\\/\\d\\?]*[\\d]+[^\\/\\?]*)");
 
+  /** Number of paths whose normalized form is kept */
+  static final int CACHE_CAPACITY = 1024;
+
+  /** Normalized paths by path without the query string */
+  private final LRUCache<String, String> cache = new LRUCache<>(CACHE_CAPACITY);
+
   public URLAsResourceName() {
     super();
     setMatchingTag(Tags.HTTP_URL.getKey());
@@ -23,7 +29,7 @@ public class URLAsResourceName extends AbstractDecorator {
 
   @Override
   public boolean shouldSetTag(final DDSpanContext context, final String tag, final Object value) {
-    final String statusCode = String.valueOf(context.getTags().get(Tags.HTTP_STATUS.getKey()));
+    final String statusCode = String.valueOf(context.getTag(Tags.HTTP_STATUS.getKey()));
     // do nothing if the status code is already set and equals to 404.
     // TODO: it assumes that Status404Decorator is active. If it's not, it will lead to unexpected
     // behaviors
@@ -31,19 +37,16 @@ public class URLAsResourceName extends AbstractDecorator {
       return true;
     }
 
-    // Get the path without host:port
-    String path = String.valueOf(value);
-
-    try {
-      path = new java.net.URL(path).getPath();
-    } catch (final MalformedURLException e) {
-      // do nothing, use the value instead of the path
+    // Get the path without host:port, the query string is left out of the key
+    final String key = withoutQuery(extractPath(String.valueOf(value)));
+    String path = cache.get(key);
+    if (path == null) {
+      path = norm(key);
+      cache.put(key, path);
     }
-    // normalize the path
-    path = norm(path);
 
     // if the verb (GET, POST ...) is present, add it
-    final String verb = (String) context.getTags().get(Tags.HTTP_METHOD.getKey());
+    final String verb = (String) context.getTag(Tags.HTTP_METHOD.getKey());
     if (verb != null && !verb.isEmpty()) {
       path = verb + " " + path;
     }
@@ -52,9 +55,142 @@ public class URLAsResourceName extends AbstractDecorator {
     return true;
   }
 
-  // Method to normalise the url string
-  private String norm(final String origin) {
+  /** @return the number of paths found in the cache of normalized paths */
+  public long getCacheHits() {
+    return cache.getHits();
+  }
 
+  /** @return the number of paths normalized because they were not in the cache */
+  public long getCacheMisses() {
+    return cache.getMisses();
+  }
+
+  /**
+   * Path of the URL as returned by {@link java.net.URL#getPath()}, or the value itself if it is not
+   * a valid URL. Plain http(s) URLs are parsed here to spare the creation of a {@link
+   * java.net.URL}.
+   */
+  static String extractPath(final String value) {
+    if (value.isEmpty() || value.charAt(0) == '/' || value.indexOf(':') < 0) {
+      // No protocol, this is not a URL
+      return value;
+    }
+    final int authorityStart;
+    if (value.startsWith("http://")) {
+      authorityStart = 7;
+    } else if (value.startsWith("https://")) {
+      authorityStart = 8;
+    } else {
+      return parsePath(value);
+    }
+
+    final int length = value.length();
+    int pathStart = authorityStart;
+    int portDigits = -1;
+    while (pathStart < length) {
+      final char c = value.charAt(pathStart);
+      if (c == '/' || c == '?') {
+        break;
+      }
+      if (c == ':' && portDigits < 0) {
+        portDigits = 0;
+      } else if (portDigits >= 0 ? isDigit(c) : isHostChar(c)) {
+        if (portDigits >= 0) {
+          portDigits++;
+        }
+      } else {
+        // user info, IPv6 address, fragment...
+        return parsePath(value);
+      }
+      pathStart++;
+    }
+    if (pathStart == authorityStart
+        || value.charAt(authorityStart) == ':'
+        || portDigits == 0
+        || portDigits > 5
+        || value.charAt(length - 1) <= ' '
+        || value.indexOf('#', pathStart) >= 0
+        || value.indexOf("/.", pathStart) >= 0) {
+      // java.net.URL trims, cuts the fragment and resolves relative segments
+      return parsePath(value);
+    }
+    final int queryStart = value.indexOf('?', pathStart);
+    return value.substring(pathStart, queryStart < 0 ? length : queryStart);
+  }
+
+  /**
+   * Path without its query string, which {@link #norm(String)} removes anyway. Kept when followed
+   * by a line terminator, where the regular expressions would not remove it.
+   */
+  static String withoutQuery(final String path) {
+    final int queryStart = path.indexOf('?');
+    if (queryStart < 0) {
+      return path;
+    }
+    for (int i = queryStart + 1; i < path.length(); i++) {
+      if (isLineTerminator(path.charAt(i))) {
+        return path;
+      }
+    }
+    return path.substring(0, queryStart);
+  }
+
+  private static String parsePath(final String value) {
+    try {
+      return new java.net.URL(value).getPath();
+    } catch (final MalformedURLException e) {
+      // do nothing, use the value instead of the path
+      return value;
+    }
+  }
+
+  /**
+   * Normalize the url path in a single pass: remove the query string and replace the segments
+   * containing digits with {@code ?}, except versions like {@code /v1/}. Same result as {@link
+   * #QUERYSTRING} then {@link #PATH_MIXED_ALPHANUMERICS}.
+   */
+  static String norm(final String origin) {
+    final int length = origin.length();
+    for (int i = 0; i < length; i++) {
+      if (isLineTerminator(origin.charAt(i))) {
+        // Rare enough to leave the regex semantics to the regex engine
+        return regexNorm(origin);
+      }
+    }
+
+    final int queryStart = origin.indexOf('?');
+    final int end = queryStart < 0 ? length : queryStart;
+    StringBuilder norm = null;
+    int copied = 0;
+    int segmentStart = origin.indexOf('/') + 1;
+    while (segmentStart > 0 && segmentStart <= end) {
+      boolean hasDigit = false;
+      int segmentEnd = segmentStart;
+      char c;
+      while (segmentEnd < end && (c = origin.charAt(segmentEnd)) != '/') {
+        hasDigit |= isDigit(c);
+        segmentEnd++;
+      }
+      if (hasDigit && !isVersion(origin, segmentStart, segmentEnd, end)) {
+        if (norm == null) {
+          norm = new StringBuilder(end);
+        }
+        norm.append(origin, copied, segmentStart).append('?');
+        copied = segmentEnd;
+      }
+      segmentStart = segmentEnd + 1;
+    }
+
+    final String result;
+    if (norm != null) {
+      result = norm.append(origin, copied, end).toString();
+    } else {
+      result = end == length ? origin : origin.substring(0, end);
+    }
+    return isBlank(result) ? "/" : result;
+  }
+
+  private static String regexNorm(final String origin) {
     String norm = origin;
     norm = QUERYSTRING.matcher(norm).replaceAll("");
     norm = PATH_MIXED_ALPHANUMERICS.matcher(norm).replaceAll("?");
@@ -65,4 +201,49 @@ public class URLAsResourceName extends AbstractDecorator {
 
     return norm;
   }
+
+  /** Segment like {@code v1} or {@code V12} followed by a slash */
+  private static boolean isVersion(
+      final String path, final int segmentStart, final int segmentEnd, final int end) {
+    final int segmentLength = segmentEnd - segmentStart;
+    if (segmentEnd == end || segmentLength < 2 || segmentLength > 3) {
+      return false;
+    }
+    final char first = path.charAt(segmentStart);
+    if (first != 'v' && first != 'V') {
+      return false;
+    }
+    for (int i = segmentStart + 1; i < segmentEnd; i++) {
+      if (!isDigit(path.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isBlank(final String value) {
+    for (int i = 0; i < value.length(); i++) {
+      if (value.charAt(i) > ' ') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isDigit(final char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static boolean isHostChar(final char c) {
+    return (c >= 'a' && c <= 'z')
+        || (c >= 'A' && c <= 'Z')
+        || isDigit(c)
+        || c == '.'
+        || c == '-';
+  }
+
+  /** Characters not matched by {@code .} in a regular expression */
+  private static boolean isLineTerminator(final char c) {
+    return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+  }
 }
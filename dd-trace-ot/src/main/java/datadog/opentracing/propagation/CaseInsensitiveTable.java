@@ -0,0 +1,71 @@
+package datadog.opentracing.propagation;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Immutable map with case-insensitive String keys, which doesn't allocate on lookups.
+ *
+ * <p>Keys are stored lower-cased in an open addressing table kept mostly empty, so most lookups
+ * for unknown keys stop at the first probe.
+ *
+ * @param <V> The value type
+ */
+final class CaseInsensitiveTable<V> {
+  private final String[] keys;
+  private final Object[] values;
+  private final int mask;
+  private final int maxKeyLength;
+
+  CaseInsensitiveTable(final Map<String, V> entries) {
+    int capacity = 16;
+    while (capacity < entries.size() * 4) {
+      capacity <<= 1;
+    }
+    keys = new String[capacity];
+    values = new Object[capacity];
+    mask = capacity - 1;
+
+    int maxLength = 0;
+    for (final Map.Entry<String, V> entry : entries.entrySet()) {
+      final String key = entry.getKey().toLowerCase(Locale.ROOT);
+      int index = hash(key) & mask;
+      while (keys[index] != null && !keys[index].equals(key)) {
+        index = (index + 1) & mask;
+      }
+      keys[index] = key;
+      values[index] = entry.getValue();
+      maxLength = Math.max(maxLength, key.length());
+    }
+    maxKeyLength = maxLength;
+  }
+
+  /**
+   * @param key the key to look up, in any case
+   * @return the value associated to the key, or null
+   */
+  @SuppressWarnings("unchecked")
+  V get(final String key) {
+    final int length = key.length();
+    if (length > maxKeyLength) {
+      return null;
+    }
+    int index = hash(key) & mask;
+    String candidate;
+    while ((candidate = keys[index]) != null) {
+      if (candidate.length() == length && candidate.regionMatches(true, 0, key, 0, length)) {
+        return (V) values[index];
+      }
+      index = (index + 1) & mask;
+    }
+    return null;
+  }
+
+  private static int hash(final String key) {
+    int hash = 0;
+    for (int i = 0; i < key.length(); i++) {
+      hash = 31 * hash + Character.toLowerCase(Character.toUpperCase(key.charAt(i)));
+    }
+    return hash ^ (hash >>> 16);
+  }
+}
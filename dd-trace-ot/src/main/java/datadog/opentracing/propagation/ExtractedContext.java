@@ -1,5 +1,6 @@
 package datadog.opentracing.propagation;
 
+import datadog.trace.common.util.UInt64;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -7,15 +8,15 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * Propagated data resulting from calling tracer.extract with header data from an incoming request.
  */
 public class ExtractedContext extends TagContext {
-  private final String traceId;
-  private final String spanId;
+  private final long traceId;
+  private final long spanId;
   private final int samplingPriority;
   private final Map<String, String> baggage;
   private final AtomicBoolean samplingPriorityLocked = new AtomicBoolean(false);
 
   public ExtractedContext(
-      final String traceId,
-      final String spanId,
+      final long traceId,
+      final long spanId,
       final int samplingPriority,
       final Map<String, String> baggage,
       final Map<String, String> tags) {
@@ -35,14 +36,22 @@ public class ExtractedContext extends TagContext {
     samplingPriorityLocked.set(true);
   }
 
-  public String getTraceId() {
+  public long getTraceIdAsLong() {
     return traceId;
   }
 
-  public String getSpanId() {
+  public long getSpanIdAsLong() {
     return spanId;
   }
 
+  public String getTraceId() {
+    return UInt64.toString(traceId);
+  }
+
+  public String getSpanId() {
+    return UInt64.toString(spanId);
+  }
+
   public int getSamplingPriority() {
     return samplingPriority;
   }
@@ -2,10 +2,10 @@ package datadog.opentracing.propagation;
 
 import datadog.opentracing.DDSpanContext;
 import datadog.trace.api.sampling.PrioritySampling;
+import datadog.trace.common.util.UInt64;
 import io.opentracing.SpanContext;
 import io.opentracing.propagation.TextMap;
 import java.io.UnsupportedEncodingException;
-import java.math.BigInteger;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.util.Collections;
@@ -17,28 +17,41 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class HTTPCodec implements Codec<TextMap> {
 
-  // uint 64 bits max value, 2^64 - 1
-  static final BigInteger BIG_INTEGER_UINT64_MAX =
-      new BigInteger("2").pow(64).subtract(BigInteger.ONE);
-
   private static final String OT_BAGGAGE_PREFIX = "ot-baggage-";
   private static final String TRACE_ID_KEY = "x-datadog-trace-id";
   private static final String SPAN_ID_KEY = "x-datadog-parent-id";
   private static final String SAMPLING_PRIORITY_KEY = "x-datadog-sampling-priority";
 
+  private static final int NO_FIELD = 0;
+  private static final int TRACE_ID_FIELD = 1;
+  private static final int SPAN_ID_FIELD = 2;
+  private static final int SAMPLING_PRIORITY_FIELD = 3;
+
+  /** Tag names by lower-cased header name */
   private final Map<String, String> taggedHeaders;
+  /** Headers to extract, known ones and configured tagged headers, by case-insensitive name */
+  private final CaseInsensitiveTable<ExtractedHeader> extractedHeaders;
 
   public HTTPCodec(final Map<String, String> taggedHeaders) {
     this.taggedHeaders = new HashMap<>();
+    final Map<String, ExtractedHeader> headers = new HashMap<>();
+    headers.put(TRACE_ID_KEY, new ExtractedHeader(TRACE_ID_FIELD, null));
+    headers.put(SPAN_ID_KEY, new ExtractedHeader(SPAN_ID_FIELD, null));
+    headers.put(SAMPLING_PRIORITY_KEY, new ExtractedHeader(SAMPLING_PRIORITY_FIELD, null));
     for (final Map.Entry<String, String> mapping : taggedHeaders.entrySet()) {
-      this.taggedHeaders.put(mapping.getKey().trim().toLowerCase(), mapping.getValue());
+      final String key = mapping.getKey().trim().toLowerCase();
+      this.taggedHeaders.put(key, mapping.getValue());
+      final ExtractedHeader known = headers.get(key);
+      headers.put(
+          key, new ExtractedHeader(known == null ? NO_FIELD : known.field, mapping.getValue()));
     }
+    extractedHeaders = new CaseInsensitiveTable<>(headers);
   }
 
   @Override
   public void inject(final DDSpanContext context, final TextMap carrier) {
-    carrier.put(TRACE_ID_KEY, String.valueOf(context.getTraceId()));
-    carrier.put(SPAN_ID_KEY, String.valueOf(context.getSpanId()));
+    carrier.put(TRACE_ID_KEY, context.getTraceId());
+    carrier.put(SPAN_ID_KEY, context.getSpanId());
     if (context.lockSamplingPriority()) {
       carrier.put(SAMPLING_PRIORITY_KEY, String.valueOf(context.getSamplingPriority()));
     }
@@ -54,46 +67,50 @@ public class HTTPCodec implements Codec<TextMap> {
 
     Map<String, String> baggage = Collections.emptyMap();
     Map<String, String> tags = Collections.emptyMap();
-    String traceId = "0";
-    String spanId = "0";
+    long traceId = 0;
+    long spanId = 0;
     int samplingPriority = PrioritySampling.UNSET;
 
+    // Most headers are irrelevant, they are discarded without allocating.
     for (final Map.Entry<String, String> entry : carrier) {
-      final String key = entry.getKey().toLowerCase();
       final String val = entry.getValue();
-
       if (val == null) {
         continue;
       }
+      final String key = entry.getKey();
+      final ExtractedHeader header = extractedHeaders.get(key);
+      final int field = header == null ? NO_FIELD : header.field;
 
-      if (TRACE_ID_KEY.equalsIgnoreCase(key)) {
+      if (field == TRACE_ID_FIELD) {
         traceId = validateUInt64BitsID(val);
-      } else if (SPAN_ID_KEY.equalsIgnoreCase(key)) {
+      } else if (field == SPAN_ID_FIELD) {
         spanId = validateUInt64BitsID(val);
-      } else if (key.startsWith(OT_BAGGAGE_PREFIX)) {
+      } else if (field == SAMPLING_PRIORITY_FIELD) {
+        samplingPriority = Integer.parseInt(val);
+      } else if (key.regionMatches(true, 0, OT_BAGGAGE_PREFIX, 0, OT_BAGGAGE_PREFIX.length())) {
         if (baggage.isEmpty()) {
           baggage = new HashMap<>();
         }
-        baggage.put(key.replace(OT_BAGGAGE_PREFIX, ""), decode(val));
-      } else if (SAMPLING_PRIORITY_KEY.equalsIgnoreCase(key)) {
-        samplingPriority = Integer.parseInt(val);
+        baggage.put(key.substring(OT_BAGGAGE_PREFIX.length()).toLowerCase(), decode(val));
       }
 
-      if (taggedHeaders.containsKey(key)) {
+      if (header != null && header.tagName != null) {
         if (tags.isEmpty()) {
           tags = new HashMap<>();
         }
-        tags.put(taggedHeaders.get(key), decode(val));
+        tags.put(header.tagName, decode(val));
       }
     }
 
     SpanContext context = null;
-    if (!"0".equals(traceId)) {
+    if (traceId != 0) {
       final ExtractedContext ctx =
           new ExtractedContext(traceId, spanId, samplingPriority, baggage, tags);
       ctx.lockSamplingPriority();
 
-      log.debug("{} - Parent context extracted", ctx.getTraceId());
+      if (log.isDebugEnabled()) {
+        log.debug("{} - Parent context extracted", ctx.getTraceId());
+      }
       context = ctx;
     } else if (!tags.isEmpty()) {
       context = new TagContext(tags);
@@ -113,6 +130,10 @@ public class HTTPCodec implements Codec<TextMap> {
   }
 
   private String decode(final String value) {
+    if (value.indexOf('%') < 0 && value.indexOf('+') < 0) {
+      // Nothing to decode
+      return value;
+    }
     String decoded = value;
     try {
       decoded = URLDecoder.decode(value, "UTF-8");
@@ -123,25 +144,31 @@ public class HTTPCodec implements Codec<TextMap> {
   }
 
   /**
-   * Helper method to validate an ID String to verify that it is an unsigned 64 bits number and is
+   * Helper method to parse an ID String, verifying that it is an unsigned 64 bits number and is
    * within range.
    *
    * @param val the String that contains the ID
-   * @return the ID in String format if it passes validations
+   * @return the ID, stored as a long
    * @throws IllegalArgumentException if val is not a number or if the number is out of range
    */
-  private String validateUInt64BitsID(final String val) throws IllegalArgumentException {
+  private long validateUInt64BitsID(final String val) throws IllegalArgumentException {
     try {
-      final BigInteger validate = new BigInteger(val);
-      if (validate.compareTo(BigInteger.ZERO) == -1
-          || validate.compareTo(BIG_INTEGER_UINT64_MAX) == 1) {
-        throw new IllegalArgumentException(
-            "ID out of range, must be between 0 and 2^64-1, got: " + val);
-      }
-      return val;
+      return UInt64.parse(val);
     } catch (final NumberFormatException nfe) {
       throw new IllegalArgumentException(
-          "Expecting a number for trace ID or span ID, but got: " + val, nfe);
+          "Expecting a number between 0 and 2^64-1 for trace ID or span ID, but got: " + val, nfe);
+    }
+  }
+
+  private static final class ExtractedHeader {
+    /** Context field read from the header */
+    private final int field;
+    /** Tag set with the header value, null if the header is not tagged */
+    private final String tagName;
+
+    private ExtractedHeader(final int field, final String tagName) {
+      this.field = field;
+      this.tagName = tagName;
     }
   }
 }
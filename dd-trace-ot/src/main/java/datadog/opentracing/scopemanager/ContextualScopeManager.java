@@ -4,17 +4,27 @@ import datadog.opentracing.DDSpan;
 import io.opentracing.Scope;
 import io.opentracing.ScopeManager;
 import io.opentracing.Span;
-import java.util.Deque;
-import java.util.concurrent.ConcurrentLinkedDeque;
 
 public class ContextualScopeManager implements ScopeManager {
-  static final ThreadLocal<Scope> tlsScope = new ThreadLocal<>();
-  final Deque<ScopeContext> scopeContexts = new ConcurrentLinkedDeque<>();
+  static final ThreadLocal<ScopeStack> tlsScope =
+      new ThreadLocal<ScopeStack>() {
+        @Override
+        protected ScopeStack initialValue() {
+          return new ScopeStack();
+        }
+      };
+
+  private static final ScopeContext[] NO_CONTEXTS = new ScopeContext[0];
+
+  /** Copied on write, the last added first. Empty in the common case, checked before anything. */
+  volatile ScopeContext[] scopeContexts = NO_CONTEXTS;
 
   @Override
   public Scope activate(final Span span, final boolean finishOnClose) {
-    for (final ScopeContext context : scopeContexts) {
-      if (context.inContext()) {
+    final ScopeContext[] contexts = scopeContexts;
+    if (contexts.length != 0) {
+      final ScopeContext context = contextInControl(contexts);
+      if (context != null) {
         return context.activate(span, finishOnClose);
       }
     }
@@ -27,15 +37,39 @@ public class ContextualScopeManager implements ScopeManager {
 
   @Override
   public Scope active() {
-    for (final ScopeContext csm : scopeContexts) {
-      if (csm.inContext()) {
-        return csm.active();
+    final ScopeContext[] contexts = scopeContexts;
+    if (contexts.length != 0) {
+      final ScopeContext context = contextInControl(contexts);
+      if (context != null) {
+        return context.active();
+      }
+    }
+    return tlsScope.get().top;
+  }
+
+  public synchronized void addScopeContext(final ScopeContext context) {
+    final ScopeContext[] contexts = new ScopeContext[scopeContexts.length + 1];
+    contexts[0] = context;
+    System.arraycopy(scopeContexts, 0, contexts, 1, scopeContexts.length);
+    scopeContexts = contexts;
+  }
+
+  private static ScopeContext contextInControl(final ScopeContext[] contexts) {
+    for (final ScopeContext context : contexts) {
+      if (context.inContext()) {
+        return context;
       }
     }
-    return tlsScope.get();
+    return null;
   }
 
-  public void addScopeContext(final ScopeContext context) {
-    scopeContexts.addFirst(context);
+  /**
+   * Scopes activated on a thread, outside of any {@link ScopeContext}. Each scope restores the one
+   * it replaced on close, so only the top is held here: activating or closing a scope reads the
+   * thread-local once and never sets it again.
+   */
+  static final class ScopeStack {
+    /** Scope active on the thread. May be null. */
+    Scope top;
   }
 }
@@ -48,8 +48,9 @@ public class ContinuableScope implements Scope, TraceScope {
     this.continuation = continuation;
     this.spanUnderScope = spanUnderScope;
     this.finishOnClose = finishOnClose;
-    toRestore = scopeManager.tlsScope.get();
-    scopeManager.tlsScope.set(this);
+    final ContextualScopeManager.ScopeStack scopes = ContextualScopeManager.tlsScope.get();
+    toRestore = scopes.top;
+    scopes.top = this;
   }
 
   @Override
@@ -62,8 +63,9 @@ public class ContinuableScope implements Scope, TraceScope {
       spanUnderScope.finish();
     }
 
-    if (scopeManager.tlsScope.get() == this) {
-      scopeManager.tlsScope.set(toRestore);
+    final ContextualScopeManager.ScopeStack scopes = ContextualScopeManager.tlsScope.get();
+    if (scopes.top == this) {
+      scopes.top = toRestore;
     }
   }
 
@@ -102,7 +104,8 @@ public class ContinuableScope implements Scope, TraceScope {
   }
 
   public class Continuation implements Closeable, TraceScope.Continuation {
-    public WeakReference<Continuation> ref;
+    /** Set by the trace while the continuation is pending, as for spans */
+    public volatile WeakReference<Continuation> ref;
 
     private final AtomicBoolean used = new AtomicBoolean(false);
     private final PendingTrace trace;
@@ -17,8 +17,9 @@ public class SimpleScope implements Scope {
     this.scopeManager = scopeManager;
     this.spanUnderScope = spanUnderScope;
     this.finishOnClose = finishOnClose;
-    this.toRestore = scopeManager.tlsScope.get();
-    scopeManager.tlsScope.set(this);
+    final ContextualScopeManager.ScopeStack scopes = ContextualScopeManager.tlsScope.get();
+    this.toRestore = scopes.top;
+    scopes.top = this;
   }
 
   @Override
@@ -27,8 +28,9 @@ public class SimpleScope implements Scope {
       spanUnderScope.finish();
     }
 
-    if (scopeManager.tlsScope.get() == this) {
-      scopeManager.tlsScope.set(toRestore);
+    final ContextualScopeManager.ScopeStack scopes = ContextualScopeManager.tlsScope.get();
+    if (scopes.top == this) {
+      scopes.top = toRestore;
     }
   }
 
@@ -5,6 +5,7 @@ import datadog.opentracing.DDSpan;
 import datadog.opentracing.DDSpanContext;
 import datadog.trace.api.sampling.PrioritySampling;
 import datadog.trace.common.writer.DDApi.ResponseListener;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -13,21 +14,24 @@ import lombok.extern.slf4j.Slf4j;
 /**
  * A rate sampler which maintains different sample rates per service+env name.
  *
- * <p>The configuration of (serviceName,env)->rate is configured by the core agent.
+ * <p>The configuration of (serviceName,env)->rate is configured by the core agent. Each response of
+ * the agent replaces the whole table of rates, so sampling a span never takes a lock.
  */
 @Slf4j
 public class RateByServiceSampler implements Sampler, ResponseListener {
   /** Key for setting the baseline rate */
   private static final String BASE_KEY = "service:,env:";
-  /** Sampler to use if service+env is not in the map */
-  private RateSampler baseSampler = new RateSampler(1.0);
 
-  private final Map<String, RateSampler> serviceRates = new HashMap<String, RateSampler>();
+  private static final String SERVICE_PREFIX = "service:";
+  private static final String ENV_PREFIX = ",env:";
+
+  /** Rates received from the agent, replaced as a whole */
+  private volatile RateTable rates = RateTable.DEFAULT;
 
   @Override
-  public synchronized boolean sample(DDSpan span) {
+  public boolean sample(DDSpan span) {
     // Priority sampling sends all traces to the core agent, including traces marked dropped.
-    // This allows the core agent to collect stats on all traces.
+    // This allows the core agent to collect stats on all traces, unless the tracer computes them.
     return true;
   }
 
@@ -43,17 +47,9 @@ public class RateByServiceSampler implements Sampler, ResponseListener {
     }
   }
 
-  private synchronized void setSamplingPriorityOnSpanContext(DDSpan span) {
-    final String serviceName = span.getServiceName();
-    final String env = getSpanEnv(span);
-    final String key = "service:" + serviceName + ",env:" + env;
-    final RateSampler sampler;
-    if (serviceRates.containsKey(key)) {
-      sampler = serviceRates.get(key);
-    } else {
-      sampler = baseSampler;
-    }
-    if (sampler.sample(span)) {
+  private void setSamplingPriorityOnSpanContext(DDSpan span) {
+    final RateSampler sampler = rates.samplerFor(span.getServiceName(), getSpanEnv(span));
+    if (sampler.sample(span) && allow(span)) {
       span.setSamplingPriority(PrioritySampling.SAMPLER_KEEP);
     } else {
       span.setSamplingPriority(PrioritySampling.SAMPLER_DROP);
@@ -61,8 +57,19 @@ public class RateByServiceSampler implements Sampler, ResponseListener {
     span.context().setMetric(DDSpanContext.SAMPLE_RATE_KEY, sampler.getSampleRate());
   }
 
+  /**
+   * Last say on the root spans kept by the rates of the agent.
+   *
+   * @param span the root span kept by the agent rates
+   * @return true to keep the trace, which is the default
+   */
+  protected boolean allow(final DDSpan span) {
+    return true;
+  }
+
   private static String getSpanEnv(DDSpan span) {
-    return null == span.getTags().get("env") ? "" : String.valueOf(span.getTags().get("env"));
+    final Object env = span.context().getTag("env");
+    return null == env ? "" : String.valueOf(env);
   }
 
   @Override
@@ -70,37 +77,83 @@ public class RateByServiceSampler implements Sampler, ResponseListener {
     JsonNode newServiceRates = responseJson.get("rate_by_service");
     if (null != newServiceRates) {
       log.debug("Update service sampler rates: {} -> {}", endpoint, responseJson);
-      synchronized (this) {
-        serviceRates.clear();
-        Iterator<String> itr = newServiceRates.fieldNames();
-        while (itr.hasNext()) {
-          final String key = itr.next();
-          try {
-            final float val = Float.parseFloat(newServiceRates.get(key).toString());
-            if (BASE_KEY.equals(key)) {
-              baseSampler = new RateSampler(val);
-            } else {
-              serviceRates.put(key, new RateSampler(val));
+      RateSampler baseSampler = RateTable.DEFAULT.baseSampler;
+      final Map<String, Map<String, RateSampler>> serviceRates = new HashMap<>();
+      Iterator<String> itr = newServiceRates.fieldNames();
+      while (itr.hasNext()) {
+        final String key = itr.next();
+        try {
+          final float val = Float.parseFloat(newServiceRates.get(key).toString());
+          if (BASE_KEY.equals(key)) {
+            baseSampler = new RateSampler(val);
+          } else {
+            final int envStart = key.indexOf(ENV_PREFIX);
+            if (!key.startsWith(SERVICE_PREFIX) || envStart < 0) {
+              log.debug("Unable to parse service rate key {}", key);
+              continue;
             }
-          } catch (NumberFormatException nfe) {
-            log.debug("Unable to parse new service rate {} -> {}", key, newServiceRates.get(key));
+            final String service = key.substring(SERVICE_PREFIX.length(), envStart);
+            final String env = key.substring(envStart + ENV_PREFIX.length());
+            Map<String, RateSampler> envRates = serviceRates.get(service);
+            if (envRates == null) {
+              envRates = new HashMap<>();
+              serviceRates.put(service, envRates);
+            }
+            envRates.put(env, new RateSampler(val));
           }
+        } catch (NumberFormatException nfe) {
+          log.debug("Unable to parse new service rate {} -> {}", key, newServiceRates.get(key));
         }
       }
+      rates = new RateTable(baseSampler, serviceRates);
+    }
+  }
+
+  /** Immutable rates by service then env, looked up without building the key sent by the agent */
+  private static final class RateTable {
+    static final RateTable DEFAULT =
+        new RateTable(
+            new RateSampler(1.0), Collections.<String, Map<String, RateSampler>>emptyMap());
+
+    /** Sampler to use if service+env is not in the map */
+    private final RateSampler baseSampler;
+
+    private final Map<String, Map<String, RateSampler>> serviceRates;
+
+    private RateTable(
+        final RateSampler baseSampler, final Map<String, Map<String, RateSampler>> serviceRates) {
+      this.baseSampler = baseSampler;
+      this.serviceRates = serviceRates;
+    }
+
+    RateSampler samplerFor(final String serviceName, final String env) {
+      final Map<String, RateSampler> envRates = serviceRates.get(serviceName);
+      if (envRates != null) {
+        final RateSampler sampler = envRates.get(env);
+        if (sampler != null) {
+          return sampler;
+        }
+      }
+      return baseSampler;
     }
   }
 
   /**
    * This sampler sample the traces at a predefined rate.
    *
-   * <p>Keep (100 * `sample_rate`)% of the traces. It samples randomly, its main purpose is to
-   * reduce the integration footprint.
+   * <p>Keep (100 * `sample_rate`)% of the traces. The decision is a hash of the trace id, so every
+   * service sampling the same trace at the same rate makes the same decision.
    */
   private static class RateSampler extends AbstractSampler {
+    /** Knuth's multiplicative hashing factor, the one used by the agent and the other tracers */
+    private static final long KNUTH_FACTOR = 1111111111111111111L;
 
     /** The sample rate used */
     private final double sampleRate;
 
+    /** Traces whose hash, on 63 bits, is below this threshold are kept */
+    private final long threshold;
+
     public RateSampler(final String sampleRate) {
       this(sampleRate == null ? 1 : Double.valueOf(sampleRate));
     }
@@ -120,12 +173,15 @@ public class RateByServiceSampler implements Sampler, ResponseListener {
       }
 
       this.sampleRate = sampleRate;
+      threshold = sampleRate >= 1 ? Long.MAX_VALUE : (long) (sampleRate * Long.MAX_VALUE);
       log.debug("Initializing the RateSampler, sampleRate: {} %", this.sampleRate * 100);
     }
 
     @Override
     public boolean doSample(final DDSpan span) {
-      final boolean sample = Math.random() <= this.sampleRate;
+      // The top bit is dropped to compare the hash as a positive long
+      final boolean sample =
+          sampleRate >= 1 || ((span.getTraceIdAsLong() * KNUTH_FACTOR) >>> 1) < threshold;
       log.debug("{} - Span is sampled: {}", span, sample);
       return sample;
     }
@@ -0,0 +1,152 @@
+package datadog.trace.common.sampling;
+
+import datadog.opentracing.DDSpan;
+import datadog.trace.common.util.Clock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A {@link RateByServiceSampler} which also caps the traces kept per second for each service.
+ *
+ * <p>The rates of the agent only follow the traffic after a flush, so a burst would be fully kept
+ * and serialized until the next response of the agent. Traces kept by the agent rates go through a
+ * token bucket per service, holding a second worth of traces. The rate of traces kept is adapted
+ * every second from the traffic of the previous seconds, so the kept traces are spread over the
+ * second instead of being the first ones of each second.
+ *
+ * <p>Traces over the limit only get a drop priority, like the ones dropped by the agent rates: the
+ * tracer computes the stats itself and drops them before the writer. Setting the limit enables the
+ * stats computation of the agent writer, other writers still write them.
+ */
+@Slf4j
+public class RateLimitingSampler extends RateByServiceSampler {
+  /** Metric with the rate of the traces kept by the limiter, set on the root span */
+  public static final String LIMIT_RATE_KEY = "_dd.limit_psr";
+
+  static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+  /** Services limited independently, the traces of the other services share a limit */
+  static final int MAX_SERVICES = 256;
+
+  private final int maxTracesPerSecond;
+  private final ConcurrentHashMap<String, Limiter> limiters = new ConcurrentHashMap<>();
+  private final Limiter otherServices;
+
+  /** @param maxTracesPerSecond the number of traces kept per second for each service */
+  public RateLimitingSampler(final int maxTracesPerSecond) {
+    if (maxTracesPerSecond <= 0) {
+      throw new IllegalArgumentException("maxTracesPerSecond must be positive");
+    }
+    this.maxTracesPerSecond = maxTracesPerSecond;
+    otherServices = new Limiter(maxTracesPerSecond, Clock.currentNanoTicks());
+  }
+
+  @Override
+  protected boolean allow(final DDSpan span) {
+    final long now = Clock.currentNanoTicks();
+    final Limiter limiter = limiterFor(span.getServiceName(), now);
+    final boolean allowed = limiter.tryAcquire(now);
+    span.context().setMetric(LIMIT_RATE_KEY, limiter.getEffectiveRate());
+    return allowed;
+  }
+
+  private Limiter limiterFor(final String serviceName, final long now) {
+    final Limiter limiter = limiters.get(serviceName);
+    if (limiter != null) {
+      return limiter;
+    }
+    if (limiters.size() >= MAX_SERVICES) {
+      return otherServices;
+    }
+    final Limiter created = new Limiter(maxTracesPerSecond, now);
+    final Limiter raced = limiters.putIfAbsent(serviceName, created);
+    if (raced == null) {
+      log.debug("Limiting the traces of {} to {} per second", serviceName, maxTracesPerSecond);
+      return created;
+    }
+    return raced;
+  }
+
+  @Override
+  public String toString() {
+    return "RateLimitingSampler { maxTracesPerSecond=" + maxTracesPerSecond + " }";
+  }
+
+  /**
+   * Token bucket on a single atomic, holding the time at which the bucket is full again, and the
+   * traffic of the current window.
+   */
+  static final class Limiter {
+    /** Weight of the last window in the traffic estimate */
+    private static final double SMOOTHING = 0.5;
+
+    private final long nanosPerToken;
+    private final double maxPerSecond;
+
+    private final AtomicLong fullAt;
+
+    private final AtomicLong windowEnd;
+    private final AtomicLong seen = new AtomicLong();
+    private final AtomicLong kept = new AtomicLong();
+
+    /** Traces per second reaching the limiter, averaged over the last windows */
+    private volatile double seenPerSecond = 0;
+    /** Rate of the traces tried against the bucket */
+    private volatile double keepRate = 1;
+    /** Rate of the traces actually kept in the last window */
+    private volatile double effectiveRate = 1;
+
+    Limiter(final int maxPerSecond, final long now) {
+      this.maxPerSecond = maxPerSecond;
+      nanosPerToken = Math.max(1, WINDOW_NANOS / maxPerSecond);
+      fullAt = new AtomicLong(now);
+      windowEnd = new AtomicLong(now + WINDOW_NANOS);
+    }
+
+    boolean tryAcquire(final long now) {
+      final long end = windowEnd.get();
+      if (now - end >= 0 && windowEnd.compareAndSet(end, now + WINDOW_NANOS)) {
+        endWindow(now - end + WINDOW_NANOS);
+      }
+      seen.incrementAndGet();
+
+      if (keepRate < 1 && ThreadLocalRandom.current().nextDouble() >= keepRate) {
+        return false;
+      }
+      long full;
+      long next;
+      do {
+        full = fullAt.get();
+        next = (full - now > 0 ? full : now) + nanosPerToken;
+        if (next - now > WINDOW_NANOS) {
+          return false;
+        }
+      } while (!fullAt.compareAndSet(full, next));
+      kept.incrementAndGet();
+      return true;
+    }
+
+    private void endWindow(final long windowNanos) {
+      final long seenInWindow = seen.getAndSet(0);
+      final long keptInWindow = kept.getAndSet(0);
+      final double lastSeenPerSecond = seenInWindow * (double) WINDOW_NANOS / windowNanos;
+      final double average =
+          seenPerSecond == 0
+              ? lastSeenPerSecond
+              : SMOOTHING * lastSeenPerSecond + (1 - SMOOTHING) * seenPerSecond;
+      seenPerSecond = average;
+      keepRate = average <= maxPerSecond ? 1 : maxPerSecond / average;
+      effectiveRate = seenInWindow == 0 ? 1 : (double) keptInWindow / seenInWindow;
+    }
+
+    double getEffectiveRate() {
+      return effectiveRate;
+    }
+
+    double getKeepRate() {
+      return keepRate;
+    }
+  }
+}
@@ -20,7 +20,11 @@ public interface Sampler {
       final Sampler sampler;
       if (config != null) {
         if (config.isPrioritySamplingEnabled()) {
-          sampler = new RateByServiceSampler();
+          if (config.getTraceRateLimit() > 0) {
+            sampler = new RateLimitingSampler(config.getTraceRateLimit());
+          } else {
+            sampler = new RateByServiceSampler();
+          }
         } else {
           sampler = new AllSampler();
         }
@@ -0,0 +1,144 @@
+package datadog.trace.common.stats;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Distribution of durations in nanoseconds with a relative accuracy of 1%, updated without locks.
+ *
+ * <p>Values are counted in logarithmic bins following the DDSketch index mapping, so sketches from
+ * different sources can be merged by the agent. Bins are allocated by chunks the first time a value
+ * falls in them: a sketch only takes memory for the range of durations it actually saw.
+ */
+final class LatencySketch {
+  static final double RELATIVE_ACCURACY = 0.01;
+  static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+  private static final double MULTIPLIER = 1 / Math.log(GAMMA);
+
+  /** Longer durations, over 4 hours, are counted with this value */
+  static final long MAX_VALUE = 1L << 44;
+
+  static final int MAX_INDEX = index(MAX_VALUE);
+  private static final int CHUNK_SIZE = 32;
+
+  private final AtomicReferenceArray<AtomicLongArray> chunks =
+      new AtomicReferenceArray<>(MAX_INDEX / CHUNK_SIZE + 1);
+  private final AtomicLong zeroCount = new AtomicLong();
+
+  /** @param nanos the duration, negative values are counted as zero */
+  void accept(final long nanos) {
+    if (nanos <= 0) {
+      zeroCount.incrementAndGet();
+      return;
+    }
+    final int index = index(Math.min(nanos, MAX_VALUE));
+    AtomicLongArray chunk = chunks.get(index / CHUNK_SIZE);
+    if (chunk == null) {
+      chunks.compareAndSet(index / CHUNK_SIZE, null, new AtomicLongArray(CHUNK_SIZE));
+      chunk = chunks.get(index / CHUNK_SIZE);
+    }
+    chunk.incrementAndGet(index % CHUNK_SIZE);
+  }
+
+  /** Index of the bin (gamma^(index-1), gamma^index] holding the value */
+  static int index(final long value) {
+    return (int) Math.ceil(Math.log(value) * MULTIPLIER);
+  }
+
+  /** @return the number of values counted */
+  long count() {
+    long count = zeroCount.get();
+    for (int i = 0; i < chunks.length(); i++) {
+      final AtomicLongArray chunk = chunks.get(i);
+      if (chunk != null) {
+        for (int j = 0; j < CHUNK_SIZE; j++) {
+          count += chunk.get(j);
+        }
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Encode the sketch as a DDSketch protobuf message: the index mapping, the positive values as
+   * contiguous bins, and the zero count.
+   */
+  byte[] toProto() {
+    int minIndex = -1;
+    int maxIndex = -1;
+    for (int i = 0; i <= MAX_INDEX; i++) {
+      if (bin(i) != 0) {
+        if (minIndex < 0) {
+          minIndex = i;
+        }
+        maxIndex = i;
+      }
+    }
+
+    final ProtoWriter mapping = new ProtoWriter();
+    mapping.writeDouble(1, GAMMA);
+
+    final ProtoWriter store = new ProtoWriter();
+    if (minIndex >= 0) {
+      final ProtoWriter bins = new ProtoWriter();
+      for (int i = minIndex; i <= maxIndex; i++) {
+        bins.writeFixed64(Double.doubleToLongBits(bin(i)));
+      }
+      store.writeBytes(2, bins.toByteArray());
+      store.writeSInt32(3, minIndex);
+    }
+
+    final ProtoWriter sketch = new ProtoWriter();
+    sketch.writeBytes(1, mapping.toByteArray());
+    sketch.writeBytes(2, store.toByteArray());
+    final long zeros = zeroCount.get();
+    if (zeros != 0) {
+      sketch.writeDouble(4, zeros);
+    }
+    return sketch.toByteArray();
+  }
+
+  private long bin(final int index) {
+    final AtomicLongArray chunk = chunks.get(index / CHUNK_SIZE);
+    return chunk == null ? 0 : chunk.get(index % CHUNK_SIZE);
+  }
+
+  /** The few protobuf encodings needed by the sketch */
+  private static final class ProtoWriter extends ByteArrayOutputStream {
+    private static final int WIRE_VARINT = 0;
+    private static final int WIRE_FIXED64 = 1;
+    private static final int WIRE_LENGTH_DELIMITED = 2;
+
+    void writeDouble(final int field, final double value) {
+      writeVarint((field << 3) | WIRE_FIXED64);
+      writeFixed64(Double.doubleToLongBits(value));
+    }
+
+    void writeSInt32(final int field, final int value) {
+      writeVarint((field << 3) | WIRE_VARINT);
+      writeVarint((value << 1) ^ (value >> 31));
+    }
+
+    void writeBytes(final int field, final byte[] value) {
+      writeVarint((field << 3) | WIRE_LENGTH_DELIMITED);
+      writeVarint(value.length);
+      write(value, 0, value.length);
+    }
+
+    void writeFixed64(final long bits) {
+      for (int i = 0; i < 8; i++) {
+        write((int) (bits >>> (8 * i)));
+      }
+    }
+
+    private void writeVarint(int value) {
+      while ((value & ~0x7F) != 0) {
+        write((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      write(value);
+    }
+  }
+}
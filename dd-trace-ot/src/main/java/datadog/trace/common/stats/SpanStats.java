@@ -0,0 +1,72 @@
+package datadog.trace.common.stats;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hits, errors and durations of the spans sharing a {@link StatsKey}.
+ *
+ * <p>Counters are striped by thread, each stripe on its own cache line, so threads finishing traces
+ * for the same key don't contend on a single counter. Stripes are summed when the stats are read.
+ */
+final class SpanStats {
+  private static final int STRIPES = 8;
+  /** Longs per stripe, 64 bytes */
+  private static final int STRIDE = 8;
+
+  private static final int HITS = 0;
+  private static final int ERRORS = 1;
+  private static final int DURATION = 2;
+
+  private final AtomicLongArray counters = new AtomicLongArray(STRIPES * STRIDE);
+  private final LatencySketch okLatencies = new LatencySketch();
+  /** Created with the first error */
+  private final AtomicReference<LatencySketch> errorLatencies = new AtomicReference<>();
+
+  void record(final long durationNano, final boolean error) {
+    final int stripe = (int) (Thread.currentThread().getId() & (STRIPES - 1)) * STRIDE;
+    counters.incrementAndGet(stripe + HITS);
+    counters.addAndGet(stripe + DURATION, durationNano);
+    if (error) {
+      counters.incrementAndGet(stripe + ERRORS);
+      LatencySketch sketch = errorLatencies.get();
+      if (sketch == null) {
+        errorLatencies.compareAndSet(null, new LatencySketch());
+        sketch = errorLatencies.get();
+      }
+      sketch.accept(durationNano);
+    } else {
+      okLatencies.accept(durationNano);
+    }
+  }
+
+  long getHits() {
+    return sum(HITS);
+  }
+
+  long getErrors() {
+    return sum(ERRORS);
+  }
+
+  long getDuration() {
+    return sum(DURATION);
+  }
+
+  LatencySketch getOkLatencies() {
+    return okLatencies;
+  }
+
+  /** @return the sketch of errors, empty if there were none */
+  LatencySketch getErrorLatencies() {
+    final LatencySketch sketch = errorLatencies.get();
+    return sketch == null ? new LatencySketch() : sketch;
+  }
+
+  private long sum(final int counter) {
+    long sum = 0;
+    for (int i = 0; i < STRIPES; i++) {
+      sum += counters.get(i * STRIDE + counter);
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,247 @@
+package datadog.trace.common.stats;
+
+import datadog.opentracing.DDSpan;
+import datadog.opentracing.DDTraceOTInfo;
+import datadog.trace.common.util.Clock;
+import datadog.trace.common.writer.DDApi;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Computes the stats of the top-level spans of every trace, before sampling, and sends them to the
+ * agent on a fixed interval. Traces don't need to be sent for the agent to count them.
+ *
+ * <p>Spans are aggregated by {@link StatsKey} in the bucket of the current interval. Buckets are
+ * only sent one interval after being replaced, leaving time to the threads still recording into
+ * them.
+ */
+@Slf4j
+public class SpanStatsAggregator implements Closeable {
+  static final long FLUSH_INTERVAL_SECONDS = 10;
+  /** Keys per interval, spans of new keys past this limit are not counted */
+  static final int MAX_KEYS = 4096;
+  /** Traces bigger than this look up parents in a map instead of scanning the trace */
+  private static final int LINEAR_SCAN_MAX_SIZE = 16;
+
+  private static final ThreadFactory FACTORY =
+      new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable r) {
+          final Thread thread = new Thread(r, "dd-stats-flush");
+          thread.setDaemon(true);
+          return thread;
+        }
+      };
+
+  private final DDApi api;
+  private final String runtimeId;
+  /** The {@code env} tag of the tracer, or empty */
+  private final String env;
+  private final AtomicReference<Bucket> current = new AtomicReference<>(new Bucket());
+  /** Bucket replaced at the previous flush, guarded by the aggregator lock */
+  private Bucket previous;
+
+  private long sequence = 0;
+  private final ScheduledExecutorService executor =
+      Executors.newSingleThreadScheduledExecutor(FACTORY);
+
+  public SpanStatsAggregator(final DDApi api, final String runtimeId, final String env) {
+    this.api = api;
+    this.runtimeId = runtimeId;
+    this.env = env == null ? "" : env;
+    executor.scheduleAtFixedRate(
+        new Runnable() {
+          @Override
+          public void run() {
+            flush();
+          }
+        },
+        FLUSH_INTERVAL_SECONDS,
+        FLUSH_INTERVAL_SECONDS,
+        TimeUnit.SECONDS);
+  }
+
+  /**
+   * Count the top-level spans of the trace: root spans, and spans whose parent belongs to another
+   * service or isn't part of the trace.
+   *
+   * @param trace the finished spans of a trace
+   * @return true if all the top-level spans were counted, false if some keys were over the limit
+   */
+  public boolean record(final List<DDSpan> trace) {
+    return record(trace, true);
+  }
+
+  /**
+   * Count the top-level spans of a trace, or of a chunk of a trace.
+   *
+   * @param trace the finished spans of a trace
+   * @param complete false if other spans of the trace are written separately: spans whose parent
+   *     isn't part of the list are then assumed to be in another chunk, not to be top-level
+   * @return true if all the top-level spans were counted, false if some keys were over the limit
+   */
+  public boolean record(final List<DDSpan> trace, final boolean complete) {
+    final Bucket bucket = current.get();
+    final Map<Long, DDSpan> spansById =
+        trace.size() > LINEAR_SCAN_MAX_SIZE ? indexById(trace) : null;
+    boolean allCounted = true;
+    for (int i = 0; i < trace.size(); i++) {
+      final DDSpan span = trace.get(i);
+      if (!isTopLevel(span, trace, spansById, complete)) {
+        continue;
+      }
+      final SpanStats stats = bucket.statsFor(new StatsKey(span));
+      if (stats == null) {
+        allCounted = false;
+      } else {
+        stats.record(span.getDurationNano(), span.getError() != 0);
+      }
+    }
+    return allCounted;
+  }
+
+  private static boolean isTopLevel(
+      final DDSpan span,
+      final List<DDSpan> trace,
+      final Map<Long, DDSpan> spansById,
+      final boolean complete) {
+    final long parentId = span.getParentIdAsLong();
+    if (parentId == 0) {
+      return true;
+    }
+    DDSpan parent = null;
+    if (spansById != null) {
+      parent = spansById.get(parentId);
+    } else {
+      for (int i = 0; i < trace.size(); i++) {
+        if (trace.get(i).getSpanIdAsLong() == parentId) {
+          parent = trace.get(i);
+          break;
+        }
+      }
+    }
+    if (parent == null) {
+      // The parent may be in another chunk, except for the local root which has a remote parent
+      return complete || span.context().getTrace().getRootSpan() == span;
+    }
+    return !parent.getServiceName().equals(span.getServiceName());
+  }
+
+  private static Map<Long, DDSpan> indexById(final List<DDSpan> trace) {
+    final Map<Long, DDSpan> spansById = new HashMap<>(trace.size() * 2);
+    for (final DDSpan span : trace) {
+      spansById.put(span.getSpanIdAsLong(), span);
+    }
+    return spansById;
+  }
+
+  /** Start a new interval and send the stats of the interval before the previous one. */
+  synchronized void flush() {
+    final Bucket flushed = previous;
+    previous = current.getAndSet(new Bucket());
+    previous.endNanoTime = Clock.currentNanoTime();
+    if (flushed != null) {
+      send(flushed);
+    }
+  }
+
+  private void send(final Bucket bucket) {
+    if (bucket.stats.isEmpty()) {
+      return;
+    }
+    final List<Map<String, Object>> grouped = new ArrayList<>(bucket.stats.size());
+    for (final Map.Entry<StatsKey, SpanStats> entry : bucket.stats.entrySet()) {
+      final StatsKey key = entry.getKey();
+      final SpanStats stats = entry.getValue();
+      final Map<String, Object> group = new LinkedHashMap<>();
+      group.put("Service", key.service);
+      group.put("Name", key.operation);
+      group.put("Resource", key.resource);
+      group.put("Type", key.type);
+      group.put("HTTPStatusCode", 0);
+      group.put("Synthetics", false);
+      group.put("Hits", stats.getHits());
+      group.put("Errors", stats.getErrors());
+      group.put("Duration", stats.getDuration());
+      group.put("OkSummary", stats.getOkLatencies().toProto());
+      group.put("ErrorSummary", stats.getErrorLatencies().toProto());
+      group.put("TopLevelHits", stats.getHits());
+      grouped.add(group);
+    }
+
+    final Map<String, Object> interval = new LinkedHashMap<>();
+    interval.put("Start", bucket.startNanoTime);
+    interval.put("Duration", bucket.endNanoTime - bucket.startNanoTime);
+    interval.put("Stats", grouped);
+
+    final Map<String, Object> payload = new LinkedHashMap<>();
+    payload.put("Hostname", "");
+    payload.put("Env", env);
+    payload.put("Version", "");
+    payload.put("Lang", "java");
+    payload.put("TracerVersion", DDTraceOTInfo.VERSION);
+    payload.put("RuntimeID", runtimeId);
+    payload.put("Sequence", ++sequence);
+    payload.put("Stats", Collections.singletonList(interval));
+
+    if (!api.sendStats(payload)) {
+      log.debug("Stats of {} keys were not accepted by the agent", grouped.size());
+    }
+  }
+
+  /** Send the stats of the intervals not sent yet */
+  @Override
+  public void close() {
+    executor.shutdownNow();
+    try {
+      executor.awaitTermination(500, TimeUnit.MILLISECONDS);
+    } catch (final InterruptedException e) {
+      log.info("Stats aggregator closed and flush thread interrupted.");
+    }
+    synchronized (this) {
+      flush();
+      if (previous != null) {
+        send(previous);
+        previous = null;
+      }
+    }
+  }
+
+  private static final class Bucket {
+    private final long startNanoTime = Clock.currentNanoTime();
+    private volatile long endNanoTime;
+    private final ConcurrentHashMap<StatsKey, SpanStats> stats = new ConcurrentHashMap<>();
+    private final AtomicInteger keyCount = new AtomicInteger();
+
+    /** @return the stats of the key, or null if there are too many keys already */
+    SpanStats statsFor(final StatsKey key) {
+      final SpanStats existing = stats.get(key);
+      if (existing != null) {
+        return existing;
+      }
+      if (keyCount.get() >= MAX_KEYS) {
+        return null;
+      }
+      final SpanStats created = new SpanStats();
+      final SpanStats raced = stats.putIfAbsent(key, created);
+      if (raced != null) {
+        return raced;
+      }
+      keyCount.incrementAndGet();
+      return created;
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package datadog.trace.common.stats;
+
+import datadog.opentracing.DDSpan;
+
+/** The dimensions spans are aggregated by: service, operation, resource and type */
+final class StatsKey {
+  final String service;
+  final String operation;
+  final String resource;
+  final String type;
+  private final int hash;
+
+  StatsKey(final DDSpan span) {
+    this(span.getServiceName(), span.getOperationName(), span.getResourceName(), span.getType());
+  }
+
+  StatsKey(
+      final String service, final String operation, final String resource, final String type) {
+    this.service = nullToEmpty(service);
+    this.operation = nullToEmpty(operation);
+    this.resource = nullToEmpty(resource);
+    this.type = nullToEmpty(type);
+    hash =
+        31 * (31 * (31 * this.service.hashCode() + this.operation.hashCode())
+                + this.resource.hashCode())
+            + this.type.hashCode();
+  }
+
+  private static String nullToEmpty(final String value) {
+    return value == null ? "" : value;
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof StatsKey)) {
+      return false;
+    }
+    final StatsKey other = (StatsKey) o;
+    return hash == other.hash
+        && service.equals(other.service)
+        && operation.equals(other.operation)
+        && resource.equals(other.resource)
+        && type.equals(other.type);
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    return service + "/" + operation + "/" + resource + "/" + type;
+  }
+}
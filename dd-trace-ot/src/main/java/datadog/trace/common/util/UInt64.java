@@ -0,0 +1,74 @@
+package datadog.trace.common.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Helpers for trace and span IDs, which are unsigned 64 bits numbers stored in a {@code long}.
+ *
+ * <p>IDs over {@link Long#MAX_VALUE} are stored as negative values, with the same bits as their
+ * unsigned representation.
+ */
+public final class UInt64 {
+
+  /** 2^64 - 1 divided by 10, the largest value which can be multiplied by 10 without overflow */
+  private static final long MAX_DIVIDED_BY_10 = 1844674407370955161L;
+
+  private UInt64() {}
+
+  /**
+   * Generate a random ID between 1 and 2^64 - 1
+   *
+   * @return the ID
+   */
+  public static long randomId() {
+    long id;
+    do {
+      id = ThreadLocalRandom.current().nextLong();
+    } while (id == 0);
+    return id;
+  }
+
+  /**
+   * Parse the decimal representation of an unsigned 64 bits number
+   *
+   * @param value the decimal digits, without sign
+   * @return the number
+   * @throws NumberFormatException if the value is not a number between 0 and 2^64 - 1
+   */
+  public static long parse(final CharSequence value) throws NumberFormatException {
+    final int length = value.length();
+    if (length == 0) {
+      throw new NumberFormatException("Empty ID");
+    }
+    long result = 0;
+    for (int i = 0; i < length; i++) {
+      final int digit = value.charAt(i) - '0';
+      if (digit < 0 || digit > 9) {
+        throw new NumberFormatException("Not a decimal ID: " + value);
+      }
+      if (result < 0
+          || result > MAX_DIVIDED_BY_10
+          || (result == MAX_DIVIDED_BY_10 && digit > 5)) {
+        throw new NumberFormatException("ID out of range, must be between 0 and 2^64-1: " + value);
+      }
+      result = result * 10 + digit;
+    }
+    return result;
+  }
+
+  /**
+   * Decimal representation of an unsigned 64 bits number
+   *
+   * @param value the number
+   * @return the decimal representation
+   */
+  public static String toString(final long value) {
+    if (value >= 0) {
+      return Long.toString(value);
+    }
+    // Halve the value without sign extension so it fits a signed long, then divide by 5.
+    final long quotient = (value >>> 1) / 5;
+    final long remainder = value - quotient * 10;
+    return Long.toString(quotient) + remainder;
+  }
+}
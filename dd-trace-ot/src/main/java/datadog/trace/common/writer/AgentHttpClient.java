@@ -0,0 +1,396 @@
+package datadog.trace.common.writer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Minimal HTTP/1.1 client sending payloads to a single endpoint of the DD agent.
+ *
+ * <p>The connection to the agent is kept open and reused across requests, it is only established
+ * again when the agent closes it. Request headers are written from a pre-encoded prefix and the
+ * response is parsed straight from the socket, in buffers reused from one request to the next.
+ *
+ * <p>This class is not thread-safe, callers are expected to serialize requests.
+ */
+@Slf4j
+final class AgentHttpClient {
+  static final int CONNECT_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(1);
+  static final int READ_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(10);
+
+  private static final int MAX_LINE_LENGTH = 8192;
+  /** Response bodies bigger than this are not retained between requests */
+  private static final int MAX_RETAINED_BODY_SIZE = 64 * 1024;
+
+  private static final byte[] CONTENT_LENGTH = ascii("content-length:");
+  private static final byte[] TRANSFER_ENCODING = ascii("transfer-encoding:");
+  private static final byte[] CONNECTION = ascii("connection:");
+  private static final byte[] CHUNKED = ascii("chunked");
+  private static final byte[] CLOSE = ascii("close");
+
+  private final String host;
+  private final int port;
+  /** Request line and headers common to every request */
+  private final byte[] requestPrefix;
+
+  private Socket socket;
+  private OutputStream out;
+  private InputStream in;
+
+  private final byte[] headerBuffer = new byte[128];
+  private final byte[] readBuffer = new byte[8192];
+  private int readPosition;
+  private int readLimit;
+
+  private final byte[] line = new byte[MAX_LINE_LENGTH];
+  private int lineLength;
+
+  private byte[] body = new byte[1024];
+  private int bodyLength;
+  private String statusLine;
+
+  /**
+   * @param host host of the agent
+   * @param port port of the agent
+   * @param path path of the endpoint
+   * @param headers headers sent with every request
+   * @param countHeader name of the header carrying the trace count of each request
+   */
+  AgentHttpClient(
+      final String host,
+      final int port,
+      final String path,
+      final Map<String, String> headers,
+      final String countHeader) {
+    this.host = host;
+    this.port = port;
+    final StringBuilder prefix = new StringBuilder();
+    prefix.append("PUT ").append(path).append(" HTTP/1.1\r\n");
+    prefix.append("Host: ").append(host).append(':').append(port).append("\r\n");
+    for (final Map.Entry<String, String> header : headers.entrySet()) {
+      prefix.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+    }
+    prefix.append(countHeader).append(": ");
+    requestPrefix = prefix.toString().getBytes(StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * Send the payload held by the encoder and read the response of the agent.
+   *
+   * <p>A request sent on a reused connection is retried once on a new connection if it fails before
+   * any response is received, as the agent may have closed the idle connection in the meantime.
+   *
+   * @param traceCount value of the trace count header
+   * @param payload the encoded traces
+   * @return the status code of the response
+   */
+  int put(final int traceCount, final MsgPackTraceEncoder payload) throws IOException {
+    final boolean reused = socket != null;
+    try {
+      writeRequest(traceCount, payload);
+      readStatusLine();
+    } catch (final IOException e) {
+      close();
+      if (!reused || e instanceof SocketTimeoutException) {
+        throw e;
+      }
+      log.debug("Connection to the DD agent was closed, reconnecting", e);
+      writeRequest(traceCount, payload);
+      readStatusLine();
+    }
+    try {
+      return readResponse();
+    } catch (final IOException e) {
+      close();
+      throw e;
+    }
+  }
+
+  /** Reason phrase of the last response */
+  String getReasonPhrase() {
+    if (statusLine == null) {
+      return null;
+    }
+    final int code = statusLine.indexOf(' ');
+    final int reason = code < 0 ? -1 : statusLine.indexOf(' ', code + 1);
+    return reason < 0 ? "" : statusLine.substring(reason + 1);
+  }
+
+  /** Body of the last response, or null if empty */
+  String getResponseBody() {
+    return bodyLength == 0 ? null : new String(body, 0, bodyLength, StandardCharsets.UTF_8);
+  }
+
+  void close() {
+    if (socket != null) {
+      try {
+        socket.close();
+      } catch (final IOException e) {
+        // Nothing left to do with this connection.
+      }
+    }
+    socket = null;
+    out = null;
+    in = null;
+    readPosition = 0;
+    readLimit = 0;
+  }
+
+  private void connect() throws IOException {
+    final Socket newSocket = new Socket();
+    try {
+      newSocket.setTcpNoDelay(true);
+      newSocket.setKeepAlive(true);
+      newSocket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+      newSocket.setSoTimeout(READ_TIMEOUT_MILLIS);
+      out = newSocket.getOutputStream();
+      in = newSocket.getInputStream();
+    } catch (final IOException e) {
+      newSocket.close();
+      throw e;
+    }
+    socket = newSocket;
+  }
+
+  private void writeRequest(final int traceCount, final MsgPackTraceEncoder payload)
+      throws IOException {
+    if (socket == null) {
+      connect();
+    }
+    int length = 0;
+    length = append(length, String.valueOf(traceCount));
+    length = append(length, "\r\nContent-Length: ");
+    length = append(length, String.valueOf(payload.size()));
+    length = append(length, "\r\n\r\n");
+    out.write(requestPrefix);
+    out.write(headerBuffer, 0, length);
+    payload.writeTo(out);
+    out.flush();
+  }
+
+  private int append(final int offset, final String ascii) {
+    final int length = ascii.length();
+    for (int i = 0; i < length; i++) {
+      headerBuffer[offset + i] = (byte) ascii.charAt(i);
+    }
+    return offset + length;
+  }
+
+  private void readStatusLine() throws IOException {
+    statusLine = null;
+    if (!readLine()) {
+      throw new EOFException("Connection closed by the DD agent");
+    }
+    statusLine = new String(line, 0, lineLength, StandardCharsets.ISO_8859_1);
+  }
+
+  private int readResponse() throws IOException {
+    final int status = parseStatusCode();
+
+    long contentLength = -1;
+    boolean chunked = false;
+    boolean keepAlive = !statusLine.startsWith("HTTP/1.0");
+    while (readLine() && lineLength > 0) {
+      if (headerNameMatches(CONTENT_LENGTH)) {
+        contentLength = parseLong(CONTENT_LENGTH.length, lineLength, 10);
+      } else if (headerNameMatches(TRANSFER_ENCODING)) {
+        chunked = headerValueContains(TRANSFER_ENCODING.length, CHUNKED);
+      } else if (headerNameMatches(CONNECTION)) {
+        keepAlive = !headerValueContains(CONNECTION.length, CLOSE);
+      }
+    }
+
+    bodyLength = 0;
+    if (body.length > MAX_RETAINED_BODY_SIZE) {
+      body = new byte[1024];
+    }
+    if (status == 204 || status == 304 || (status >= 100 && status < 200)) {
+      // No body
+    } else if (chunked) {
+      readChunkedBody();
+    } else if (contentLength >= 0) {
+      readBody(contentLength);
+    } else {
+      readBodyUntilClosed();
+      keepAlive = false;
+    }
+
+    if (!keepAlive) {
+      close();
+    }
+    return status;
+  }
+
+  private int parseStatusCode() throws IOException {
+    // HTTP/1.1 200 OK
+    final int start = statusLine.indexOf(' ') + 1;
+    if (start == 0 || start + 3 > statusLine.length()) {
+      throw new IOException("Invalid status line from the DD agent: " + statusLine);
+    }
+    int status = 0;
+    for (int i = start; i < start + 3; i++) {
+      final char c = statusLine.charAt(i);
+      if (c < '0' || c > '9') {
+        throw new IOException("Invalid status line from the DD agent: " + statusLine);
+      }
+      status = status * 10 + (c - '0');
+    }
+    return status;
+  }
+
+  private void readChunkedBody() throws IOException {
+    while (true) {
+      if (!readLine()) {
+        throw new EOFException("Truncated chunked response from the DD agent");
+      }
+      int end = 0;
+      while (end < lineLength && line[end] != ';') {
+        end++;
+      }
+      final long chunkSize = parseLong(0, end, 16);
+      if (chunkSize == 0) {
+        break;
+      }
+      readBody(chunkSize);
+      if (!readLine() || lineLength != 0) {
+        throw new IOException("Invalid chunk from the DD agent");
+      }
+    }
+    // Trailers
+    while (readLine() && lineLength > 0) {}
+  }
+
+  private void readBody(final long length) throws IOException {
+    if (bodyLength + length > Integer.MAX_VALUE - 8) {
+      throw new IOException("Response of the DD agent is too large: " + length);
+    }
+    ensureBodyCapacity(bodyLength + (int) length);
+    int remaining = (int) length;
+    while (remaining > 0) {
+      if (readPosition == readLimit && !fill()) {
+        throw new EOFException("Truncated response from the DD agent");
+      }
+      final int count = Math.min(remaining, readLimit - readPosition);
+      System.arraycopy(readBuffer, readPosition, body, bodyLength, count);
+      readPosition += count;
+      bodyLength += count;
+      remaining -= count;
+    }
+  }
+
+  private void readBodyUntilClosed() throws IOException {
+    while (readPosition < readLimit || fill()) {
+      final int count = readLimit - readPosition;
+      ensureBodyCapacity(bodyLength + count);
+      System.arraycopy(readBuffer, readPosition, body, bodyLength, count);
+      readPosition = readLimit;
+      bodyLength += count;
+    }
+  }
+
+  private void ensureBodyCapacity(final int capacity) {
+    if (capacity > body.length) {
+      body = Arrays.copyOf(body, Math.max(capacity, body.length * 2));
+    }
+  }
+
+  /** Read a line, without its terminator, in {@link #line}. Return false at end of stream. */
+  private boolean readLine() throws IOException {
+    lineLength = 0;
+    while (true) {
+      if (readPosition == readLimit && !fill()) {
+        return lineLength > 0;
+      }
+      final byte b = readBuffer[readPosition++];
+      if (b == '\n') {
+        if (lineLength > 0 && line[lineLength - 1] == '\r') {
+          lineLength--;
+        }
+        return true;
+      }
+      if (lineLength == MAX_LINE_LENGTH) {
+        throw new IOException("Response line from the DD agent is too long");
+      }
+      line[lineLength++] = b;
+    }
+  }
+
+  private boolean fill() throws IOException {
+    if (in == null) {
+      return false;
+    }
+    final int count = in.read(readBuffer);
+    if (count < 0) {
+      return false;
+    }
+    readPosition = 0;
+    readLimit = count;
+    return true;
+  }
+
+  private boolean headerNameMatches(final byte[] lowerCaseName) {
+    if (lineLength < lowerCaseName.length) {
+      return false;
+    }
+    for (int i = 0; i < lowerCaseName.length; i++) {
+      if (toLowerCase(line[i]) != lowerCaseName[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean headerValueContains(final int from, final byte[] lowerCaseToken) {
+    outer:
+    for (int i = from; i + lowerCaseToken.length <= lineLength; i++) {
+      for (int j = 0; j < lowerCaseToken.length; j++) {
+        if (toLowerCase(line[i + j]) != lowerCaseToken[j]) {
+          continue outer;
+        }
+      }
+      return true;
+    }
+    return false;
+  }
+
+  private long parseLong(final int from, final int to, final int radix) throws IOException {
+    long value = 0;
+    boolean digits = false;
+    for (int i = from; i < to; i++) {
+      final byte b = line[i];
+      if (b == ' ' || b == '\t') {
+        if (digits) {
+          break;
+        }
+        continue;
+      }
+      final int digit = Character.digit(b, radix);
+      if (digit < 0 || value > (Long.MAX_VALUE - digit) / radix) {
+        throw new IOException("Invalid number in a response from the DD agent");
+      }
+      value = value * radix + digit;
+      digits = true;
+    }
+    if (!digits) {
+      throw new IOException("Invalid number in a response from the DD agent");
+    }
+    return value;
+  }
+
+  private static byte toLowerCase(final byte b) {
+    return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+  }
+
+  private static byte[] ascii(final String value) {
+    return value.getBytes(StandardCharsets.ISO_8859_1);
+  }
+}
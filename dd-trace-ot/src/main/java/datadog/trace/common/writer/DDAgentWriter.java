@@ -2,6 +2,8 @@ package datadog.trace.common.writer;
 
 import static datadog.trace.api.Config.DEFAULT_AGENT_HOST;
 import static datadog.trace.api.Config.DEFAULT_TRACE_AGENT_PORT;
+import static datadog.trace.api.Config.DEFAULT_WRITER_FLUSH_INTERVAL_MILLIS;
+import static datadog.trace.api.Config.DEFAULT_WRITER_FLUSH_THRESHOLD_BYTES;
 
 import datadog.opentracing.DDSpan;
 import java.util.List;
@@ -9,10 +11,13 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -24,6 +29,9 @@ import lombok.extern.slf4j.Slf4j;
  * <p>It handles writes asynchronuously so the calling threads are automatically released. However,
  * if too much spans are collected the writers can reach a state where it is forced to drop incoming
  * spans.
+ *
+ * <p>Traces are flushed at a fixed interval, or earlier when the estimated size of the traces
+ * waiting for departure reaches a threshold.
  */
 @Slf4j
 public class DDAgentWriter implements Writer {
@@ -34,9 +42,6 @@ public class DDAgentWriter implements Writer {
   /** Timeout for the API in seconds */
   static final long API_TIMEOUT_SECONDS = 1;
 
-  /** Flush interval for the API in seconds */
-  static final long FLUSH_TIME_SECONDS = 1;
-
   private final ThreadFactory agentWriterThreadFactory =
       new ThreadFactory() {
         @Override
@@ -61,6 +66,21 @@ public class DDAgentWriter implements Writer {
   /** In memory collection of traces waiting for departure */
   private final WriterQueue<List<DDSpan>> traces;
 
+  /** Flush interval for the API in milliseconds */
+  private final long flushIntervalMillis;
+
+  /** Estimated size of the queued traces triggering a flush before the next interval */
+  private final long flushThresholdBytes;
+
+  /** Estimated encoded size of the traces waiting for departure */
+  private final AtomicLong queuedBytes = new AtomicLong(0);
+
+  /** Average encoded span size, as measured by the API on the last flush */
+  private volatile int encodedSpanSize = DDApi.ESTIMATED_SPAN_SIZE;
+
+  /** Ensure a single early flush is pending at a time */
+  private final AtomicBoolean earlyFlushPending = new AtomicBoolean(false);
+
   private boolean queueFullReported = false;
 
   public DDAgentWriter() {
@@ -71,10 +91,29 @@ public class DDAgentWriter implements Writer {
     this(api, new WriterQueue<List<DDSpan>>(DEFAULT_MAX_TRACES));
   }
 
+  public DDAgentWriter(
+      final DDApi api, final long flushIntervalMillis, final long flushThresholdBytes) {
+    this(
+        api,
+        new WriterQueue<List<DDSpan>>(DEFAULT_MAX_TRACES),
+        flushIntervalMillis,
+        flushThresholdBytes);
+  }
+
   public DDAgentWriter(final DDApi api, final WriterQueue<List<DDSpan>> queue) {
+    this(api, queue, DEFAULT_WRITER_FLUSH_INTERVAL_MILLIS, DEFAULT_WRITER_FLUSH_THRESHOLD_BYTES);
+  }
+
+  DDAgentWriter(
+      final DDApi api,
+      final WriterQueue<List<DDSpan>> queue,
+      final long flushIntervalMillis,
+      final long flushThresholdBytes) {
     super();
     this.api = api;
     traces = queue;
+    this.flushIntervalMillis = flushIntervalMillis;
+    this.flushThresholdBytes = flushThresholdBytes;
   }
 
   /* (non-Javadoc)
@@ -83,6 +122,17 @@ public class DDAgentWriter implements Writer {
   @Override
   public void write(final List<DDSpan> trace) {
     final List<DDSpan> removed = traces.add(trace);
+    final long estimatedSize =
+        queuedBytes.addAndGet(
+            (long) encodedSpanSize * (trace.size() - (removed == null ? 0 : removed.size())));
+    if (estimatedSize >= flushThresholdBytes && earlyFlushPending.compareAndSet(false, true)) {
+      log.debug("Estimated size of queued traces reached {} bytes, flushing early", estimatedSize);
+      try {
+        scheduledExecutor.execute(new TracesSendingTask());
+      } catch (final RejectedExecutionException e) {
+        // The writer is closed.
+      }
+    }
     if (removed != null && !queueFullReported) {
       log.debug("Queue is full, traces will be discarded, queue size: {}", DEFAULT_MAX_TRACES);
       queueFullReported = true;
@@ -96,8 +146,16 @@ public class DDAgentWriter implements Writer {
    */
   @Override
   public void start() {
+    // The endpoint is detected before the first flush, off the thread starting the tracer
+    executor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            api.detectEndpoint();
+          }
+        });
     scheduledExecutor.scheduleAtFixedRate(
-        new TracesSendingTask(), 0, FLUSH_TIME_SECONDS, TimeUnit.SECONDS);
+        new TracesSendingTask(), 0, flushIntervalMillis, TimeUnit.MILLISECONDS);
   }
 
   /* (non-Javadoc)
@@ -151,10 +209,12 @@ public class DDAgentWriter implements Writer {
 
       @Override
       public Long call() throws Exception {
+        earlyFlushPending.set(false);
         if (traces.isEmpty()) {
           return 0L;
         }
 
+        queuedBytes.set(0);
         final List<List<DDSpan>> payload = traces.getAll();
 
         if (log.isDebugEnabled()) {
@@ -166,6 +226,7 @@ public class DDAgentWriter implements Writer {
           log.debug("Sending {} traces ({} spans) to the API (async)", payload.size(), nbSpans);
         }
         final boolean isSent = api.sendTraces(payload);
+        encodedSpanSize = Math.max(1, api.getEncodedSpanSize());
 
         if (!isSent) {
           log.debug("Failing to send {} traces to the API", payload.size());
@@ -1,19 +1,20 @@
 package datadog.trace.common.writer;
 
+import static datadog.trace.api.Config.DEFAULT_WRITER_MAX_PAYLOAD_BYTES;
+
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import datadog.opentracing.DDSpan;
 import datadog.opentracing.DDTraceOTInfo;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import lombok.extern.slf4j.Slf4j;
@@ -27,12 +28,28 @@ public class DDApi {
   private static final String DATADOG_META_LANG_INTERPRETER = "Datadog-Meta-Lang-Interpreter";
   private static final String DATADOG_META_TRACER_VERSION = "Datadog-Meta-Tracer-Version";
   private static final String X_DATADOG_TRACE_COUNT = "X-Datadog-Trace-Count";
+  private static final String DATADOG_CLIENT_COMPUTED_STATS = "Datadog-Client-Computed-Stats";
 
   private static final String TRACES_ENDPOINT_V3 = "/v0.3/traces";
   private static final String TRACES_ENDPOINT_V4 = "/v0.4/traces";
+  private static final String STATS_ENDPOINT = "/v0.6/stats";
   private static final long MILLISECONDS_BETWEEN_ERROR_LOG = TimeUnit.MINUTES.toMillis(5);
+  /** Initial guess of the encoded size of a span, until a first payload is encoded */
+  static final int ESTIMATED_SPAN_SIZE = 512;
 
-  private final String tracesEndpoint;
+  private final String host;
+  private final int port;
+  private final Map<String, String> headers;
+  /** Reported as the v0.3 endpoint until the endpoint is detected */
+  private volatile String tracesEndpoint;
+  private final String statsEndpoint;
+  /** The tracer computes the stats of the traces and sends them separately */
+  private final boolean statsComputationEnabled;
+  /**
+   * Persistent connection to the traces endpoint, guarded by the encoder lock. Null until the
+   * endpoint is detected.
+   */
+  private AgentHttpClient client;
   private final List<ResponseListener> responseListeners = new ArrayList<>();
 
   private final AtomicInteger traceCount = new AtomicInteger(0);
@@ -40,17 +57,105 @@ public class DDApi {
 
   private static final ObjectMapper objectMapper = new ObjectMapper(new MessagePackFactory());
 
+  /** Only used by the writer thread, the lock is not expected to be contended. */
+  private final MsgPackTraceEncoder encoder = new MsgPackTraceEncoder();
+
+  /** Maximum size of a single request body, bigger flushes are split */
+  private final int maxPayloadSize;
+
+  private volatile int encodedSpanSize = ESTIMATED_SPAN_SIZE;
+
   public DDApi(final String host, final int port) {
-    this(host, port, traceEndpointAvailable("http://" + host + ":" + port + TRACES_ENDPOINT_V4));
+    this(host, port, DEFAULT_WRITER_MAX_PAYLOAD_BYTES);
+  }
+
+  public DDApi(final String host, final int port, final int maxPayloadSize) {
+    this(host, port, maxPayloadSize, false);
+  }
+
+  public DDApi(
+      final String host,
+      final int port,
+      final int maxPayloadSize,
+      final boolean statsComputationEnabled) {
+    this(
+        host,
+        port,
+        traceEndpointAvailable("http://" + host + ":" + port + TRACES_ENDPOINT_V4),
+        maxPayloadSize,
+        statsComputationEnabled);
   }
 
   DDApi(final String host, final int port, final boolean v4EndpointsAvailable) {
+    this(host, port, v4EndpointsAvailable, DEFAULT_WRITER_MAX_PAYLOAD_BYTES, false);
+  }
+
+  DDApi(
+      final String host,
+      final int port,
+      final boolean v4EndpointsAvailable,
+      final int maxPayloadSize,
+      final boolean statsComputationEnabled) {
+    this(host, port, maxPayloadSize, statsComputationEnabled, v4EndpointsAvailable);
+  }
+
+  /** @param v4EndpointsAvailable null to detect the endpoint later */
+  private DDApi(
+      final String host,
+      final int port,
+      final int maxPayloadSize,
+      final boolean statsComputationEnabled,
+      final Boolean v4EndpointsAvailable) {
+    this.host = host;
+    this.port = port;
+    this.maxPayloadSize = maxPayloadSize;
+    this.statsComputationEnabled = statsComputationEnabled;
+    this.statsEndpoint = "http://" + host + ":" + port + STATS_ENDPOINT;
+    headers = requestHeaders();
+    if (statsComputationEnabled) {
+      headers.put(DATADOG_CLIENT_COMPUTED_STATS, "yes");
+    }
+    if (v4EndpointsAvailable == null) {
+      tracesEndpoint = "http://" + host + ":" + port + TRACES_ENDPOINT_V3;
+    } else {
+      useTracesEndpoint(v4EndpointsAvailable);
+    }
+  }
+
+  /**
+   * Create an API which does not block the caller to detect the traces endpoint supported by the DD
+   * agent: the endpoint is detected by {@link #detectEndpoint()}, at the latest on the first send.
+   * Used when the tracer starts with the application, where the probe could take seconds when the
+   * DD agent is not reachable.
+   */
+  public static DDApi withDeferredEndpointDetection(
+      final String host,
+      final int port,
+      final int maxPayloadSize,
+      final boolean statsComputationEnabled) {
+    return new DDApi(host, port, maxPayloadSize, statsComputationEnabled, null);
+  }
+
+  /** Detect the traces endpoint supported by the DD agent, if not done already. */
+  public void detectEndpoint() {
+    synchronized (encoder) {
+      if (client == null) {
+        useTracesEndpoint(
+            traceEndpointAvailable("http://" + host + ":" + port + TRACES_ENDPOINT_V4));
+      }
+    }
+  }
+
+  private void useTracesEndpoint(final boolean v4EndpointsAvailable) {
+    final String tracesPath;
     if (v4EndpointsAvailable) {
-      this.tracesEndpoint = "http://" + host + ":" + port + TRACES_ENDPOINT_V4;
+      tracesPath = TRACES_ENDPOINT_V4;
     } else {
       log.debug("API v0.4 endpoints not available. Downgrading to v0.3");
-      this.tracesEndpoint = "http://" + host + ":" + port + TRACES_ENDPOINT_V3;
+      tracesPath = TRACES_ENDPOINT_V3;
     }
+    tracesEndpoint = "http://" + host + ":" + port + tracesPath;
+    client = new AgentHttpClient(host, port, tracesPath, headers, X_DATADOG_TRACE_COUNT);
   }
 
   public void addResponseListener(final ResponseListener listener) {
@@ -64,62 +169,115 @@ public class DDApi {
   }
 
   /**
-   * Send traces to the DD agent
+   * Send traces to the DD agent. Traces are split in as many requests as needed to keep each
+   * payload under the configured maximum size. Payloads are sent back to back.
    *
    * @param traces the traces to be sent
-   * @return the staus code returned
+   * @return true if all the payloads were accepted by the agent
    */
   public boolean sendTraces(final List<List<DDSpan>> traces) {
     final int totalSize = traceCount == null ? traces.size() : traceCount.getAndSet(0);
-    try {
-      final HttpURLConnection httpCon = getHttpURLConnection(tracesEndpoint);
-      httpCon.setRequestProperty(X_DATADOG_TRACE_COUNT, String.valueOf(totalSize));
+    synchronized (encoder) {
+      detectEndpoint();
+      try {
+        int from = 0;
+        do {
+          final int to = encoder.encode(traces, from, maxPayloadSize);
+          updateEncodedSpanSize(traces, from, to);
+          // The last payload also reports the traces which were counted but not written.
+          final int reportedCount =
+              to == traces.size() ? Math.max(totalSize - from, to - from) : to - from;
+          if (!sendPayload(to - from, reportedCount)) {
+            return false;
+          }
+          from = to;
+        } while (from < traces.size());
+        return true;
+      } finally {
+        // Only once the payloads are sent: a failed request is written again from the buffer
+        encoder.releaseIfOversized();
+      }
+    }
+  }
 
-      final OutputStream out = httpCon.getOutputStream();
-      objectMapper.writeValue(out, traces);
-      out.flush();
-      out.close();
+  public boolean isStatsComputationEnabled() {
+    return statsComputationEnabled;
+  }
 
-      String responseString = null;
-      {
-        final BufferedReader responseReader =
-            new BufferedReader(
-                new InputStreamReader(httpCon.getInputStream(), StandardCharsets.UTF_8));
-        final StringBuilder sb = new StringBuilder();
+  /**
+   * Send the stats computed by the tracer to the DD agent. Stats are only sent every few seconds,
+   * a new connection is used each time.
+   *
+   * @param stats the stats payload, encoded as msgpack
+   * @return true if the agent accepted the stats
+   */
+  public boolean sendStats(final Object stats) {
+    try {
+      final HttpURLConnection httpCon = getHttpURLConnection(statsEndpoint);
+      httpCon.setConnectTimeout(AgentHttpClient.CONNECT_TIMEOUT_MILLIS);
+      httpCon.setReadTimeout(AgentHttpClient.READ_TIMEOUT_MILLIS);
+      try (final OutputStream out = httpCon.getOutputStream()) {
+        objectMapper.writeValue(out, stats);
+      }
+      final int responseCode = httpCon.getResponseCode();
+      if (responseCode != 200) {
+        log.debug("Error while sending stats to the DD agent. Status: {}", responseCode);
+        return false;
+      }
+      log.debug("Successfully sent stats to the DD agent.");
+      return true;
+    } catch (final IOException e) {
+      log.debug("Error while sending stats to the DD agent.", e);
+      return false;
+    }
+  }
 
-        String line = null;
-        while ((line = responseReader.readLine()) != null) {
-          sb.append(line);
-        }
-        responseReader.close();
+  /**
+   * Average encoded size of a span in the payloads sent so far, used by writers to estimate the
+   * size of the traces they hold.
+   */
+  int getEncodedSpanSize() {
+    return encodedSpanSize;
+  }
 
-        responseString = sb.toString();
-      }
+  private void updateEncodedSpanSize(
+      final List<List<DDSpan>> traces, final int from, final int to) {
+    int spanCount = 0;
+    for (int i = from; i < to; i++) {
+      spanCount += traces.get(i).size();
+    }
+    if (spanCount > 0) {
+      encodedSpanSize = Math.max(1, encoder.size() / spanCount);
+    }
+  }
 
-      final int responseCode = httpCon.getResponseCode();
+  private boolean sendPayload(final int payloadTraceCount, final int totalSize) {
+    try {
+      final int responseCode = client.put(totalSize, encoder);
       if (responseCode != 200) {
         if (log.isDebugEnabled()) {
           log.debug(
               "Error while sending {} of {} traces to the DD agent. Status: {}, ResponseMessage: ",
-              traces.size(),
+              payloadTraceCount,
               totalSize,
               responseCode,
-              httpCon.getResponseMessage());
+              client.getReasonPhrase());
         } else if (nextAllowedLogTime < System.currentTimeMillis()) {
           nextAllowedLogTime = System.currentTimeMillis() + MILLISECONDS_BETWEEN_ERROR_LOG;
           log.warn(
               "Error while sending {} of {} traces to the DD agent. Status: {} (going silent for {} seconds)",
-              traces.size(),
+              payloadTraceCount,
               totalSize,
               responseCode,
-              httpCon.getResponseMessage(),
+              client.getReasonPhrase(),
               TimeUnit.MILLISECONDS.toMinutes(MILLISECONDS_BETWEEN_ERROR_LOG));
         }
         return false;
       }
 
-      log.debug("Successfully sent {} of {} traces to the DD agent.", traces.size(), totalSize);
+      log.debug("Successfully sent {} of {} traces to the DD agent.", payloadTraceCount, totalSize);
 
+      final String responseString = client.getResponseBody();
       try {
         if (null != responseString
             && !"".equals(responseString.trim())
@@ -138,7 +296,7 @@ public class DDApi {
       if (log.isDebugEnabled()) {
         log.debug(
             "Error while sending "
-                + traces.size()
+                + payloadTraceCount
                 + " of "
                 + totalSize
                 + " traces to the DD agent.",
@@ -147,7 +305,7 @@ public class DDApi {
         nextAllowedLogTime = System.currentTimeMillis() + MILLISECONDS_BETWEEN_ERROR_LOG;
         log.warn(
             "Error while sending {} of {} traces to the DD agent. {}: {} (going silent for {} minutes)",
-            traces.size(),
+            payloadTraceCount,
             totalSize,
             e.getClass().getName(),
             e.getMessage(),
@@ -188,6 +346,16 @@ public class DDApi {
     return false;
   }
 
+  private static Map<String, String> requestHeaders() {
+    final Map<String, String> headers = new LinkedHashMap<>();
+    headers.put("Content-Type", "application/msgpack");
+    headers.put(DATADOG_META_LANG, "java");
+    headers.put(DATADOG_META_LANG_VERSION, DDTraceOTInfo.JAVA_VERSION);
+    headers.put(DATADOG_META_LANG_INTERPRETER, DDTraceOTInfo.JAVA_VM_NAME);
+    headers.put(DATADOG_META_TRACER_VERSION, DDTraceOTInfo.VERSION);
+    return headers;
+  }
+
   private static HttpURLConnection getHttpURLConnection(final String endpoint) throws IOException {
     final HttpURLConnection httpCon;
     final URL url = new URL(endpoint);
@@ -195,11 +363,9 @@ public class DDApi {
     httpCon.setDoOutput(true);
     httpCon.setDoInput(true);
     httpCon.setRequestMethod("PUT");
-    httpCon.setRequestProperty("Content-Type", "application/msgpack");
-    httpCon.setRequestProperty(DATADOG_META_LANG, "java");
-    httpCon.setRequestProperty(DATADOG_META_LANG_VERSION, DDTraceOTInfo.JAVA_VERSION);
-    httpCon.setRequestProperty(DATADOG_META_LANG_INTERPRETER, DDTraceOTInfo.JAVA_VM_NAME);
-    httpCon.setRequestProperty(DATADOG_META_TRACER_VERSION, DDTraceOTInfo.VERSION);
+    for (final Map.Entry<String, String> header : requestHeaders().entrySet()) {
+      httpCon.setRequestProperty(header.getKey(), header.getValue());
+    }
 
     return httpCon;
   }
@@ -0,0 +1,447 @@
+package datadog.trace.common.writer;
+
+import datadog.opentracing.DDSpan;
+import datadog.opentracing.DDSpanContext;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes traces in the msgpack format expected by the agent traces endpoint.
+ *
+ * <p>Span fields are written straight into a reusable buffer, without going through Jackson
+ * reflection or building intermediate maps. The encoded form of repeated strings (field names,
+ * service and operation names, tag keys...) is cached.
+ *
+ * <p>This class is not thread-safe: it is meant to be owned by the single thread flushing traces.
+ */
+final class MsgPackTraceEncoder {
+
+  private static final int INITIAL_CAPACITY = 64 * 1024;
+  /** Buffers grown over this size by a big flush are released once the flush is done. */
+  private static final int MAX_RETAINED_CAPACITY = 4 * 1024 * 1024;
+  /** The string cache is reset when reaching this size to bound its memory. */
+  private static final int MAX_CACHED_STRINGS = 4096;
+
+  private static final int SPAN_FIELDS = 12;
+
+  private static final byte[] META = encodedKey("meta");
+  private static final byte[] METRICS = encodedKey("metrics");
+  private static final byte[] START = encodedKey("start");
+  private static final byte[] DURATION = encodedKey("duration");
+  private static final byte[] SERVICE = encodedKey("service");
+  private static final byte[] TRACE_ID = encodedKey("trace_id");
+  private static final byte[] SPAN_ID = encodedKey("span_id");
+  private static final byte[] PARENT_ID = encodedKey("parent_id");
+  private static final byte[] RESOURCE = encodedKey("resource");
+  private static final byte[] NAME = encodedKey("name");
+  private static final byte[] TYPE = encodedKey("type");
+  private static final byte[] ERROR = encodedKey("error");
+
+  private final Map<String, byte[]> stringCache = new HashMap<>();
+
+  private byte[] buffer;
+  private int position;
+
+  MsgPackTraceEncoder() {
+    this(INITIAL_CAPACITY);
+  }
+
+  MsgPackTraceEncoder(final int initialCapacity) {
+    buffer = new byte[Math.max(16, initialCapacity)];
+  }
+
+  /**
+   * Encode the traces, replacing the previous content of the buffer.
+   *
+   * @param traces the traces to encode
+   */
+  void encode(final List<List<DDSpan>> traces) {
+    encode(traces, 0, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Encode as many traces as possible, starting from {@code from}, without exceeding {@code
+   * maxBytes}. At least one trace is encoded even if it exceeds the limit on its own. The previous
+   * content of the buffer is replaced.
+   *
+   * @param traces the traces to encode
+   * @param from index of the first trace to encode
+   * @param maxBytes maximum size of the payload
+   * @return the index following the last encoded trace
+   */
+  int encode(final List<List<DDSpan>> traces, final int from, final int maxBytes) {
+    position = 0;
+    final int header = reserveArrayHeader();
+    int to = from;
+    while (to < traces.size()) {
+      final int traceStart = position;
+      final List<DDSpan> trace = traces.get(to);
+      writeArrayHeader(trace.size());
+      for (final DDSpan span : trace) {
+        writeSpan(span);
+      }
+      if (position > maxBytes && to > from) {
+        // doesn't fit, left for the next payload
+        position = traceStart;
+        break;
+      }
+      to++;
+    }
+    patchHeader(header, to - from);
+    return to;
+  }
+
+  /** @return the number of bytes of the last encoded payload */
+  int size() {
+    return position;
+  }
+
+  /**
+   * Write the last encoded payload to the provided stream. The payload is kept, it can be written
+   * again if the request fails.
+   *
+   * @param out the stream to write to
+   */
+  void writeTo(final OutputStream out) throws IOException {
+    out.write(buffer, 0, position);
+  }
+
+  /** Release the buffer if a big flush grew it, discarding the last encoded payload. */
+  void releaseIfOversized() {
+    if (buffer.length > MAX_RETAINED_CAPACITY) {
+      buffer = new byte[INITIAL_CAPACITY];
+      position = 0;
+    }
+  }
+
+  /** @return a copy of the last encoded payload */
+  byte[] toByteArray() {
+    final byte[] bytes = new byte[position];
+    System.arraycopy(buffer, 0, bytes, 0, position);
+    return bytes;
+  }
+
+  private void writeSpan(final DDSpan span) {
+    final DDSpanContext context = span.context();
+    writeMapHeader(SPAN_FIELDS);
+
+    writeRaw(SERVICE);
+    writeCachedString(context.getServiceName());
+    writeRaw(NAME);
+    writeCachedString(context.getOperationName());
+    writeRaw(RESOURCE);
+    writeCachedString(context.getResourceName());
+    writeRaw(TRACE_ID);
+    writeUnsignedId(context.getTraceIdAsLong());
+    writeRaw(SPAN_ID);
+    writeUnsignedId(context.getSpanIdAsLong());
+    writeRaw(PARENT_ID);
+    writeUnsignedId(context.getParentIdAsLong());
+    writeRaw(START);
+    writeLong(span.getStartTime());
+    writeRaw(DURATION);
+    writeLong(span.getDurationNano());
+    writeRaw(TYPE);
+    writeCachedString(context.getSpanType());
+    writeRaw(ERROR);
+    writeLong(context.getErrorFlag() ? 1 : 0);
+    writeRaw(META);
+    writeMeta(context);
+    writeRaw(METRICS);
+    writeMetrics(context.getMetrics());
+  }
+
+  /** Meta merges baggage and tags, tags taking precedence. */
+  private void writeMeta(final DDSpanContext context) {
+    final Map<String, String> baggage = context.getBaggageItems();
+    final Map<String, Object> tags = context.getTags();
+
+    // Maps may still be modified concurrently, so the header is patched once entries are counted.
+    final int header = reserveMapHeader();
+    int size = 0;
+    for (final Map.Entry<String, String> entry : baggage.entrySet()) {
+      if (!tags.containsKey(entry.getKey())) {
+        writeCachedString(entry.getKey());
+        writeString(entry.getValue());
+        size++;
+      }
+    }
+    for (final Map.Entry<String, Object> entry : tags.entrySet()) {
+      writeCachedString(entry.getKey());
+      writeString(String.valueOf(entry.getValue()));
+      size++;
+    }
+    patchHeader(header, size);
+  }
+
+  private void writeMetrics(final Map<String, Number> metrics) {
+    final int header = reserveMapHeader();
+    int size = 0;
+    for (final Map.Entry<String, Number> entry : metrics.entrySet()) {
+      writeCachedString(entry.getKey());
+      writeNumber(entry.getValue());
+      size++;
+    }
+    patchHeader(header, size);
+  }
+
+  private void writeNumber(final Number value) {
+    if (value instanceof Integer
+        || value instanceof Long
+        || value instanceof Short
+        || value instanceof Byte) {
+      writeLong(value.longValue());
+    } else if (value instanceof Float) {
+      ensureCapacity(5);
+      buffer[position++] = (byte) 0xca;
+      writeInt32(Float.floatToIntBits(value.floatValue()));
+    } else if (value == null) {
+      writeNil();
+    } else {
+      ensureCapacity(9);
+      buffer[position++] = (byte) 0xcb;
+      writeInt64(Double.doubleToLongBits(value.doubleValue()));
+    }
+  }
+
+  /** IDs are unsigned 64 bits numbers in decimal form, validated when the context is built. */
+  private void writeUnsignedId(final long value) {
+    if (value < 0) {
+      // over Long.MAX_VALUE: only representable as uint 64
+      ensureCapacity(9);
+      buffer[position++] = (byte) 0xcf;
+      writeInt64(value);
+    } else {
+      writeLong(value);
+    }
+  }
+
+  private void writeLong(final long value) {
+    ensureCapacity(9);
+    if (value >= 0) {
+      if (value < 0x80) {
+        buffer[position++] = (byte) value;
+      } else if (value < 0x100) {
+        buffer[position++] = (byte) 0xcc;
+        buffer[position++] = (byte) value;
+      } else if (value < 0x10000) {
+        buffer[position++] = (byte) 0xcd;
+        writeInt16((int) value);
+      } else if (value < 0x100000000L) {
+        buffer[position++] = (byte) 0xce;
+        writeInt32((int) value);
+      } else {
+        buffer[position++] = (byte) 0xcf;
+        writeInt64(value);
+      }
+    } else {
+      if (value >= -32) {
+        buffer[position++] = (byte) value;
+      } else if (value >= Byte.MIN_VALUE) {
+        buffer[position++] = (byte) 0xd0;
+        buffer[position++] = (byte) value;
+      } else if (value >= Short.MIN_VALUE) {
+        buffer[position++] = (byte) 0xd1;
+        writeInt16((int) value);
+      } else if (value >= Integer.MIN_VALUE) {
+        buffer[position++] = (byte) 0xd2;
+        writeInt32((int) value);
+      } else {
+        buffer[position++] = (byte) 0xd3;
+        writeInt64(value);
+      }
+    }
+  }
+
+  private void writeNil() {
+    ensureCapacity(1);
+    buffer[position++] = (byte) 0xc0;
+  }
+
+  private void writeArrayHeader(final int size) {
+    ensureCapacity(5);
+    if (size < 16) {
+      buffer[position++] = (byte) (0x90 | size);
+    } else if (size < 0x10000) {
+      buffer[position++] = (byte) 0xdc;
+      writeInt16(size);
+    } else {
+      buffer[position++] = (byte) 0xdd;
+      writeInt32(size);
+    }
+  }
+
+  private void writeMapHeader(final int size) {
+    ensureCapacity(5);
+    if (size < 16) {
+      buffer[position++] = (byte) (0x80 | size);
+    } else if (size < 0x10000) {
+      buffer[position++] = (byte) 0xde;
+      writeInt16(size);
+    } else {
+      buffer[position++] = (byte) 0xdf;
+      writeInt32(size);
+    }
+  }
+
+  /** Reserve an array 32 header, to be filled by {@link #patchHeader(int, int)}. */
+  private int reserveArrayHeader() {
+    return reserveHeader((byte) 0xdd);
+  }
+
+  /** Reserve a map 32 header, to be filled by {@link #patchHeader(int, int)}. */
+  private int reserveMapHeader() {
+    return reserveHeader((byte) 0xdf);
+  }
+
+  private int reserveHeader(final byte type) {
+    ensureCapacity(5);
+    final int header = position;
+    buffer[position] = type;
+    position += 5;
+    return header;
+  }
+
+  private void patchHeader(final int header, final int size) {
+    buffer[header + 1] = (byte) (size >>> 24);
+    buffer[header + 2] = (byte) (size >>> 16);
+    buffer[header + 3] = (byte) (size >>> 8);
+    buffer[header + 4] = (byte) size;
+  }
+
+  /** Write a string which is likely to be repeated across spans. */
+  private void writeCachedString(final String value) {
+    if (value == null) {
+      writeNil();
+      return;
+    }
+    byte[] encoded = stringCache.get(value);
+    if (encoded == null) {
+      final int start = position;
+      writeString(value);
+      encoded = new byte[position - start];
+      System.arraycopy(buffer, start, encoded, 0, encoded.length);
+      if (stringCache.size() >= MAX_CACHED_STRINGS) {
+        stringCache.clear();
+      }
+      stringCache.put(value, encoded);
+      return;
+    }
+    writeRaw(encoded);
+  }
+
+  private void writeString(final String value) {
+    if (value == null) {
+      writeNil();
+      return;
+    }
+    final int length = utf8Length(value);
+    ensureCapacity(length + 5);
+    if (length < 32) {
+      buffer[position++] = (byte) (0xa0 | length);
+    } else if (length < 0x100) {
+      buffer[position++] = (byte) 0xd9;
+      buffer[position++] = (byte) length;
+    } else if (length < 0x10000) {
+      buffer[position++] = (byte) 0xda;
+      writeInt16(length);
+    } else {
+      buffer[position++] = (byte) 0xdb;
+      writeInt32(length);
+    }
+    writeUtf8(value);
+  }
+
+  private void writeUtf8(final String value) {
+    final byte[] buffer = this.buffer;
+    int position = this.position;
+    final int length = value.length();
+    for (int i = 0; i < length; i++) {
+      final char c = value.charAt(i);
+      if (c < 0x80) {
+        buffer[position++] = (byte) c;
+      } else if (c < 0x800) {
+        buffer[position++] = (byte) (0xc0 | (c >> 6));
+        buffer[position++] = (byte) (0x80 | (c & 0x3f));
+      } else if (Character.isHighSurrogate(c)
+          && i + 1 < length
+          && Character.isLowSurrogate(value.charAt(i + 1))) {
+        final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        buffer[position++] = (byte) (0xf0 | (codePoint >> 18));
+        buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+        buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+        buffer[position++] = (byte) (0x80 | (codePoint & 0x3f));
+      } else if (Character.isSurrogate(c)) {
+        // malformed surrogate pair, replaced like String.getBytes does
+        buffer[position++] = (byte) '?';
+      } else {
+        buffer[position++] = (byte) (0xe0 | (c >> 12));
+        buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+        buffer[position++] = (byte) (0x80 | (c & 0x3f));
+      }
+    }
+    this.position = position;
+  }
+
+  private static int utf8Length(final String value) {
+    final int length = value.length();
+    int utf8Length = length;
+    for (int i = 0; i < length; i++) {
+      final char c = value.charAt(i);
+      if (c >= 0x80) {
+        if (c < 0x800) {
+          utf8Length += 1;
+        } else if (Character.isHighSurrogate(c)
+            && i + 1 < length
+            && Character.isLowSurrogate(value.charAt(i + 1))) {
+          // 2 chars -> 4 bytes
+          utf8Length += 2;
+          i++;
+        } else if (!Character.isSurrogate(c)) {
+          utf8Length += 2;
+        }
+      }
+    }
+    return utf8Length;
+  }
+
+  private void writeRaw(final byte[] bytes) {
+    ensureCapacity(bytes.length);
+    System.arraycopy(bytes, 0, buffer, position, bytes.length);
+    position += bytes.length;
+  }
+
+  private void writeInt16(final int value) {
+    buffer[position++] = (byte) (value >>> 8);
+    buffer[position++] = (byte) value;
+  }
+
+  private void writeInt32(final int value) {
+    buffer[position++] = (byte) (value >>> 24);
+    buffer[position++] = (byte) (value >>> 16);
+    buffer[position++] = (byte) (value >>> 8);
+    buffer[position++] = (byte) value;
+  }
+
+  private void writeInt64(final long value) {
+    writeInt32((int) (value >>> 32));
+    writeInt32((int) value);
+  }
+
+  private void ensureCapacity(final int needed) {
+    if (position + needed > buffer.length) {
+      final byte[] grown = new byte[Math.max(buffer.length * 2, position + needed)];
+      System.arraycopy(buffer, 0, grown, 0, position);
+      buffer = grown;
+    }
+  }
+
+  private static byte[] encodedKey(final String key) {
+    final MsgPackTraceEncoder encoder = new MsgPackTraceEncoder(16);
+    encoder.writeString(key);
+    return encoder.toByteArray();
+  }
+}
@@ -57,7 +57,23 @@ public interface Writer {
     }
 
     private static Writer createAgentWriter(final Config config) {
-      return new DDAgentWriter(new DDApi(config.getAgentHost(), config.getAgentPort()));
+      // The traces over the rate limit are only dropped before the writer when the tracer
+      // computes the stats, the agent would count them otherwise
+      final boolean statsComputationEnabled =
+          config.isStatsComputationEnabled() || config.getTraceRateLimit() > 0;
+      if (statsComputationEnabled && !config.isStatsComputationEnabled()) {
+        log.info(
+            "Stats computation enabled by {}: traces over the limit are not written",
+            Config.TRACE_RATE_LIMIT);
+      }
+      return new DDAgentWriter(
+          DDApi.withDeferredEndpointDetection(
+              config.getAgentHost(),
+              config.getAgentPort(),
+              config.getWriterMaxPayloadBytes(),
+              statsComputationEnabled),
+          config.getWriterFlushIntervalMillis(),
+          config.getWriterFlushThresholdBytes());
     }
 
     private Builder() {}
@@ -3,27 +3,28 @@ package datadog.trace.common.writer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * A bounded queue implementation compatible with the Datadog agent behavior. The class is
- * thread-safe and can be used with concurrency.
- *
- * <p>
- *
- * <p>
- *
- * <p>
+ * thread-safe and lock-free, and can be used with concurrency.
  *
  * <p>This class implements a specific behavior when it's full. Each new item added will replace an
- * exisiting one, at a random place/index. The class is backed by an ArrayList in order to perform
- * efficient random remove.
+ * exisiting one, at a random place/index.
+ *
+ * <p>Elements are stored in a fixed size ring of slots. Producers reserve a slot with a
+ * compare-and-set while the ring is not full, and replace a random one afterwards. The consumer
+ * swaps the whole ring for an empty one, then waits for the producers still writing into the old
+ * ring before reading it.
  *
  * @param <T> The element type to store
  */
 class WriterQueue<T> {
 
   private final int capacity;
-  private volatile ArrayList<T> list;
+  private final AtomicReference<Ring<T>> ring;
 
   /**
    * Default construct, a capacity must be provided
@@ -34,8 +35,8 @@ class WriterQueue<T> {
     if (capacity < 1) {
       throw new IllegalArgumentException("Capacity couldn't be 0");
     }
-    this.list = emptyList(capacity);
     this.capacity = capacity;
+    this.ring = new AtomicReference<>(new Ring<T>(capacity));
   }
 
   /**
@@ -44,10 +45,9 @@ class WriterQueue<T> {
    *
    * @return a list contain all elements
    */
-  public synchronized List<T> getAll() {
-    final List<T> all = list;
-    list = emptyList(capacity);
-    return all;
+  public List<T> getAll() {
+    final Ring<T> full = ring.getAndSet(new Ring<T>(capacity));
+    return full.drain();
   }
 
   /**
@@ -57,16 +57,38 @@ class WriterQueue<T> {
    * @param element the element to add to the queue
    * @return null if the queue is not full, otherwise the removed element
    */
-  public synchronized T add(final T element) {
-
-    T removed = null;
-    if (list.size() < capacity) {
-      list.add(element);
-    } else {
-      final int index = ThreadLocalRandom.current().nextInt(0, list.size());
-      removed = list.set(index, element);
+  public T add(final T element) {
+    while (true) {
+      final Ring<T> current = ring.get();
+      final int index = current.reserved.get();
+      if (index == Ring.CLOSED) {
+        // The ring has been closed by the consumer, a new one is already published.
+        continue;
+      }
+      if (index < capacity) {
+        if (!current.reserved.compareAndSet(index, index + 1)) {
+          continue;
+        }
+        try {
+          // The slot can only be non null if a concurrent replacement already took it.
+          return current.slots.compareAndSet(index, null, element) ? null : element;
+        } finally {
+          current.completed.incrementAndGet();
+        }
+      }
+      // Full: the replacement is announced before checking the ring is still open, so the
+      // consumer closing it waits for it
+      current.replacing.incrementAndGet();
+      try {
+        if (current.reserved.get() == Ring.CLOSED) {
+          continue;
+        }
+        final int replaced = ThreadLocalRandom.current().nextInt(0, capacity);
+        return current.slots.getAndSet(replaced, element);
+      } finally {
+        current.replacing.decrementAndGet();
+      }
     }
-    return removed;
   }
 
   //  Methods below are essentially used for testing purposes
@@ -77,7 +99,8 @@ class WriterQueue<T> {
    * @return the current size of the queue
    */
   public int size() {
-    return list.size();
+    final int reserved = ring.get().reserved.get();
+    return reserved == Ring.CLOSED ? 0 : reserved;
   }
 
   /**
@@ -86,10 +109,42 @@ class WriterQueue<T> {
    * @return true if the queue is empty
    */
   public boolean isEmpty() {
-    return list.isEmpty();
+    return size() == 0;
   }
 
-  private ArrayList<T> emptyList(final int capacity) {
-    return new ArrayList<>(capacity);
+  private static final class Ring<T> {
+    /** Set on {@link #reserved} when the consumer takes the ring. */
+    private static final int CLOSED = Integer.MIN_VALUE;
+
+    private final AtomicReferenceArray<T> slots;
+    /**
+     * Number of slots reserved, never above the capacity: a stalled consumer cannot make it
+     * overflow.
+     */
+    private final AtomicInteger reserved = new AtomicInteger(0);
+    /** Number of reservations which finished writing into their slot. */
+    private final AtomicInteger completed = new AtomicInteger(0);
+    /** Number of replacements of a full ring in progress. */
+    private final AtomicInteger replacing = new AtomicInteger(0);
+
+    private Ring(final int capacity) {
+      slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    private List<T> drain() {
+      final int writers = reserved.getAndSet(CLOSED);
+      while (completed.get() < writers || replacing.get() > 0) {
+        // Producers only hold a reservation for a couple of instructions.
+        Thread.yield();
+      }
+      final ArrayList<T> all = new ArrayList<>(writers);
+      for (int i = 0; i < writers; i++) {
+        final T element = slots.get(i);
+        if (element != null) {
+          all.add(element);
+        }
+      }
+      return all;
+    }
   }
 }
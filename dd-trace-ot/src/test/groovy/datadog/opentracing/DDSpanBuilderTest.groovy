@@ -144,14 +144,14 @@ class DDSpanBuilderTest extends Specification {
 
   def "should link to parent span"() {
     setup:
-    final String spanId = "1"
+    final long spanId = 1
     final long expectedParentId = spanId
 
     final DDSpanContext mockedContext = mock(DDSpanContext)
-    when(mockedContext.getTraceId()).thenReturn(spanId)
-    when(mockedContext.getSpanId()).thenReturn(spanId)
+    when(mockedContext.getTraceIdAsLong()).thenReturn(spanId)
+    when(mockedContext.getSpanIdAsLong()).thenReturn(spanId)
     when(mockedContext.getServiceName()).thenReturn("foo")
-    when(mockedContext.getTrace()).thenReturn(new PendingTrace(tracer, "1", [:]))
+    when(mockedContext.getTrace()).thenReturn(new PendingTrace(tracer, 1, [:]))
 
     final String expectedName = "fakeName"
 
@@ -165,8 +165,9 @@ class DDSpanBuilderTest extends Specification {
     final DDSpanContext actualContext = span.context()
 
     expect:
-    actualContext.getParentId() == expectedParentId
-    actualContext.getTraceId() == spanId
+    actualContext.getParentIdAsLong() == expectedParentId
+    actualContext.getTraceIdAsLong() == spanId
+    actualContext.getParentId() == "1"
   }
 
   def "should inherit the DD parent attributes"() {
@@ -393,8 +394,9 @@ class DDSpanBuilderTest extends Specification {
 
     where:
     extractedContext                                                      | _
-    new ExtractedContext("1", "2", 0, [:], [:])                           | _
-    new ExtractedContext("3", "4", 1, ["asdf": "qwer"], ["zxcv": "1234"]) | _
+    new ExtractedContext(1, 2, 0, [:], [:])                           | _
+    new ExtractedContext(3, 4, 1, ["asdf": "qwer"], ["zxcv": "1234"]) | _
+    new ExtractedContext(-1, -2, 1, [:], [:])                         | _
   }
 
   def "global span tags populated on each span"() {
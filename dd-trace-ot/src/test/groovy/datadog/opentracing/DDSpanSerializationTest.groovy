@@ -43,9 +43,9 @@ class DDSpanSerializationTest extends Specification {
     def tracer = new DDTracer(writer)
     final DDSpanContext context =
       new DDSpanContext(
-        "1",
-        "2",
-        "0",
+        1,
+        2,
+        0,
         "service",
         "operation",
         null,
@@ -54,7 +54,7 @@ class DDSpanSerializationTest extends Specification {
         false,
         "type",
         tags,
-        new PendingTrace(tracer, "1", [:]),
+        new PendingTrace(tracer, 1, [:]),
         tracer)
 
     baggage.put(DDTags.THREAD_NAME, Thread.currentThread().getName())
@@ -83,9 +83,9 @@ class DDSpanSerializationTest extends Specification {
     def writer = new ListWriter()
     def tracer = new DDTracer(writer)
     def context = new DDSpanContext(
-      value.toString(),
-      value.toString(),
-      "0",
+      value.longValue(),
+      value.longValue(),
+      0,
       "fakeService",
       "fakeOperation",
       "fakeResource",
@@ -94,7 +94,7 @@ class DDSpanSerializationTest extends Specification {
       false,
       "fakeType",
       Collections.emptyMap(),
-      new PendingTrace(tracer, "1", [:]),
+      new PendingTrace(tracer, 1, [:]),
       tracer)
     def span = new DDSpan(0, context)
     byte[] bytes = objectMapper.writeValueAsBytes(span)
@@ -122,5 +122,6 @@ class DDSpanSerializationTest extends Specification {
     BigInteger.ONE | _
     BigInteger.valueOf(Long.MAX_VALUE).subtract(BigInteger.ONE) | _
     BigInteger.valueOf(Long.MAX_VALUE).add(BigInteger.ONE) | _
+    BigInteger.valueOf(2).pow(64).subtract(BigInteger.ONE) | _
   }
 }
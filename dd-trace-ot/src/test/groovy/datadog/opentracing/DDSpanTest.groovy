@@ -1,5 +1,7 @@
 package datadog.opentracing
 
+import datadog.trace.api.Config
+import datadog.trace.api.DDTags
 import datadog.trace.api.sampling.PrioritySampling
 import datadog.trace.common.sampling.RateByServiceSampler
 import datadog.trace.common.writer.ListWriter
@@ -17,9 +19,9 @@ class DDSpanTest extends Specification {
     setup:
     final DDSpanContext context =
       new DDSpanContext(
-        "1",
-        "1",
-        "0",
+        1,
+        1,
+        0,
         "fakeService",
         "fakeOperation",
         "fakeResource",
@@ -28,7 +30,7 @@ class DDSpanTest extends Specification {
         false,
         "fakeType",
         null,
-        new PendingTrace(tracer, "1", [:]),
+        new PendingTrace(tracer, 1, [:]),
         tracer)
 
     final DDSpan span = new DDSpan(1L, context)
@@ -199,4 +201,52 @@ class DDSpanTest extends Specification {
     child.finish()
     root.finish()
   }
+
+  def "error stack rendered when the tags are read"() {
+    setup:
+    def span = tracer.buildSpan("error").start()
+    def error = new IllegalStateException("some error", new IOException("some cause"))
+    def expected = new StringWriter()
+    error.printStackTrace(new PrintWriter(expected))
+
+    when:
+    span.setErrorMeta(error)
+
+    then:
+    span.context().@tags.get(DDTags.ERROR_STACK) instanceof ErrorStack
+    span.context().tags.get(DDTags.ERROR_STACK) == expected.toString()
+    span.context().getTag(DDTags.ERROR_STACK) == expected.toString()
+    span.context().tags.entrySet().find { it.key == DDTags.ERROR_STACK }.value == expected.toString()
+    span.tags[DDTags.ERROR_STACK] instanceof String
+    span.meta[DDTags.ERROR_STACK] == expected.toString()
+    span.context().tags[DDTags.ERROR_MSG] == "some error"
+    span.context().tags[DDTags.ERROR_TYPE] == IllegalStateException.name
+    span.context().errorFlag
+
+    cleanup:
+    span.finish()
+  }
+
+  def "error stack rendered with the limits of the tracer"() {
+    setup:
+    def properties = new Properties()
+    properties.setProperty(Config.ERROR_STACK_MAX_DEPTH, "1")
+    def limitedTracer = new DDTracer(Config.get(properties), DEFAULT_SERVICE_NAME, writer, new RateByServiceSampler(),
+      "some-runtime-id", [:], [:], [:])
+    def span = limitedTracer.buildSpan("error").start()
+
+    when:
+    span.setErrorMeta(new IllegalStateException("some error"))
+    def lines = span.meta[DDTags.ERROR_STACK].readLines()
+
+    then:
+    lines[0] == "java.lang.IllegalStateException: some error"
+    lines[1].startsWith("\tat ")
+    lines[2] ==~ /\t\.\.\. \d+ frames truncated/
+    lines.size() == 3
+
+    cleanup:
+    span.finish()
+    limitedTracer.close()
+  }
 }
@@ -1,6 +1,7 @@
 package datadog.opentracing
 
 import datadog.trace.agent.test.TestUtils
+import datadog.trace.api.Config
 import datadog.trace.common.writer.ListWriter
 import spock.lang.Specification
 import spock.lang.Subject
@@ -11,14 +12,14 @@ import java.util.concurrent.TimeUnit
 
 class PendingTraceTest extends Specification {
   def writer = new ListWriter()
-  def tracer = new DDTracer(writer)
+  // Tracks each span with a weak reference, spans are only counted by default
+  def tracer = new DDTracer(Config.get(weakReferencesEnabled()), writer)
   def traceCount = tracer.traceCount
 
-  def traceId = System.identityHashCode(this)
-  String traceIdStr = String.valueOf(traceId)
+  long traceId = System.identityHashCode(this)
 
   @Subject
-  PendingTrace trace = new PendingTrace(tracer, traceIdStr, [:])
+  PendingTrace trace = new PendingTrace(tracer, traceId, [:])
 
   DDSpan rootSpan = SpanFactory.newSpanOf(trace)
 
@@ -121,7 +122,150 @@ class PendingTraceTest extends Specification {
     trace.asList() == [rootSpan]
     writer == []
     traceCount.get() == 1
-    !PendingTrace.SPAN_CLEANER.pendingTraces.contains(trace)
+    !trace.expiryBucket.contains(trace)
+  }
+
+  def "spans counted without weak references by default"() {
+    setup:
+    def tracer = new DDTracer(writer)
+    def root = tracer.buildSpan("root").start()
+    def child = tracer.buildSpan("child").asChildOf(root).start()
+    def trace = ((DDSpanContext) root.context()).trace
+
+    expect:
+    trace.pendingReferenceCount.get() == 2
+    trace.weakReferences.empty
+    trace.expiryBucket == null
+
+    when:
+    child.finish()
+    child.finish()
+
+    then:
+    trace.pendingReferenceCount.get() == 1
+    writer == []
+
+    when:
+    root.finish()
+
+    then:
+    trace.pendingReferenceCount.get() == 0
+    writer == [[root, child]]
+    !PendingTrace.SPAN_CLEANER.leakReferences.contains(trace.leakReference)
+  }
+
+  @Timeout(value = 60, unit = TimeUnit.SECONDS)
+  def "trace does not report when garbage collected with spans only counted"() {
+    setup:
+    def tracer = new DDTracer(writer)
+    def traceCount = tracer.traceCount
+    def root = tracer.buildSpan("root").start()
+    tracer.buildSpan("child").asChildOf(root).start().finish()
+
+    when:
+    def traceRef = new WeakReference<>(((DDSpanContext) root.context()).trace)
+    root = null
+    TestUtils.awaitGC(traceRef)
+    while (traceCount.get() == 0) {
+      PendingTrace.clean()
+    }
+
+    then:
+    writer == []
+    traceCount.get() == 1
+  }
+
+  @Timeout(value = 60, unit = TimeUnit.SECONDS)
+  def "trace written with finished spans after the pending timeout"() {
+    setup:
+    def properties = new Properties()
+    properties.setProperty(Config.PENDING_TRACE_TIMEOUT_SECONDS, "1")
+    def tracer = new DDTracer(Config.get(properties), writer)
+    def root = tracer.buildSpan("root").start()
+    def child = tracer.buildSpan("child").asChildOf(root).start()
+    def trace = ((DDSpanContext) root.context()).trace
+
+    when:
+    root.finish()
+
+    then:
+    writer == []
+
+    when:
+    writer.waitForTraces(1)
+
+    then:
+    writer == [[root]]
+    !trace.expiryBucket.contains(trace)
+
+    when:
+    child.finish()
+
+    then:
+    writer == [[root]]
+    trace.pendingReferenceCount.get() == 0
+  }
+
+  def "finished spans written in chunks once the partial flush size is reached"() {
+    setup:
+    def properties = new Properties()
+    properties.setProperty(Config.PARTIAL_FLUSH_MIN_SPANS, "2")
+    def tracer = new DDTracer(Config.get(properties), writer)
+    def root = tracer.buildSpan("root").start()
+    def children = (0..3).collect { tracer.buildSpan("child").asChildOf(root).start() }
+    def trace = ((DDSpanContext) root.context()).trace
+
+    when:
+    children[0].finish()
+
+    then:
+    writer == []
+
+    when:
+    children[1].finish()
+
+    then:
+    writer == [[children[0], children[1]]]
+    trace.isPartiallyFlushed()
+
+    when:
+    children[2].finish()
+    root.finish()
+
+    then: "the root span stays with the last chunk"
+    writer == [[children[0], children[1]], [children[2]]]
+    trace.asList() == [root]
+
+    when:
+    children[3].finish()
+
+    then:
+    writer == [[children[0], children[1]], [children[2]], [children[3], root]]
+    tracer.traceCount.get() == 1
+  }
+
+  def "finished spans written in chunks once the oldest is too old"() {
+    setup:
+    def properties = new Properties()
+    properties.setProperty(Config.PARTIAL_FLUSH_MAX_AGE_SECONDS, "1")
+    def tracer = new DDTracer(Config.get(properties), writer)
+    def root = tracer.buildSpan("root").start()
+    def first = tracer.buildSpan("first").asChildOf(root).start()
+    def second = tracer.buildSpan("second").asChildOf(root).start()
+
+    when:
+    first.finish()
+    Thread.sleep(1100)
+    second.finish()
+
+    then:
+    writer == [[first, second]]
+
+    when:
+    root.finish()
+
+    then:
+    writer == [[first, second], [root]]
   }
 
   def "add unfinished span to trace fails"() {
@@ -137,7 +281,7 @@ class PendingTraceTest extends Specification {
 
   def "register span to wrong trace fails"() {
     setup:
-    def otherTrace = new PendingTrace(tracer, String.valueOf(traceId - 10), [:])
+    def otherTrace = new PendingTrace(tracer, traceId - 10, [:])
     otherTrace.registerSpan(new DDSpan(0, rootSpan.context()))
 
     expect:
@@ -148,7 +292,7 @@ class PendingTraceTest extends Specification {
 
   def "add span to wrong trace fails"() {
     setup:
-    def otherTrace = new PendingTrace(tracer, String.valueOf(traceId - 10), [:])
+    def otherTrace = new PendingTrace(tracer, traceId - 10, [:])
     rootSpan.finish()
     otherTrace.addSpan(rootSpan)
 
@@ -179,4 +323,10 @@ class PendingTraceTest extends Specification {
     // Generous 5 seconds to execute this test
     Math.abs(TimeUnit.NANOSECONDS.toSeconds(trace.currentTimeNano) - TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis())) < 5
   }
+
+  static Properties weakReferencesEnabled() {
+    def properties = new Properties()
+    properties.setProperty(Config.SPAN_WEAK_REFERENCES_ENABLED, "true")
+    return properties
+  }
 }
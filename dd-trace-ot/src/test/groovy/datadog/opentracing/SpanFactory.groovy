@@ -8,9 +8,9 @@ class SpanFactory {
     def writer = new ListWriter()
     def tracer = new DDTracer(writer)
     def context = new DDSpanContext(
-      "1",
-      "1",
-      "0",
+      1,
+      1,
+      0,
       "fakeService",
       "fakeOperation",
       "fakeResource",
@@ -19,16 +19,16 @@ class SpanFactory {
       false,
       "fakeType",
       Collections.emptyMap(),
-      new PendingTrace(tracer, "1", [:]),
+      new PendingTrace(tracer, 1, [:]),
       tracer)
     return new DDSpan(timestampMicro, context)
   }
 
   static newSpanOf(DDTracer tracer) {
     def context = new DDSpanContext(
-      "1",
-      "1",
-      "0",
+      1,
+      1,
+      0,
       "fakeService",
       "fakeOperation",
       "fakeResource",
@@ -37,7 +37,7 @@ class SpanFactory {
       false,
       "fakeType",
       Collections.emptyMap(),
-      new PendingTrace(tracer, "1", [:]),
+      new PendingTrace(tracer, 1, [:]),
       tracer)
     return new DDSpan(1, context)
   }
@@ -45,8 +45,8 @@ class SpanFactory {
   static newSpanOf(PendingTrace trace) {
     def context = new DDSpanContext(
       trace.traceId,
-      "1",
-      "0",
+      1,
+      0,
       "fakeService",
       "fakeOperation",
       "fakeResource",
@@ -64,9 +64,9 @@ class SpanFactory {
     def writer = new ListWriter()
     def tracer = new DDTracer(writer)
     def context = new DDSpanContext(
-      "1",
-      "1",
-      "0",
+      1,
+      1,
+      0,
       serviceName,
       "fakeOperation",
       "fakeResource",
@@ -75,7 +75,7 @@ class SpanFactory {
       false,
       "fakeType",
       Collections.emptyMap(),
-      new PendingTrace(tracer, "1", [:]),
+      new PendingTrace(tracer, 1, [:]),
       tracer)
     context.setTag("env", envName)
     return new DDSpan(0l, context)
@@ -0,0 +1,88 @@
+package datadog.opentracing
+
+import spock.lang.Specification
+
+class StackTraceRendererTest extends Specification {
+
+  def "rendered as printed by the throwable"() {
+    setup:
+    def expected = new StringWriter()
+    error.printStackTrace(new PrintWriter(expected))
+
+    expect:
+    new StackTraceRenderer(0, 0).render(error) == expected.toString()
+
+    where:
+    error << [
+      new RuntimeException("no cause"),
+      new RuntimeException(null as String),
+      new RuntimeException("wrapper", new IOException("cause", new IllegalStateException("root cause"))),
+      withSuppressed()
+    ]
+  }
+
+  def "circular causes rendered once"() {
+    setup:
+    def first = new Exception("first")
+    def second = new Exception("second", first)
+    first.initCause(second)
+
+    when:
+    def lines = new StackTraceRenderer(0, 0).render(second).readLines()
+
+    then:
+    lines[0] == "java.lang.Exception: second"
+    lines.count { it.startsWith("Caused by: java.lang.Exception: first") } == 1
+    lines.last() == "Caused by: [CIRCULAR REFERENCE: java.lang.Exception: second]"
+  }
+
+  def "identical stack traces rendered once"() {
+    setup:
+    def renderer = new StackTraceRenderer(0, 0)
+    def errors = (1..2).collect { newError("same message") }
+    // The first calls of a call site go through more Groovy frames
+    errors[1].stackTrace = errors[0].stackTrace
+
+    when:
+    def first = renderer.render(errors[0])
+    def second = renderer.render(errors[1])
+    def other = renderer.render(newError("other message"))
+
+    then:
+    first.is(second)
+    !first.is(other)
+    other.startsWith("java.lang.IllegalStateException: other message")
+  }
+
+  def "frames limited per throwable"() {
+    setup:
+    def error = new RuntimeException("wrapper", new IOException("cause"))
+    def rendered = new StackTraceRenderer(2, 0).render(error)
+    def lines = rendered.readLines()
+
+    expect:
+    lines[0] == "java.lang.RuntimeException: wrapper"
+    lines[1].startsWith("\tat ")
+    lines[2].startsWith("\tat ")
+    lines[3] == "\t... ${error.stackTrace.length - 2} frames truncated"
+    lines[4] == "Caused by: java.io.IOException: cause"
+  }
+
+  def "characters limited"() {
+    setup:
+    def error = new RuntimeException("wrapper", new IOException("cause"))
+
+    expect:
+    new StackTraceRenderer(0, 100).render(error).length() == 100
+  }
+
+  static newError(String message) {
+    return new IllegalStateException(message)
+  }
+
+  static withSuppressed() {
+    def error = new Exception("with suppressed")
+    error.addSuppressed(new IllegalArgumentException("suppressed", new RuntimeException("suppressed cause")))
+    return error
+  }
+}
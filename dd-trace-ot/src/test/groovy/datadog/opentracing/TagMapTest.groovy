@@ -0,0 +1,88 @@
+package datadog.opentracing
+
+import datadog.trace.api.DDTags
+import datadog.trace.common.writer.ListWriter
+import spock.lang.Specification
+
+class TagMapTest extends Specification {
+
+  def "behaves like a map with #count tags"() {
+    setup:
+    def tags = new TagMap()
+    def expected = [:]
+
+    when:
+    (0..<count).each {
+      tags.put("key" + it, it)
+      expected.put("key" + it, it)
+    }
+    tags.put("key0", "updated")
+    expected.put("key0", "updated")
+    tags.remove("key1")
+    expected.remove("key1")
+
+    then:
+    tags == expected
+    expected == tags
+    tags.size() == expected.size()
+    tags.get("key0") == "updated"
+    !tags.containsKey("key1")
+    tags.get("missing") == null
+
+    where:
+    count << [2, TagMap.INLINE_CAPACITY, TagMap.INLINE_CAPACITY + 1, 3 * TagMap.INLINE_CAPACITY]
+  }
+
+  def "removing a tag while iterating does not skip the other tags"() {
+    setup:
+    def tags = new TagMap()
+    (0..<count).each { tags.put("key" + it, it) }
+    def seen = []
+
+    when:
+    def iterator = tags.entrySet().iterator()
+    while (iterator.hasNext()) {
+      def key = iterator.next().key
+      seen << key
+      if (key == "key2") {
+        tags.remove("key0")
+      }
+    }
+
+    then:
+    seen == (0..<count).collect { "key" + it }
+    tags.size() == count - 1
+    !tags.containsKey("key0")
+
+    when:
+    tags.put("added", "value")
+
+    then:
+    tags.size() == count
+    tags.get("added") == "value"
+    tags.keySet() == ((1..<count).collect { "key" + it } + "added") as Set
+
+    where:
+    count << [8, TagMap.INLINE_CAPACITY]
+  }
+
+  def "span metadata is reported with the tags without being stored"() {
+    setup:
+    def tracer = new DDTracer(new ListWriter())
+    def span = tracer.buildSpan("operation").withSpanType("web").start()
+
+    when:
+    span.setTag("tag", "value")
+    span.setTag(DDTags.THREAD_NAME, "overridden")
+
+    then:
+    span.tags["tag"] == "value"
+    span.tags[DDTags.THREAD_NAME] == Thread.currentThread().name
+    span.tags[DDTags.THREAD_ID] == Thread.currentThread().id
+    span.tags[DDTags.SPAN_TYPE] == "web"
+    span.tags.size() == span.tags.entrySet().size()
+    span.context().@tags[DDTags.THREAD_NAME] == "overridden"
+    !span.context().@tags.containsKey(DDTags.THREAD_ID)
+    !span.context().@tags.containsKey(DDTags.SPAN_TYPE)
+  }
+}
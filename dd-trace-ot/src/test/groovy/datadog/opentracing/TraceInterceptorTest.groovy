@@ -3,11 +3,15 @@ package datadog.opentracing
 import datadog.trace.api.GlobalTracer
 import datadog.trace.api.interceptor.MutableSpan
 import datadog.trace.api.interceptor.TraceInterceptor
+import datadog.trace.common.sampling.Sampler
 import datadog.trace.common.writer.ListWriter
 import spock.lang.Specification
 
 import java.util.concurrent.atomic.AtomicBoolean
 
+import static datadog.trace.api.Config.DEFAULT_SERVICE_NAME
+import static java.util.Collections.emptyMap
+
 class TraceInterceptorTest extends Specification {
   def writer = new ListWriter()
   def tracer = new DDTracer(writer)
@@ -146,6 +150,60 @@ class TraceInterceptorTest extends Specification {
     tags.size() == 7
   }
 
+  def "interceptor can remove a span in place"() {
+    setup:
+    tracer.interceptors.add(new TraceInterceptor() {
+      @Override
+      Collection<? extends MutableSpan> onTraceComplete(Collection<? extends MutableSpan> trace) {
+        def spans = trace.iterator()
+        while (spans.hasNext()) {
+          if (spans.next().operationName == "child") {
+            spans.remove()
+          }
+        }
+        return trace
+      }
+
+      @Override
+      int priority() {
+        return 1
+      }
+    })
+    def root = tracer.buildSpan("root").start()
+    tracer.buildSpan("child").asChildOf(root).start().finish()
+    root.finish()
+
+    expect:
+    writer == [[root]]
+  }
+
+  def "interceptors not called for traces dropped by the sampler"() {
+    setup:
+    def called = new AtomicBoolean(false)
+    def sampler = Stub(Sampler) {
+      sample(_) >> false
+    }
+    def tracer = new DDTracer(DEFAULT_SERVICE_NAME, writer, sampler, "some-runtime-id", emptyMap(), emptyMap(), emptyMap())
+    tracer.interceptors.add(new TraceInterceptor() {
+      @Override
+      Collection<? extends MutableSpan> onTraceComplete(Collection<? extends MutableSpan> trace) {
+        called.set(true)
+        return trace
+      }
+
+      @Override
+      int priority() {
+        return 1
+      }
+    })
+    tracer.buildSpan("test").start().finish()
+
+    expect:
+    !called.get()
+    writer == []
+    tracer.traceCount.get() == 1
+  }
+
   def "register interceptor through bridge"() {
     setup:
     GlobalTracer.registerIfAbsent(tracer)
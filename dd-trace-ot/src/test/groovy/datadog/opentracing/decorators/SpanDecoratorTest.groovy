@@ -40,6 +40,31 @@ class SpanDecoratorTest extends Specification {
     span.getTags().get("newFoo") == "newBar"
   }
 
+  def "decorators matching the same tag run in registration order"() {
+    setup:
+    def calls = []
+    2.times { i ->
+      def decorator = new AbstractDecorator() {
+        @Override
+        boolean shouldSetTag(DDSpanContext context, String tag, Object value) {
+          calls << i
+          return i == 0
+        }
+      }
+      decorator.setMatchingTag("some.tag")
+      tracer.addDecorator(decorator)
+    }
+
+    when:
+    span.setTag("some.tag", "value")
+    span.setTag("other.tag", "value")
+
+    then:
+    calls == [0, 1]
+    !span.getTags().containsKey("some.tag")
+    span.getTags().get("other.tag") == "value"
+  }
+
   def "set service name"() {
     setup:
     tracer = new DDTracer(
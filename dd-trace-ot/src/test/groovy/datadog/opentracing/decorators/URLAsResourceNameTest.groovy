@@ -86,13 +86,90 @@ class URLAsResourceNameTest extends Specification {
     "/a.b/a.b" | _
   }
 
+  def "extract the path of '#input'"() {
+    expect:
+    URLAsResourceName.extractPath(input) == output
+    URLAsResourceName.extractPath(input) == pathOf(input)
+
+    where:
+    input                                     | output
+    "/users/1"                                | "/users/1"
+    "http://localhost:8080/users/1?id=2"      | "/users/1"
+    "https://example.com"                     | ""
+    "https://example.com?q=1"                 | ""
+    "http://user@example.com/a/b"             | "/a/b"
+    "http://example.com/a/./b#ref"            | "/a/./b"
+    " http://example.com/trimmed "            | "/trimmed"
+    "http://[::1]:8080/ipv6"                  | "/ipv6"
+    "ftp://example.com/file"                  | "/file"
+    "unknown://example.com/file"              | "unknown://example.com/file"
+    "http://example.com:notaport/path"        | "http://example.com:notaport/path"
+  }
+
+  def "normalize like the regular expressions"() {
+    expect:
+    decorator.norm(input) == regexNorm(input)
+
+    where:
+    input << [
+      "/v1/users/1a/v2",
+      "/v1",
+      "/a/v12/b/v123/c",
+      "//1//",
+      "no-slash1/2",
+      " /a1 ",
+      "/a1\nb?c",
+      "/a?b\n/1",
+      "/a\u2028?b/1",
+      "/path with spaces/1 2"
+    ]
+  }
+
+  def "cache normalized urls"() {
+    setup:
+    def context = tracer.buildSpan("fakeOperation").start().context()
+
+    when:
+    decorator.shouldSetTag(context, Tags.HTTP_URL.key, "http://localhost/users/1")
+    decorator.shouldSetTag(context, Tags.HTTP_URL.key, "http://localhost/users/2")
+    decorator.shouldSetTag(context, Tags.HTTP_URL.key, "http://localhost/users/1")
+
+    then:
+    context.resourceName == "/users/?"
+    decorator.cacheHits == 1
+    decorator.cacheMisses == 2
+  }
+
+  def "urls differing by their query string share a cache entry"() {
+    setup:
+    def context = tracer.buildSpan("fakeOperation").start().context()
+
+    when:
+    decorator.shouldSetTag(context, Tags.HTTP_URL.key, "/a?x=1")
+    decorator.shouldSetTag(context, Tags.HTTP_URL.key, "/a?x=2")
+    decorator.shouldSetTag(context, Tags.HTTP_URL.key, "http://localhost/a?x=3")
+
+    then:
+    context.resourceName == "/a"
+    decorator.cacheHits == 2
+    decorator.cacheMisses == 1
+  }
+
+  def "normalize the path without its query string like the whole path"() {
+    expect:
+    decorator.norm(decorator.withoutQuery(input)) == decorator.norm(input)
+
+    where:
+    input << ["/a?x=1", "/a1?x=1/2", "/a?", "?x", "/a\nb?c", "/a?b\n/1", "/a\u2028?b/1"]
+  }
+
   def "sets the resource name"() {
     when:
     final DDSpanContext context =
       new DDSpanContext(
-        "1",
-        "1",
-        "0",
+        1,
+        1,
+        0,
         "fakeService",
         "fakeOperation",
         "fakeResource",
@@ -101,7 +178,7 @@ class URLAsResourceNameTest extends Specification {
         false,
         "fakeType",
         tags,
-        new PendingTrace(tracer, "1", [:]),
+        new PendingTrace(tracer, 1, [:]),
         tracer)
 
     then:
@@ -115,4 +192,18 @@ class URLAsResourceNameTest extends Specification {
     "/not-found"                | "fakeResource"      | [(Tags.HTTP_STATUS.key): 404]
     "/with-method"              | "Post /with-method" | [(Tags.HTTP_METHOD.key): "Post"]
   }
+
+  static pathOf(String url) {
+    try {
+      return new URL(url).path
+    } catch (MalformedURLException e) {
+      return url
+    }
+  }
+
+  static regexNorm(String path) {
+    def norm = URLAsResourceName.QUERYSTRING.matcher(path).replaceAll("")
+    norm = URLAsResourceName.PATH_MIXED_ALPHANUMERICS.matcher(norm).replaceAll("?")
+    return norm.trim().isEmpty() ? "/" : norm
+  }
 }
@@ -10,9 +10,10 @@ import io.opentracing.propagation.TextMapInjectAdapter
 import spock.lang.Shared
 import spock.lang.Specification
 
-import static datadog.opentracing.propagation.HTTPCodec.BIG_INTEGER_UINT64_MAX
-
 class HTTPCodecTest extends Specification {
+  // uint 64 bits max value, 2^64 - 1
+  static final BigInteger BIG_INTEGER_UINT64_MAX = BigInteger.valueOf(2).pow(64).subtract(BigInteger.ONE)
+
   @Shared
   private static final String OT_BAGGAGE_PREFIX = "ot-baggage-"
   @Shared
@@ -30,9 +31,9 @@ class HTTPCodecTest extends Specification {
     def tracer = new DDTracer(writer)
     final DDSpanContext mockedContext =
       new DDSpanContext(
-        "1",
-        "2",
-        "0",
+        1,
+        2,
+        0,
         "fakeService",
         "fakeOperation",
         "fakeResource",
@@ -46,7 +47,7 @@ class HTTPCodecTest extends Specification {
         false,
         "fakeType",
         null,
-        new PendingTrace(tracer, "1", [:]),
+        new PendingTrace(tracer, 1, [:]),
         tracer)
 
     final Map<String, String> carrier = new HashMap<>()
@@ -75,9 +76,9 @@ class HTTPCodecTest extends Specification {
     def tracer = new DDTracer(writer)
     final DDSpanContext mockedContext =
       new DDSpanContext(
-        largeTraceId,
-        largeSpanId,
-        largeParentId,
+        new BigInteger(largeTraceId).longValue(),
+        new BigInteger(largeSpanId).longValue(),
+        new BigInteger(largeParentId).longValue(),
         "fakeService",
         "fakeOperation",
         "fakeResource",
@@ -91,7 +92,7 @@ class HTTPCodecTest extends Specification {
         false,
         "fakeType",
         null,
-        new PendingTrace(tracer, largeTraceId, [:]),
+        new PendingTrace(tracer, new BigInteger(largeTraceId).longValue(), [:]),
         tracer)
 
     final Map<String, String> carrier = new HashMap<>()
@@ -120,9 +121,9 @@ class HTTPCodecTest extends Specification {
     def tracer = new DDTracer(writer)
     final DDSpanContext mockedContext =
       new DDSpanContext(
-        largeTraceId,
-        largeSpanId,
-        largeParentId,
+        new BigInteger(largeTraceId).longValue(),
+        new BigInteger(largeSpanId).longValue(),
+        new BigInteger(largeParentId).longValue(),
         "fakeService",
         "fakeOperation",
         "fakeResource",
@@ -136,7 +137,7 @@ class HTTPCodecTest extends Specification {
         false,
         "fakeType",
         null,
-        new PendingTrace(tracer, largeTraceId, [:]),
+        new PendingTrace(tracer, new BigInteger(largeTraceId).longValue(), [:]),
         tracer)
 
     final Map<String, String> carrier = new HashMap<>()
@@ -186,6 +187,24 @@ class HTTPCodecTest extends Specification {
     PrioritySampling.SAMPLER_KEEP | _
   }
 
+  def "extract tagged headers configured in any case"() {
+    setup:
+    def codec = new HTTPCodec([" X-Request-Id ": "request-id", (TRACE_ID_KEY.toUpperCase()): "trace-id"])
+    final Map<String, String> actual = [
+      "x-REQUEST-id"                          : "some%20request",
+      (TRACE_ID_KEY)                          : "1",
+      (OT_BAGGAGE_PREFIX.toUpperCase() + "K1"): "v1",
+      "Accept"                                : "*/*",
+    ]
+
+    final ExtractedContext context = codec.extract(new TextMapExtractAdapter(actual))
+
+    expect:
+    context.getTraceId() == "1"
+    context.getBaggage() == ["k1": "v1"]
+    context.getTags() == ["request-id": "some request", "trace-id": "1"]
+  }
+
   def "extract header tags with no propagation"() {
     setup:
     final Map<String, String> actual = [
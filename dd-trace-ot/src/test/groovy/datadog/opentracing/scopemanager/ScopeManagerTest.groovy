@@ -4,6 +4,7 @@ import datadog.opentracing.DDSpan
 import datadog.opentracing.DDSpanContext
 import datadog.opentracing.DDTracer
 import datadog.trace.agent.test.TestUtils
+import datadog.trace.api.Config
 import datadog.trace.common.writer.ListWriter
 import io.opentracing.Scope
 import io.opentracing.Span
@@ -184,7 +185,10 @@ class ScopeManagerTest extends Specification {
   @Timeout(value = 60, unit = TimeUnit.SECONDS)
   def "hard reference on continuation prevents trace from reporting"() {
     setup:
-    def builder = tracer.buildSpan("test")
+    // the finished span is still referenced: the continuation needs its own weak reference
+    def properties = new Properties()
+    properties.setProperty(Config.SPAN_WEAK_REFERENCES_ENABLED, "true")
+    def builder = new DDTracer(Config.get(properties), writer).buildSpan("test")
     def scope = (ContinuableScope) builder.startActive(false)
     def span = scope.span()
     def traceCount = ((DDSpan) span).context().tracer.traceCount
@@ -317,7 +321,7 @@ class ScopeManagerTest extends Specification {
     def scope = (AtomicReferenceScope) builder.startActive(true)
 
     expect:
-    scopeManager.tlsScope.get() == null
+    scopeManager.tlsScope.get().top == null
     scopeManager.active() == scope
     contexts[active].get() == scope.get()
     writer.empty
@@ -342,7 +346,7 @@ class ScopeManagerTest extends Specification {
       it.get() != null
     } == []
 
-    scopeManager.tlsScope.get() == scope
+    scopeManager.tlsScope.get().top == scope
     scopeManager.active() == scope
     writer.empty
 
@@ -360,14 +364,14 @@ class ScopeManagerTest extends Specification {
     scope.setAsyncPropagation(true)
 
     expect:
-    scopeManager.tlsScope.get() == scope
+    scopeManager.tlsScope.get().top == scope
 
     when:
     def cont = scope.capture()
     scope.close()
 
     then:
-    scopeManager.tlsScope.get() == null
+    scopeManager.tlsScope.get().top == null
 
     when:
     scopeManager.addScopeContext(new AtomicReferenceScope(true))
@@ -375,7 +379,7 @@ class ScopeManagerTest extends Specification {
 
     then:
     newScope != scope
-    scopeManager.tlsScope.get() == newScope
+    scopeManager.tlsScope.get().top == newScope
   }
 
   def "context to threadlocal (#contexts.size)"() {
@@ -388,7 +392,7 @@ class ScopeManagerTest extends Specification {
 
     expect:
     scope instanceof AtomicReferenceScope
-    scopeManager.tlsScope.get() == null
+    scopeManager.tlsScope.get().top == null
 
     when:
     scope.close()
@@ -399,7 +403,7 @@ class ScopeManagerTest extends Specification {
 
     then:
     scope instanceof ContinuableScope
-    scopeManager.tlsScope.get() == scope
+    scopeManager.tlsScope.get().top == scope
 
     where:
     contexts                                                         | _
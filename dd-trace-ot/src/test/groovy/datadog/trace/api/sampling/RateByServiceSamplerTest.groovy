@@ -2,7 +2,10 @@ package datadog.trace.api.sampling
 
 import com.fasterxml.jackson.databind.ObjectMapper
 import datadog.opentracing.DDSpan
+import datadog.opentracing.DDTracer
+import datadog.opentracing.PendingTrace
 import datadog.opentracing.SpanFactory
+import datadog.trace.common.writer.ListWriter
 import datadog.trace.common.sampling.RateByServiceSampler
 import spock.lang.Specification
 
@@ -15,7 +18,7 @@ class RateByServiceSamplerTest extends Specification {
     String response = '{"rate_by_service": {"service:,env:":' + rate + '}}'
     serviceSampler.onResponse("traces", serializer.readTree(response))
     expect:
-    serviceSampler.baseSampler.sampleRate == expectedRate
+    serviceSampler.rates.baseSampler.sampleRate == expectedRate
 
     where:
     rate | expectedRate
@@ -67,4 +70,52 @@ class RateByServiceSamplerTest extends Specification {
     span.getSamplingPriority() == PrioritySampling.SAMPLER_KEEP
     span.getMetrics().get("_sample_rate") == 1.0
   }
+
+  def "rate looked up by service and env"() {
+    setup:
+    RateByServiceSampler serviceSampler = new RateByServiceSampler()
+    ObjectMapper serializer = new ObjectMapper()
+    String response = '{"rate_by_service": {"service:,env:":1.0, "service:spock,env:test":0.25, "service:spock,env:":0.5}}'
+    serviceSampler.onResponse("traces", serializer.readTree(response))
+
+    DDSpan span = SpanFactory.newSpanOf(service, env)
+    serviceSampler.initializeSamplingPriority(span)
+
+    expect:
+    span.getMetrics().get("_sample_rate") == rate
+
+    where:
+    service | env    | rate
+    "spock" | "test" | 0.25
+    "spock" | ""     | 0.5
+    "spock" | "prod" | 1.0
+    "foo"   | "test" | 1.0
+  }
+
+  def "sampling decision is deterministic by trace id"() {
+    setup:
+    def tracer = new DDTracer(new ListWriter())
+    ObjectMapper serializer = new ObjectMapper()
+    String response = '{"rate_by_service": {"service:,env:":' + rate + '}}'
+    RateByServiceSampler first = new RateByServiceSampler()
+    RateByServiceSampler second = new RateByServiceSampler()
+    first.onResponse("traces", serializer.readTree(response))
+    second.onResponse("traces", serializer.readTree(response))
+
+    when:
+    def decisions = (1..1000).collect { traceId ->
+      DDSpan span1 = SpanFactory.newSpanOf(new PendingTrace(tracer, traceId, [:]))
+      DDSpan span2 = SpanFactory.newSpanOf(new PendingTrace(tracer, traceId, [:]))
+      first.initializeSamplingPriority(span1)
+      second.initializeSamplingPriority(span2)
+      [span1.getSamplingPriority(), span2.getSamplingPriority()]
+    }
+
+    then:
+    decisions.every { it[0] == it[1] }
+    Math.abs(decisions.count { it[0] == PrioritySampling.SAMPLER_KEEP } / 1000 - rate) < 0.05
+
+    where:
+    rate << [0.1, 0.5, 0.9]
+  }
 }
@@ -0,0 +1,185 @@
+package datadog.trace.api.sampling
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import datadog.opentracing.DDSpan
+import datadog.opentracing.DDTracer
+import datadog.trace.api.Config
+import datadog.trace.common.sampling.RateByServiceSampler
+import datadog.trace.common.sampling.RateLimitingSampler
+import datadog.trace.common.sampling.Sampler
+import datadog.trace.common.writer.DDAgentWriter
+import datadog.trace.common.writer.DDApi
+import datadog.trace.common.writer.ListWriter
+import datadog.trace.common.writer.Writer
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+import static datadog.trace.api.Config.DEFAULT_SERVICE_NAME
+import static java.util.Collections.emptyMap
+
+class RateLimitingSamplerTest extends Specification {
+
+  def "traces kept are limited per service"() {
+    setup:
+    def writer = new ListWriter()
+    def tracer = new DDTracer(DEFAULT_SERVICE_NAME, writer, new RateLimitingSampler(10), "some-runtime-id", emptyMap(), emptyMap(), emptyMap())
+
+    when:
+    def start = System.nanoTime()
+    ["web", "db"].each { service ->
+      1000.times {
+        tracer.buildSpan("operation").withServiceName(service).start().finish()
+      }
+    }
+    def elapsedSeconds = (System.nanoTime() - start) / TimeUnit.SECONDS.toNanos(1)
+
+    then:
+    def kept = writer.findAll { it[0].samplingPriority == PrioritySampling.SAMPLER_KEEP }.groupBy { it[0].serviceName }
+    ["web", "db"].every { service ->
+      kept[service].size() >= 10 && kept[service].size() <= 10 * (1 + elapsedSeconds) + 1
+    }
+    writer.every { it[0].metrics[RateLimitingSampler.LIMIT_RATE_KEY] != null }
+  }
+
+  def "limited traces are still written with a drop priority when the stats are not computed"() {
+    setup:
+    def writer = new ListWriter()
+    def tracer = new DDTracer(DEFAULT_SERVICE_NAME, writer, new RateLimitingSampler(1), "some-runtime-id", emptyMap(), emptyMap(), emptyMap())
+
+    when:
+    100.times {
+      tracer.buildSpan("operation").start().finish()
+    }
+
+    then:
+    writer.size() == 100
+    writer.count { it[0].samplingPriority == PrioritySampling.SAMPLER_DROP } >= 90
+    writer.every { it[0].metrics[RateLimitingSampler.LIMIT_RATE_KEY] != null }
+  }
+
+  def "agent rates are applied before the limit"() {
+    setup:
+    def sampler = new RateLimitingSampler(1000)
+    sampler.onResponse("traces", new ObjectMapper().readTree('{"rate_by_service": {"service:,env:":0.000001}}'))
+    def writer = new ListWriter()
+    def tracer = new DDTracer(DEFAULT_SERVICE_NAME, writer, sampler, "some-runtime-id", emptyMap(), emptyMap(), emptyMap())
+
+    when:
+    100.times {
+      tracer.buildSpan("operation").start().finish()
+    }
+
+    then:
+    // dropped by the agent rates, written for the agent stats and not counted by the limiter
+    writer.size() == 100
+    writer.every { it[0].samplingPriority == PrioritySampling.SAMPLER_DROP }
+    writer.every { it[0].metrics[RateLimitingSampler.LIMIT_RATE_KEY] == null }
+  }
+
+  def "keep rate adapts to the traffic of the previous windows"() {
+    setup:
+    def limiter = new RateLimitingSampler.Limiter(100, 0)
+
+    when:
+    1000.times { limiter.tryAcquire(0) }
+    limiter.tryAcquire(RateLimitingSampler.WINDOW_NANOS)
+
+    then:
+    limiter.keepRate == 0.1d
+    limiter.effectiveRate == 0.1d
+  }
+
+  def "rate limiting sampler created from config"() {
+    setup:
+    def properties = new Properties()
+    properties.setProperty("trace.rate.limit", "50")
+
+    expect:
+    Sampler.Builder.forConfig(properties) instanceof RateLimitingSampler
+    Sampler.Builder.forConfig(new Properties()).class == RateByServiceSampler
+  }
+
+  def "limited traces not written with the rate limit alone configured"() {
+    setup:
+    def properties = new Properties()
+    properties.setProperty("trace.rate.limit", "1")
+    def config = Config.get(properties)
+    def api = ((DDAgentWriter) Writer.Builder.forConfig(config)).api
+    def written = []
+    def writer = new DDAgentWriter(api) {
+      @Override
+      void write(List<DDSpan> trace) {
+        written << trace
+      }
+    }
+    def tracer = new DDTracer(config, writer)
+
+    when:
+    def start = System.nanoTime()
+    100.times {
+      tracer.buildSpan("operation").start().finish()
+    }
+    def elapsedSeconds = (System.nanoTime() - start) / TimeUnit.SECONDS.toNanos(1)
+
+    then:
+    api.statsComputationEnabled
+    !((DDAgentWriter) Writer.Builder.forConfig(new Properties())).api.statsComputationEnabled
+    written.size() >= 1
+    written.size() <= 1 + elapsedSeconds + 1
+    written.every { it[0].samplingPriority == PrioritySampling.SAMPLER_KEEP }
+
+    cleanup:
+    tracer.close()
+  }
+
+  def "writer queue and serialized traces bounded during a burst"() {
+    setup:
+    def serializedTraces = new AtomicLong()
+    def api = Stub(DDApi) {
+      getTraceCounter() >> new AtomicInteger()
+      // Only dropped before the writer when the tracer computes the stats
+      isStatsComputationEnabled() >> true
+      getEncodedSpanSize() >> 100
+      sendTraces(_) >> { List<List> traces -> serializedTraces.addAndGet(traces[0].size()); true }
+    }
+    def writer = new DDAgentWriter(api, 100, Long.MAX_VALUE)
+    def tracer = new DDTracer(DEFAULT_SERVICE_NAME, writer, sampler, "some-runtime-id", emptyMap(), emptyMap(), emptyMap())
+    def threads = 4
+    def tracesPerThread = 5000
+    def maxQueued = new AtomicInteger()
+    def done = new CountDownLatch(threads)
+
+    when:
+    def start = System.nanoTime()
+    threads.times {
+      Thread.start {
+        tracesPerThread.times {
+          tracer.buildSpan("servlet.request").withServiceName("web").start().finish()
+          def queued = writer.traces.size()
+          if (queued > maxQueued.get()) {
+            maxQueued.set(queued)
+          }
+        }
+        done.countDown()
+      }
+    }
+    done.await(30, TimeUnit.SECONDS)
+    def elapsedSeconds = (System.nanoTime() - start) / TimeUnit.SECONDS.toNanos(1)
+    Thread.sleep(500)
+    writer.close()
+    def bound = 100 * (1 + elapsedSeconds) + threads
+
+    then:
+    (serializedTraces.get() <= bound) == limited
+    !limited || maxQueued.get() <= bound
+
+    where:
+    sampler                      | limited
+    new RateByServiceSampler()   | false
+    new RateLimitingSampler(100) | true
+  }
+}
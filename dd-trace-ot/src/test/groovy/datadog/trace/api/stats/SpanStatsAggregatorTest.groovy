@@ -0,0 +1,174 @@
+package datadog.trace.api.stats
+
+import datadog.opentracing.DDSpan
+import datadog.opentracing.DDTracer
+import datadog.trace.api.interceptor.MutableSpan
+import datadog.trace.api.interceptor.TraceInterceptor
+import datadog.trace.api.sampling.PrioritySampling
+import datadog.trace.common.sampling.AllSampler
+import datadog.trace.common.stats.LatencySketch
+import datadog.trace.common.stats.SpanStatsAggregator
+import datadog.trace.common.writer.DDAgentWriter
+import datadog.trace.common.writer.DDApi
+import datadog.trace.common.writer.ListWriter
+import spock.lang.Specification
+
+import java.util.concurrent.atomic.AtomicInteger
+
+import static datadog.trace.api.Config.DEFAULT_SERVICE_NAME
+import static java.util.Collections.emptyMap
+
+class SpanStatsAggregatorTest extends Specification {
+  def tracer = new DDTracer(new ListWriter())
+
+  def "top-level spans are aggregated by service, operation, resource and type"() {
+    setup:
+    def api = Mock(DDApi)
+    def aggregator = new SpanStatsAggregator(api, "some-runtime-id", "staging")
+    def payloads = []
+
+    def root = tracer.buildSpan("servlet.request").withServiceName("web").withResourceName("GET /users").start()
+    def local = tracer.buildSpan("render").asChildOf(root).withServiceName("web").start()
+    def remote = tracer.buildSpan("db.query").asChildOf(root).withServiceName("db").withTag("error", true).start()
+    def trace = [remote, local, root]
+    trace*.finish()
+
+    when:
+    aggregator.record(trace)
+    aggregator.record(trace)
+    aggregator.flush()
+    aggregator.flush()
+
+    then:
+    1 * api.sendStats(_) >> { args -> payloads << args[0]; true }
+    payloads.size() == 1
+    payloads[0].RuntimeID == "some-runtime-id"
+    payloads[0].Env == "staging"
+    payloads[0].Stats.size() == 1
+    def stats = payloads[0].Stats[0].Stats.collectEntries { [(it.Service): it] }
+    stats.keySet() == ["web", "db"] as Set
+    stats.web.Name == "servlet.request"
+    stats.web.Resource == "GET /users"
+    stats.web.Hits == 2
+    stats.web.Errors == 0
+    stats.web.Duration == 2 * root.durationNano
+    stats.db.Hits == 2
+    stats.db.Errors == 2
+    stats.db.TopLevelHits == 2
+
+    cleanup:
+    aggregator.close()
+  }
+
+  def "stats are sent on close"() {
+    setup:
+    def api = Mock(DDApi)
+    def aggregator = new SpanStatsAggregator(api, "some-runtime-id", "staging")
+    def span = tracer.buildSpan("operation").start()
+    span.finish()
+
+    when:
+    aggregator.record([span])
+    aggregator.close()
+
+    then:
+    1 * api.sendStats(_) >> true
+  }
+
+  def "priority dropped traces are counted but not written"() {
+    setup:
+    def api = Mock(DDApi) {
+      isStatsComputationEnabled() >> true
+      getTraceCounter() >> new AtomicInteger()
+    }
+    def written = []
+    def writer = new DDAgentWriter(api) {
+      @Override
+      void write(List<DDSpan> trace) {
+        written << trace
+      }
+    }
+    def tracer = new DDTracer(DEFAULT_SERVICE_NAME, writer, new AllSampler(), "some-runtime-id", ["env": "production"], emptyMap(), emptyMap())
+
+    when:
+    def dropped = tracer.buildSpan("dropped").start()
+    dropped.setSamplingPriority(PrioritySampling.SAMPLER_DROP)
+    dropped.finish()
+    def kept = tracer.buildSpan("kept").start()
+    kept.setSamplingPriority(PrioritySampling.SAMPLER_KEEP)
+    kept.finish()
+
+    then:
+    written == [[kept]]
+
+    when:
+    tracer.statsAggregator.close()
+
+    then:
+    1 * api.sendStats({ it.Env == "production" && it.Stats[0].Stats*.Name as Set == ["dropped", "kept"] as Set }) >> true
+  }
+
+  def "traces are counted before the interceptors"() {
+    setup:
+    def api = Mock(DDApi) {
+      isStatsComputationEnabled() >> true
+      getTraceCounter() >> new AtomicInteger()
+    }
+    def written = []
+    def writer = new DDAgentWriter(api) {
+      @Override
+      void write(List<DDSpan> trace) {
+        written << trace
+      }
+    }
+    def tracer = new DDTracer(DEFAULT_SERVICE_NAME, writer, new AllSampler(), "some-runtime-id", emptyMap(), emptyMap(), emptyMap())
+    tracer.addTraceInterceptor(new TraceInterceptor() {
+      @Override
+      Collection<? extends MutableSpan> onTraceComplete(Collection<? extends MutableSpan> trace) {
+        return trace.findAll { it.operationName != "filtered" }
+      }
+
+      @Override
+      int priority() {
+        return 0
+      }
+    })
+
+    when:
+    def filtered = tracer.buildSpan("filtered").start()
+    filtered.setSamplingPriority(PrioritySampling.SAMPLER_KEEP)
+    filtered.finish()
+    def dropped = tracer.buildSpan("dropped").start()
+    dropped.setSamplingPriority(PrioritySampling.SAMPLER_DROP)
+    dropped.finish()
+    def kept = tracer.buildSpan("kept").start()
+    kept.setSamplingPriority(PrioritySampling.SAMPLER_KEEP)
+    kept.finish()
+
+    then:
+    written == [[kept]]
+
+    when:
+    tracer.statsAggregator.close()
+
+    then:
+    1 * api.sendStats({ it.Stats[0].Stats*.Name as Set == ["filtered", "dropped", "kept"] as Set }) >> true
+  }
+
+  def "latency sketch bins hold values within the relative accuracy"() {
+    setup:
+    def sketch = new LatencySketch()
+
+    when:
+    sketch.accept(value)
+    def index = LatencySketch.index(value)
+
+    then:
+    sketch.count() == 1
+    Math.pow(LatencySketch.GAMMA, index - 1) < value
+    value <= Math.pow(LatencySketch.GAMMA, index) * (1 + 1e-9)
+
+    where:
+    value << [1L, 2L, 999L, 1000L, 1_000_000L, 123_456_789L, 60_000_000_000L]
+  }
+}
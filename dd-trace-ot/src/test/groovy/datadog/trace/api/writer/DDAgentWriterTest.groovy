@@ -6,7 +6,10 @@ import datadog.trace.common.writer.DDApi
 import datadog.trace.common.writer.WriterQueue
 import spock.lang.Specification
 
+import java.util.concurrent.TimeUnit
+
 import static datadog.opentracing.SpanFactory.newSpanOf
+import static datadog.trace.api.Config.DEFAULT_WRITER_FLUSH_INTERVAL_MILLIS
 import static org.mockito.Mockito.mock
 import static org.mockito.Mockito.verifyNoMoreInteractions
 
@@ -37,7 +40,7 @@ class DDAgentWriterTest extends Specification {
 
     where:
     trace = [newSpanOf(0)]
-    flush_time_wait = (int) (1.2 * (DDAgentWriter.FLUSH_TIME_SECONDS * 1_000))
+    flush_time_wait = (int) (1.2 * DEFAULT_WRITER_FLUSH_INTERVAL_MILLIS)
     tick << [1, 3]
   }
 
@@ -69,6 +72,27 @@ class DDAgentWriterTest extends Specification {
 
   }
 
+  def "traces are flushed early when their estimated size reaches the threshold"() {
+    setup:
+    def api = Mock(DDApi)
+    def writer = new DDAgentWriter(api, TimeUnit.HOURS.toMillis(1), 1)
+    writer.start()
+    Thread.sleep(100)
+
+    when:
+    writer.write(trace)
+    Thread.sleep(500)
+
+    then:
+    1 * api.sendTraces([trace])
+
+    cleanup:
+    writer.close()
+
+    where:
+    trace = [newSpanOf(0)]
+  }
+
   def "check that are no interactions after close"() {
 
     setup:
@@ -85,6 +109,6 @@ class DDAgentWriterTest extends Specification {
     verifyNoMoreInteractions(api)
 
     where:
-    flush_time_wait = (int) (1.2 * (DDAgentWriter.FLUSH_TIME_SECONDS * 1_000))
+    flush_time_wait = (int) (1.2 * DEFAULT_WRITER_FLUSH_INTERVAL_MILLIS)
   }
 }
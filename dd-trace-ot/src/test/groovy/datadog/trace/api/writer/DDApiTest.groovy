@@ -9,6 +9,7 @@ import datadog.trace.common.writer.DDApi.ResponseListener
 import org.msgpack.jackson.dataformat.MessagePackFactory
 import spock.lang.Specification
 
+import java.util.concurrent.CopyOnWriteArrayList
 import java.util.concurrent.atomic.AtomicReference
 
 import static datadog.trace.agent.test.server.http.TestHttpServer.httpServer
@@ -82,9 +83,9 @@ class DDApiTest extends Specification {
 
     // Populate thread info dynamically as it is different when run via gradle vs idea.
     where:
-    traces                                                               | expectedRequestBody
-    []                                                                   | []
-    [SpanFactory.newSpanOf(1L).setTag("service.name", "my-service")]     | [new TreeMap<>([
+    traces                                                                 | expectedRequestBody
+    []                                                                     | []
+    [[SpanFactory.newSpanOf(1L).setTag("service.name", "my-service")]]     | [[new TreeMap<>([
       "duration" : 0,
       "error"    : 0,
       "meta"     : ["span.type": "fakeType", "thread.name": Thread.currentThread().getName(), "thread.id": "${Thread.currentThread().id}"],
@@ -97,8 +98,8 @@ class DDApiTest extends Specification {
       "start"    : 1000,
       "trace_id" : 1,
       "type"     : "fakeType"
-    ])]
-    [SpanFactory.newSpanOf(100L).setTag("resource.name", "my-resource")] | [new TreeMap<>([
+    ])]]
+    [[SpanFactory.newSpanOf(100L).setTag("resource.name", "my-resource")]] | [[new TreeMap<>([
       "duration" : 0,
       "error"    : 0,
       "meta"     : ["span.type": "fakeType", "thread.name": Thread.currentThread().getName(), "thread.id": "${Thread.currentThread().id}"],
@@ -111,7 +112,114 @@ class DDApiTest extends Specification {
       "start"    : 100000,
       "trace_id" : 1,
       "type"     : "fakeType"
-    ])]
+    ])]]
+  }
+
+  def "traces are split in payloads under the maximum size"() {
+    setup:
+    def payloads = new CopyOnWriteArrayList<byte[]>()
+    def traceCounts = new CopyOnWriteArrayList<String>()
+    def agent = httpServer {
+      handlers {
+        put("v0.4/traces") {
+          payloads.add(request.body)
+          traceCounts.add(request.headers.get("X-Datadog-Trace-Count"))
+          response.send()
+        }
+      }
+    }
+    def traces = (1..5).collect { [SpanFactory.newSpanOf(1L), SpanFactory.newSpanOf(1L)] }
+    def client = new DDApi("localhost", agent.address.port, maxPayloadSize)
+    client.getTraceCounter().set(traces.size() + 2)
+
+    expect:
+    client.sendTraces(traces)
+    payloads.size() == expectedPayloads
+    payloads.every { it.length <= maxPayloadSize || convertList(it).size() == 1 }
+    payloads.sum { convertList(it).size() } == traces.size()
+    traceCounts.sum { Integer.valueOf(it) } == traces.size() + 2
+
+    cleanup:
+    agent.close()
+
+    where:
+    maxPayloadSize    | expectedPayloads
+    1                 | 5
+    Integer.MAX_VALUE | 1
+  }
+
+  def "consecutive flushes reuse the connection to the agent"() {
+    setup:
+    def requests = new CopyOnWriteArrayList<String>()
+    def agent = httpServer {
+      handlers {
+        put("v0.4/traces") {
+          requests.add(request.headers.get("X-Datadog-Trace-Count"))
+          response.status(requests.size() == 2 ? 500 : 200).send(requests.size() % 2 ? "OK" : "")
+        }
+      }
+    }
+    def client = new DDApi("localhost", agent.address.port)
+
+    expect:
+    (1..4).collect {
+      client.getTraceCounter().set(it)
+      client.sendTraces([])
+    } == [true, false, true, true]
+    requests == ["1", "2", "3", "4"]
+
+    cleanup:
+    agent.close()
+  }
+
+  def "big payload sent again intact when the agent closes the connection"() {
+    setup:
+    def bodies = new CopyOnWriteArrayList<byte[]>()
+    def server = new ServerSocket(0, 50, InetAddress.getByName("localhost"))
+    def acceptor = Thread.start {
+      while (!server.closed) {
+        def socket
+        try {
+          socket = server.accept()
+        } catch (SocketException e) {
+          break
+        }
+        Thread.start {
+          socket.withCloseable {
+            def input = new DataInputStream(new BufferedInputStream(socket.inputStream))
+            def output = socket.outputStream
+            def request
+            def tracesRequests = 0
+            while ((request = readRequest(input)) != null) {
+              if (request.headers["x-datadog-trace-count"] != null) {
+                if (tracesRequests++ > 0) {
+                  // The kept-alive connection is closed by the agent, the request is lost
+                  break
+                }
+                bodies.add(request.body)
+              }
+              output.write("HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n".bytes)
+              output.flush()
+            }
+          }
+        }
+      }
+    }
+    def client = DDApi.withDeferredEndpointDetection("localhost", server.localPort, Integer.MAX_VALUE, false)
+    def bigValue = "x" * (1024 * 1024)
+    def traces = (1..5).collect { [SpanFactory.newSpanOf(1L).setTag("big", bigValue)] }
+
+    expect:
+    client.sendTraces(traces)
+    client.sendTraces(traces)
+    bodies.size() == 2
+    bodies[0].length > 4 * 1024 * 1024
+    bodies[1].length == bodies[0].length
+    bodies[1] == bodies[0]
+
+    cleanup:
+    server.close()
+    acceptor.join(1000)
   }
 
   def "Api ResponseListeners see 200 responses"() {
@@ -167,6 +275,39 @@ class DDApiTest extends Specification {
     v3Agent.close()
   }
 
+  def "endpoint detected on the first send when deferred"() {
+    setup:
+    def probes = 0
+    def agent = httpServer {
+      handlers {
+        put("v0.4/traces") {
+          // Traces are sent with a count, unlike the probe
+          if (request.getHeader("X-Datadog-Trace-Count") == null) {
+            probes++
+          }
+          response.status(200).send()
+        }
+      }
+    }
+    def client = DDApi.withDeferredEndpointDetection("localhost", agent.address.port, 1024, false)
+
+    expect:
+    client.tracesEndpoint == "http://localhost:${agent.address.port}/v0.3/traces"
+    probes == 0
+
+    when:
+    def sent = client.sendTraces([])
+    client.detectEndpoint()
+
+    then:
+    sent
+    probes == 1
+    client.tracesEndpoint == "http://localhost:${agent.address.port}/v0.4/traces"
+
+    cleanup:
+    agent.close()
+  }
+
   def "Api Downgrades to v3 if timeout exceeded (#delayTrace, #badPort)"() {
     // This test is unfortunately only exercising the read timeout, not the connect timeout.
     setup:
@@ -200,8 +341,23 @@ class DDApiTest extends Specification {
     "v0.3"          | 30000      | false
   }
 
-  static List<TreeMap<String, Object>> convertList(byte[] bytes) {
-    return mapper.readValue(bytes, new TypeReference<List<TreeMap<String, Object>>>() {})
+  static Map readRequest(DataInputStream input) {
+    def headers = [:]
+    def line = input.readLine()
+    if (line == null) {
+      return null
+    }
+    while ((line = input.readLine()) != null && !line.empty) {
+      def separator = line.indexOf(':')
+      headers[line.substring(0, separator).trim().toLowerCase()] = line.substring(separator + 1).trim()
+    }
+    def body = new byte[Integer.valueOf(headers["content-length"] ?: "0")]
+    input.readFully(body)
+    return [headers: headers, body: body]
+  }
+
+  static List<List<TreeMap<String, Object>>> convertList(byte[] bytes) {
+    return mapper.readValue(bytes, new TypeReference<List<List<TreeMap<String, Object>>>>() {})
   }
 
   static TreeMap<String, Object> convertMap(byte[] bytes) {
@@ -0,0 +1,115 @@
+package datadog.trace.api.writer
+
+import com.fasterxml.jackson.core.type.TypeReference
+import com.fasterxml.jackson.databind.ObjectMapper
+import datadog.opentracing.DDSpan
+import datadog.opentracing.DDSpanContext
+import datadog.opentracing.DDTracer
+import datadog.opentracing.PendingTrace
+import datadog.trace.api.sampling.PrioritySampling
+import datadog.trace.common.writer.ListWriter
+import datadog.trace.common.writer.MsgPackTraceEncoder
+import org.msgpack.core.MessagePack
+import org.msgpack.core.buffer.ArrayBufferInput
+import org.msgpack.jackson.dataformat.MessagePackFactory
+import org.msgpack.value.ValueType
+import spock.lang.Specification
+
+class MsgPackTraceEncoderTest extends Specification {
+  static mapper = new ObjectMapper(new MessagePackFactory())
+
+  def writer = new ListWriter()
+  def tracer = new DDTracer(writer)
+
+  def "encoded traces match the jackson serialization (#traceCount traces of #spanCount spans)"() {
+    setup:
+    def traces = []
+    traceCount.times {
+      def scope = tracer.buildSpan("root").withTag("some-tag", "some-value").startActive(true)
+      scope.span().setBaggageItem("baggage", "value")
+      scope.span().setBaggageItem("some-tag", "overridden by the tag")
+      (spanCount - 1).times { i ->
+        def span = tracer.buildSpan("child").withServiceName("service-${i % 3}").start()
+        span.setTag("unicode", "résumé 😀")
+        span.setTag("long", "a" * (i * 50))
+        span.setTag("number", i)
+        span.context().setMetric("metric", i % 2 == 0 ? 0.5d : i)
+        span.finish()
+      }
+      scope.close()
+      traces.add(writer.get(writer.size() - 1))
+    }
+    def encoder = new MsgPackTraceEncoder()
+
+    when:
+    encoder.encode(traces)
+
+    then:
+    convert(encoder.toByteArray()) == convert(mapper.writeValueAsBytes(traces))
+
+    when: "the encoder is reused"
+    encoder.encode(traces)
+
+    then:
+    convert(encoder.toByteArray()) == convert(mapper.writeValueAsBytes(traces))
+
+    where:
+    traceCount | spanCount
+    0          | 0
+    1          | 1
+    1          | 20
+    20         | 5
+  }
+
+  def "trace/span with id #value encoded as int"() {
+    setup:
+    def context = new DDSpanContext(
+      value.longValue(),
+      value.longValue(),
+      0,
+      "fakeService",
+      "fakeOperation",
+      "fakeResource",
+      PrioritySampling.UNSET,
+      Collections.emptyMap(),
+      false,
+      "fakeType",
+      Collections.emptyMap(),
+      new PendingTrace(tracer, 1, [:]),
+      tracer)
+    def span = new DDSpan(0, context)
+    def encoder = new MsgPackTraceEncoder()
+    encoder.encode([[span]])
+    def unpacker = MessagePack.newDefaultUnpacker(new ArrayBufferInput(encoder.toByteArray()))
+    unpacker.unpackArrayHeader()
+    unpacker.unpackArrayHeader()
+    int size = unpacker.unpackMapHeader()
+
+    expect:
+    for (int i = 0; i < size; i++) {
+      String key = unpacker.unpackString()
+
+      switch (key) {
+        case "trace_id":
+        case "span_id":
+          assert unpacker.nextFormat.valueType == ValueType.INTEGER
+          assert unpacker.unpackBigInteger() == value
+          break
+        default:
+          unpacker.unpackValue()
+      }
+    }
+
+    where:
+    value                                                        | _
+    BigInteger.ZERO                                              | _
+    BigInteger.ONE                                               | _
+    BigInteger.valueOf(Long.MAX_VALUE).subtract(BigInteger.ONE)  | _
+    BigInteger.valueOf(Long.MAX_VALUE).add(BigInteger.ONE)       | _
+    BigInteger.valueOf(2).pow(64).subtract(BigInteger.ONE)       | _
+  }
+
+  static List<List<TreeMap<String, Object>>> convert(byte[] bytes) {
+    return mapper.readValue(bytes, new TypeReference<List<List<TreeMap<String, Object>>>>() {})
+  }
+}
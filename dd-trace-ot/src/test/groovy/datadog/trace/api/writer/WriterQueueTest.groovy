@@ -61,6 +61,26 @@ class WriterQueueTest extends Specification {
 
   }
 
+  def "replacements in a full queue do not grow the reservations"() {
+    setup:
+    def queue = new WriterQueue<Integer>(capacity)
+
+    when:
+    (10 * capacity + 1).times {
+      queue.add(it)
+    }
+
+    then:
+    queue.@ring.get().@reserved.get() == capacity
+    queue.size() == capacity
+    queue.getAll().size() == capacity
+    queue.add(1) == null
+    queue.size() == 1
+
+    where:
+    capacity << [1, 10, 100]
+  }
+
   def "drain the queue into another collection"() {
 
     setup:
@@ -19,9 +19,9 @@ class DDApiIntegrationTest {
     static final WRITER = new ListWriter()
     static final TRACER = new DDTracer(WRITER)
     static final CONTEXT = new DDSpanContext(
-      "1",
-      "1",
-      "0",
+      1,
+      1,
+      0,
       "fakeService",
       "fakeOperation",
       "fakeResource",
@@ -30,7 +30,7 @@ class DDApiIntegrationTest {
       false,
       "fakeType",
       Collections.emptyMap(),
-      new PendingTrace(TRACER, "1", [:]),
+      new PendingTrace(TRACER, 1, [:]),
       TRACER)
 
     def api = new DDApi(DEFAULT_AGENT_HOST, DEFAULT_TRACE_AGENT_PORT, v4())